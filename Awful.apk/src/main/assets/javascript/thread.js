@@ -547,6 +547,18 @@ function updateMarkedUsers(users) {
 	});
 }
 
+/**
+ * Points the placeholder links for a Vimeo video at its real address, once that's been looked up
+ * @param {String} videoId The Vimeo ID of the video
+ * @param {String} url The video's address
+ */
+function updateVimeoLinks(videoId, url) {
+	document.body.querySelectorAll('a[data-vimeo-id="' + videoId + '"]').forEach(function each(link) {
+		link.href = url;
+		link.textContent = url;
+	});
+}
+
 /**
  * wait for redraw
  * @param {String} id the id of the post
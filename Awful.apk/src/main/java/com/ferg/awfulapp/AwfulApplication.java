@@ -10,6 +10,7 @@ import android.webkit.WebView;
 import com.ferg.awfulapp.announcements.AnnouncementsManager;
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.network.NetworkUtils;
+import com.ferg.awfulapp.network.VideoMetadataCache;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.sync.SyncManager;
 import com.jakewharton.threetenabp.AndroidThreeTen;
@@ -63,6 +64,7 @@ public class AwfulApplication extends Application {
         appStatePrefs = this.getSharedPreferences(APP_STATE_PREFERENCES, MODE_PRIVATE);
 
         NetworkUtils.init(this);
+        VideoMetadataCache.init(this);
         AndroidThreeTen.init(this);
         AnnouncementsManager.init();
         FontManager.createInstance(mPref, getAssets());
@@ -30,6 +30,7 @@ import com.android.volley.VolleyError;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.provider.AwfulProvider;
 import com.ferg.awfulapp.provider.ColorProvider;
+import com.ferg.awfulapp.provider.ContentCompression;
 import com.ferg.awfulapp.reply.MessageComposer;
 import com.ferg.awfulapp.task.AwfulRequest;
 import com.ferg.awfulapp.task.PMReplyRequest;
@@ -384,7 +385,7 @@ public class MessageFragment extends AwfulFragment implements OnClickListener {
     			}
         		String title = aData.getString(aData.getColumnIndex(AwfulMessage.TITLE));
         		mTitle.setText(title);
-				messageWebView.setBodyHtml(AwfulMessage.getMessageHtml(aData.getString(aData.getColumnIndex(AwfulMessage.CONTENT))));
+				messageWebView.setBodyHtml(AwfulMessage.getMessageHtml(ContentCompression.getString(aData, aData.getColumnIndex(AwfulMessage.CONTENT))));
 				mPostdate.setText(aData.getString(aData.getColumnIndex(AwfulMessage.DATE)));
         		String replyTitle = aData.getString(aData.getColumnIndex(AwfulMessage.REPLY_TITLE));
         		String replyContent = aData.getString(aData.getColumnIndex(AwfulMessage.REPLY_CONTENT));
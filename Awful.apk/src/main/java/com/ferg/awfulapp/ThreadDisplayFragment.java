@@ -68,12 +68,14 @@ import com.android.volley.VolleyError;
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.network.CookieController;
 import com.ferg.awfulapp.network.NetworkUtils;
+import com.ferg.awfulapp.network.VideoMetadataCache;
 import com.ferg.awfulapp.popupmenu.PostContextMenu;
 import com.ferg.awfulapp.popupmenu.UrlContextMenu;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.preferences.Keys;
 import com.ferg.awfulapp.provider.AwfulProvider;
 import com.ferg.awfulapp.provider.AwfulTheme;
+import com.ferg.awfulapp.provider.CacheManager;
 import com.ferg.awfulapp.provider.ColorProvider;
 import com.ferg.awfulapp.search.SearchFilter;
 import com.ferg.awfulapp.task.AwfulRequest;
@@ -91,10 +93,10 @@ import com.ferg.awfulapp.task.VoteRequest;
 import com.ferg.awfulapp.thread.AwfulHtmlPage;
 import com.ferg.awfulapp.thread.AwfulMessage;
 import com.ferg.awfulapp.thread.AwfulPagedItem;
-import com.ferg.awfulapp.thread.AwfulPost;
 import com.ferg.awfulapp.thread.AwfulThread;
 import com.ferg.awfulapp.thread.AwfulURL;
 import com.ferg.awfulapp.thread.AwfulURL.TYPE;
+import com.ferg.awfulapp.thread.ThreadPageLoader;
 import com.ferg.awfulapp.util.AwfulError;
 import com.ferg.awfulapp.util.AwfulUtils;
 import com.ferg.awfulapp.webview.AwfulWebView;
@@ -109,8 +111,8 @@ import com.orangegangsters.github.swipyrefreshlayout.library.SwipyRefreshLayoutD
 
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -197,6 +199,17 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	/** Whether the currently displayed page represents a full page of posts */
 	private boolean displayingFullPage = false;
 
+	/** Whether scrolling far enough down the displayed page should start reading ahead to the next one */
+	private boolean readAheadArmed = false;
+	/** The page of this thread being read ahead, or 0 if there isn't one */
+	private int readAheadPage = 0;
+	/** Whether {@link #readAheadPage} has been fetched and stored */
+	private boolean readAheadReady = false;
+	/** The thread's stored post count, or 0 if it hasn't been loaded yet */
+	private int threadPostCount = 0;
+	/** How many of the thread's stored posts the user hasn't read */
+	private int threadUnreadCount = 0;
+
 	private ShareActionProvider shareProvider;
 
     private ForumsIndexActivity parentActivity;
@@ -212,6 +225,11 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	private Uri downloadLink;
 
 	private final ThreadContentObserver mThreadObserver = new ThreadContentObserver(getHandler());
+	private final VideoMetadataCache.Listener vimeoLinkListener = (videoId, url) -> getHandler().post(() -> {
+		if (mThreadView != null) {
+			mThreadView.runJavascript(String.format("updateVimeoLinks(%s,%s)", JSONObject.quote(videoId), JSONObject.quote(url)));
+		}
+	});
 
 
 
@@ -394,6 +412,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
                 }
         });
         mThreadView.setJavascriptHandler(clickInterface);
+		mThreadView.setOnScrollChangeListener((view, scrollX, scrollY, oldScrollX, oldScrollY) -> checkReadAhead());
 
         refreshSessionCookie();
 		Timber.d("Setting up WebView container HTML");
@@ -428,6 +447,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 			mThreadView.onResume();
 		}
         getActivity().getContentResolver().registerContentObserver(AwfulThread.CONTENT_URI, true, mThreadObserver);
+        VideoMetadataCache.addListener(vimeoLinkListener);
         refreshInfo();
     }
 
@@ -452,6 +472,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
     public void onPause() {
         super.onPause();
         getActivity().getContentResolver().unregisterContentObserver(mThreadObserver);
+        VideoMetadataCache.removeListener(vimeoLinkListener);
         getLoaderManager().destroyLoader(Constants.THREAD_INFO_LOADER_ID);
 		if (mThreadView != null) {
 			mThreadView.onPause();
@@ -462,6 +483,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	protected void cancelNetworkRequests() {
 		super.cancelNetworkRequests();
 		NetworkUtils.cancelRequests(ThreadPageRequest.Companion.getREQUEST_TAG());
+		cancelReadAhead();
 	}
 
 
@@ -856,6 +878,69 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
     }
 
 
+	/**
+	 * Start reading ahead to the next page, if the user has scrolled far enough down this one.
+	 * <p>
+	 * The next page is fetched and stored in the background, so turning to it can display it
+	 * straight away - see {@link #goToPage(int)}. Fetching a page moves the thread's last-read post
+	 * on the site to the end of it, so this only happens when the user has already read all of the
+	 * next page, e.g. when they're reading back through a thread.
+	 */
+	private void checkReadAhead() {
+		if (!readAheadArmed || mThreadView == null) {
+			return;
+		}
+		AwfulPreferences prefs = getPrefs();
+		if (mThreadView.getScrollProgress() * 100 < prefs.readAheadPercent) {
+			return;
+		}
+		// only try once per page
+		readAheadArmed = false;
+		final int threadId = getThreadId();
+		final int nextPage = getPageNumber() + 1;
+		if (nextPage > getLastPage() || nextPage == readAheadPage || postFilterUserId != null || !prefs.canReadAhead()) {
+			return;
+		}
+		int lastPostOnNextPage = Math.min(nextPage * prefs.postPerPage, threadPostCount);
+		if (threadPostCount == 0 || threadPostCount - threadUnreadCount < lastPostOnNextPage) {
+			Timber.d("Not reading ahead to page %d of thread %d, it hasn't been read yet", nextPage, threadId);
+			return;
+		}
+		Activity activity = getActivity();
+		if (activity == null) {
+			return;
+		}
+		Timber.i("Reading ahead to page %d of thread %d", nextPage, threadId);
+		readAheadPage = nextPage;
+		readAheadReady = false;
+		queueRequest(new ThreadPageRequest(activity, threadId, nextPage, BLANK_USER_ID, true)
+				.build(null, new AwfulRequest.AwfulResultCallback<Void>() {
+			@Override
+			public void success(Void result) {
+				if (threadId == getThreadId() && nextPage == readAheadPage) {
+					readAheadReady = true;
+				}
+			}
+
+			@Override
+			public void failure(VolleyError error) {
+				Timber.w("Failed to read ahead to page %d of thread %d: %s", nextPage, threadId, error == null ? null : error.getMessage());
+			}
+		}), false);
+	}
+
+
+	/**
+	 * Cancel any reading ahead, e.g. because the user's moved to another page.
+	 */
+	private void cancelReadAhead() {
+		NetworkUtils.cancelRequests(ThreadPageRequest.Companion.getREAD_AHEAD_TAG());
+		readAheadArmed = false;
+		readAheadPage = 0;
+		readAheadReady = false;
+	}
+
+
 	/**
 	 * Mark a post as the last read in this thread.
 	 * <p/>
@@ -1083,7 +1168,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		}));
 	}
 
-	private void populateThreadView(ArrayList<AwfulPost> aPosts) {
+	private void populateThreadView(@NonNull ThreadPageLoader.Page page) {
 		if (mThreadView == null) {
 			Timber.w("populateThreadView called with null WebView");
 			return;
@@ -1091,11 +1176,14 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		updateUiElements();
 
         try {
-            Timber.d("populateThreadView: displaying %d posts", aPosts.size());
-            String html = AwfulHtmlPage.getThreadHtml(aPosts, AwfulPreferences.getInstance(getActivity()), getPageNumber(), mLastPage);
+            Timber.d("populateThreadView: displaying %d posts", page.postCount);
+            if (page.postCount > 0) {
+                CacheManager.threadRead(getActivity(), getThreadId());
+            }
             refreshSessionCookie();
-			mThreadView.setBodyHtml(html);
-			displayingFullPage = aPosts.size() >= getPrefs().postPerPage; // shouldn't ever be > but just to be safe
+			mThreadView.setBodyHtml(page.html);
+			displayingFullPage = page.postCount >= getPrefs().postPerPage; // shouldn't ever be > but just to be safe
+			readAheadArmed = displayingFullPage;
             setProgress(100);
         } catch (Exception e) {
             // If we've already left the activity the webview may still be working to populate,
@@ -1401,10 +1489,17 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		if (aPage <= 0 || aPage > getLastPage()) {
 			return;
 		}
+		boolean alreadyStored = readAheadReady && aPage == readAheadPage;
+		cancelReadAhead();
 		setPageNumber(aPage);
 		updateUiElements();
 		setPostJump("");
-		showBlankPage();
+		if (alreadyStored) {
+			// we read ahead to this page, so show it straight away while it's refreshed
+			refreshPosts();
+		} else {
+			showBlankPage();
+		}
 		syncThread();
 	}
 
@@ -1488,41 +1583,35 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	 * Clear the thread display, e.g. to show a blank page before loading new content
 	 */
 	private void showBlankPage() {
+		readAheadArmed = false;
 		if(mThreadView != null){
 			mThreadView.setBodyHtml(null);
 		}
 	}
 
 
-    private class PostLoaderManager implements LoaderManager.LoaderCallbacks<Cursor> {
-        private final static String sortOrder = AwfulPost.POST_INDEX + " ASC";
-        private final static String selection = AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?";
-        public Loader<Cursor> onCreateLoader(int aId, Bundle aArgs) {
-            int index = AwfulPagedItem.pageToIndex(getPageNumber(), getPrefs().postPerPage, 0);
-            Timber.i("Loading page %d of thread %d from database\nStart index is %d with %d posts per page",
-                    getPageNumber(), getThreadId(), index, getPrefs().postPerPage);
-            return new CursorLoader(getActivity(),
-            						AwfulPost.CONTENT_URI,
-            						AwfulProvider.PostProjection,
-            						selection,
-            						AwfulProvider.int2StrArray(getThreadId(), index, index+ getPrefs().postPerPage),
-            						sortOrder);
+    private class PostLoaderManager implements LoaderManager.LoaderCallbacks<ThreadPageLoader.Page> {
+        public Loader<ThreadPageLoader.Page> onCreateLoader(int aId, Bundle aArgs) {
+            Timber.i("Loading page %d of thread %d from database with %d posts per page",
+                    getPageNumber(), getThreadId(), getPrefs().postPerPage);
+            // the page is read and rendered in the background, so all that's left to do here is display it
+            return new ThreadPageLoader(getActivity(), getThreadId(), getPageNumber(), mLastPage);
         }
 
-        public void onLoadFinished(Loader<Cursor> aLoader, Cursor aData) {
+        public void onLoadFinished(Loader<ThreadPageLoader.Page> aLoader, ThreadPageLoader.Page aPage) {
         	setProgress(90);
-        	if(aData.isClosed()){
+        	if(aPage == null){
         		return;
         	}
         	if(mThreadView != null){
-        		populateThreadView(AwfulPost.fromCursor(getActivity(), aData));
+        		populateThreadView(aPage);
         	}
 			// TODO: 04/05/2017 sometimes you don't want this resetting, e.g. restoring fragment state
 			savedScrollPosition = 0;
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> aLoader) {
+        public void onLoaderReset(Loader<ThreadPageLoader.Page> aLoader) {
         }
     }
 
@@ -1537,7 +1626,9 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
         public void onLoadFinished(Loader<Cursor> aLoader, Cursor aData) {
         	Timber.i("Loaded thread metadata, updating fragment state and UI");
         	if(aData.getCount() >0 && aData.moveToFirst()){
-        		mLastPage = AwfulPagedItem.indexToPage(aData.getInt(aData.getColumnIndex(AwfulThread.POSTCOUNT)), getPrefs().postPerPage);
+        		threadPostCount = aData.getInt(aData.getColumnIndex(AwfulThread.POSTCOUNT));
+        		threadUnreadCount = aData.getInt(aData.getColumnIndex(AwfulThread.UNREADCOUNT));
+        		mLastPage = AwfulPagedItem.indexToPage(threadPostCount, getPrefs().postPerPage);
 				threadLocked = aData.getInt(aData.getColumnIndex(AwfulThread.LOCKED))>0;
 				threadLockableUnlockable = aData.getInt(aData.getColumnIndex(AwfulThread.CAN_OPEN_CLOSE))>0;
         		threadBookmarked = aData.getInt(aData.getColumnIndex(AwfulThread.BOOKMARKED))>0;
@@ -1723,11 +1814,13 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	 * @param postJump	An optional URL fragment representing the post ID to jump to
      */
 	private void loadThread(int id, int page, @Nullable String postJump, boolean fullSync) {
+		cancelReadAhead();
 		setThreadId(id);
 		setPageNumber(page);
 		this.setPostJump(postJump != null ? postJump : "");
 		setPostFiltering(null, null);
 		mLastPage = FIRST_PAGE;
+		threadPostCount = 0;
 		updateUiElements();
 		showBlankPage();
 		if(getActivity() != null){
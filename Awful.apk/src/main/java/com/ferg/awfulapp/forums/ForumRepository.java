@@ -397,15 +397,21 @@ public class ForumRepository implements UpdateTask.ResultListener {
 
         Forum forum;
         List<String> favouriteForumIds = Arrays.asList(getFavouriteForumIds());
+        // there are a lot of forums, so find the columns once instead of on every row
+        int idIndex = cursor.getColumnIndex(AwfulForum.ID);
+        int parentIdIndex = cursor.getColumnIndex(AwfulForum.PARENT_ID);
+        int titleIndex = cursor.getColumnIndex(AwfulForum.TITLE);
+        int subtextIndex = cursor.getColumnIndex(AwfulForum.SUBTEXT);
+        int tagUrlIndex = cursor.getColumnIndex(AwfulForum.TAG_URL);
         while (cursor.moveToNext()) {
             forum = new Forum(
-                    cursor.getInt(cursor.getColumnIndex(AwfulForum.ID)),
-                    cursor.getInt(cursor.getColumnIndex(AwfulForum.PARENT_ID)),
-                    cursor.getString(cursor.getColumnIndex(AwfulForum.TITLE)),
-                    cursor.getString(cursor.getColumnIndex(AwfulForum.SUBTEXT))
+                    cursor.getInt(idIndex),
+                    cursor.getInt(parentIdIndex),
+                    cursor.getString(titleIndex),
+                    cursor.getString(subtextIndex)
             );
             // the forum might have an image tag too
-            String tagUrl = cursor.getString(cursor.getColumnIndex(AwfulForum.TAG_URL));
+            String tagUrl = cursor.getString(tagUrlIndex);
             forum.setTagUrl(tagUrl);
 
             // set favourite status by checking the favourites list
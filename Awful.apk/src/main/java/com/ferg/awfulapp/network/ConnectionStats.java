@@ -0,0 +1,90 @@
+package com.ferg.awfulapp.network;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Counts, for each host, how many requests were made and how many connections they needed, so we
+ * can see how well the HTTP client's connection pool is working.
+ * <p>
+ * Attach this to an OkHttpClient as its {@link EventListener}. Every time a request gets a connection
+ * it's counted against that connection's host, and the connection is counted too if it's one we
+ * haven't seen before - so the difference is the number of requests that reused a connection.
+ */
+public class ConnectionStats extends EventListener {
+
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+    // weak, so connections that have been closed can still be collected
+    private final Set<Connection> seenConnections = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        String host = connection.route().address().url().host();
+        HostStats stats = hosts.computeIfAbsent(host, key -> new HostStats());
+        stats.requests.incrementAndGet();
+        if (seenConnections.add(connection)) {
+            stats.connections.incrementAndGet();
+            if (connection.protocol() == Protocol.HTTP_2) {
+                stats.http2Connections.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * The number of requests made to a host.
+     */
+    public int getRequests(@NonNull String host) {
+        HostStats stats = hosts.get(host);
+        return stats == null ? 0 : stats.requests.get();
+    }
+
+
+    /**
+     * The number of connections opened to a host.
+     */
+    public int getConnections(@NonNull String host) {
+        HostStats stats = hosts.get(host);
+        return stats == null ? 0 : stats.connections.get();
+    }
+
+
+    /**
+     * A summary of each host's requests and connections, for logging.
+     */
+    @NonNull
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>(hosts.size());
+        for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+            HostStats stats = entry.getValue();
+            int requests = stats.requests.get();
+            int connections = stats.connections.get();
+            int reused = requests - connections;
+            lines.add(String.format("%s: %d requests over %d connections (%d HTTP/2), %d%% reused",
+                    entry.getKey(), requests, connections, stats.http2Connections.get(),
+                    requests == 0 ? 0 : reused * 100 / requests));
+        }
+        return lines;
+    }
+
+
+    private static class HostStats {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger http2Connections = new AtomicInteger();
+    }
+}
@@ -7,18 +7,26 @@ import android.text.TextUtils;
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 
+import java.io.IOException;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.HttpCookie;
 import java.net.URI;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import androidx.annotation.NonNull;
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.JavaNetCookieJar;
+import okhttp3.Response;
 import timber.log.Timber;
 
 import static android.content.SharedPreferences.Editor;
@@ -266,4 +274,50 @@ public class CookieController {
             Timber.i("---END COOKIE DUMP---");
         }
     }
+
+
+    /**
+     * Connects an OkHttpClient to the cookie store, the way HttpURLConnection used it by default.
+     * <p>
+     * Cookies that sites set (e.g. when logging in) are saved to the store. Stored cookies are added
+     * to requests that don't have a Cookie header of their own - requests to the forums set theirs
+     * with {@link #setCookieHeaders(Map)}, and OkHttp's own cookie handling would replace it. Use this
+     * as the client's cookie jar and as a network interceptor, so redirects get the right cookies too.
+     */
+    public static final class HttpClientCookies implements CookieJar, Interceptor {
+
+        private final JavaNetCookieJar store = new JavaNetCookieJar(cookieManager);
+
+        @Override
+        public void saveFromResponse(@NonNull HttpUrl url, @NonNull List<Cookie> cookies) {
+            store.saveFromResponse(url, cookies);
+        }
+
+        @NonNull
+        @Override
+        public List<Cookie> loadForRequest(@NonNull HttpUrl url) {
+            // added in intercept, if the request doesn't have its own
+            return Collections.emptyList();
+        }
+
+        @NonNull
+        @Override
+        public Response intercept(@NonNull Chain chain) throws IOException {
+            okhttp3.Request request = chain.request();
+            if (request.header(COOKIE_HEADER) == null) {
+                List<Cookie> cookies = store.loadForRequest(request.url());
+                if (!cookies.isEmpty()) {
+                    StringBuilder header = new StringBuilder();
+                    for (Cookie cookie : cookies) {
+                        if (header.length() > 0) {
+                            header.append("; ");
+                        }
+                        header.append(cookie.name()).append('=').append(cookie.value());
+                    }
+                    request = request.newBuilder().header(COOKIE_HEADER, header.toString()).build();
+                }
+            }
+            return chain.proceed(request);
+        }
+    }
 }
@@ -28,13 +28,17 @@
 package com.ferg.awfulapp.network;
 
 import android.content.Context;
-import android.net.http.HttpResponseCache;
+import android.os.Handler;
+import android.os.Looper;
 
+import com.android.volley.ExecutorDelivery;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
 import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.thread.ParseScheduler;
 import com.ferg.awfulapp.util.LRUImageCache;
 
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -42,15 +46,20 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 import java.io.File;
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
 import timber.log.Timber;
 
 @SuppressWarnings({"unchecked", "unsafe"})
@@ -60,7 +69,21 @@ public class NetworkUtils {
     private static final Pattern unencodeCharactersPattern = Pattern.compile("&#(\\d+);");
     private static final Pattern encodeCharactersPattern = Pattern.compile("([^\\x00-\\x7F])");
 
+    /**
+     * How many idle connections the pool keeps open, and for how long. A thread page and its images
+     * only hit a handful of hosts, so this is enough to keep them all warm while you're reading.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    /** the same cache directory and number of network threads Volley's default request queue uses */
+    private static final String VOLLEY_CACHE_DIR = "volley";
+    private static final int NETWORK_THREADS = 4;
+
+    private static OkHttpClient httpClient;
+    private static final ConnectionStats connectionStats = new ConnectionStats();
     private static RequestQueue mNetworkQueue;
+    private static RequestCoalescer requestCoalescer;
     private static LRUImageCache mImageCache;
     private static AwfulImageLoader mImageLoader;
 
@@ -72,16 +95,59 @@ public class NetworkUtils {
     public static void init(Context context) {
         // update the security provider first, to ensure we fix SSL errors before setting anything else up
         SecurityProvider.update(context);
-        mNetworkQueue = Volley.newRequestQueue(context);
+        httpClient = createHttpClient();
+        // streaming requests get to parse their responses while they're still downloading
+        BasicNetwork network = new BasicNetwork(new StreamingHttpStack(new OkHttpStack(httpClient)));
+        // requests for something that's already being fetched wait for its result, instead of fetching it again
+        requestCoalescer = new RequestCoalescer(new ExecutorDelivery(new Handler(Looper.getMainLooper())));
+        mNetworkQueue = new RequestQueue(new DiskBasedCache(new File(context.getCacheDir(), VOLLEY_CACHE_DIR)),
+                network, NETWORK_THREADS, requestCoalescer);
+        mNetworkQueue.addRequestFinishedListener(request -> {
+            // if a request was cancelled, one of the requests waiting on it has to be made instead
+            Request<?> replacement = requestCoalescer.onRequestFinished(request);
+            if (replacement != null) {
+                mNetworkQueue.add(replacement);
+            }
+        });
+        mNetworkQueue.start();
         // TODO: find out if this is even being used anywhere
         mImageCache = new LRUImageCache();
         mImageLoader = new AwfulImageLoader(mNetworkQueue, mImageCache);
+    }
 
-        try {
-            HttpResponseCache.install(new File(context.getCacheDir(), "httpcache"), 5242880);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * Create the client that every request goes through, so they all share its connection pool.
+     * It negotiates HTTP/2 with hosts that support it, so their requests can share a single connection.
+     */
+    private static OkHttpClient createHttpClient() {
+        CookieController.HttpClientCookies cookies = new CookieController.HttpClientCookies();
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .cookieJar(cookies)
+                .addNetworkInterceptor(cookies)
+                .eventListener(connectionStats)
+                .build();
+    }
+
+    /**
+     * The HTTP client to use for anything that doesn't go through the request queue.
+     */
+    public static OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * A line for each host the app has connected to, with how many requests reused a connection.
+     */
+    public static List<String> getConnectionStats() {
+        return httpClient == null ? Collections.emptyList() : connectionStats.summary();
+    }
+
+    /**
+     * How many requests were coalesced with an identical one that was already in flight.
+     */
+    public static String getCoalescingStats() {
+        return requestCoalescer == null ? "" : requestCoalescer.summary();
     }
 
     public static ImageLoader getImageLoader() {
@@ -96,6 +162,13 @@ public class NetworkUtils {
 
     public static void queueRequest(Request request) {
         if (mNetworkQueue != null) {
+            if (requestCoalescer.join(request)) {
+                // it'll get the result of the identical request in flight, but it still reports its
+                // progress and finishes like a queued request
+                Timber.d("Coalesced request: %s", request.getUrl());
+                request.setRequestQueue(mNetworkQueue);
+                return;
+            }
             mNetworkQueue.add(request);
         } else {
             Timber.w("Can't queue request - NetworkQueue is null, has NetworkUtils been initialised?");
@@ -103,8 +176,12 @@ public class NetworkUtils {
     }
 
     public static void cancelRequests(Object tag) {
+        // stop any parsing work for responses that have already arrived, too
+        ParseScheduler.INSTANCE.cancelAll(tag);
         if (mNetworkQueue != null) {
             mNetworkQueue.cancelAll(tag);
+            // requests waiting on another one aren't in the queue
+            requestCoalescer.cancelAll(tag);
         } else {
             Timber.w("Can't cancel requests - NetworkQueue is null, has NetworkUtils been initialised?");
         }
@@ -117,39 +194,30 @@ public class NetworkUtils {
     public static Document get(URI location) throws Exception {
         Timber.i("Fetching %s", location);
 
-        HttpURLConnection urlConnection = (HttpURLConnection) location.toURL().openConnection();
-
-        if (urlConnection == null) {
-            Timber.e("Couldn't open connection");
-            return null;
-        }
-
-        Document response;
-
-        try {
-            InputStream inputStream = urlConnection.getInputStream();
-            response = Jsoup.parse(inputStream, CHARSET, Constants.BASE_URL);
-        } finally {
-            urlConnection.disconnect();
+        Document document;
+        okhttp3.Request request = new okhttp3.Request.Builder().url(location.toString()).build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to fetch " + location + ", status code " + response.code());
+            }
+            document = Jsoup.parse(response.body().byteStream(), CHARSET, Constants.BASE_URL);
         }
 
         Timber.i("Fetched %s", location);
-        return response;
+        return document;
     }
 
     public static String getRedirect(String aUrl, Map<String, String> aParams) throws Exception {
         URI location = new URI(aUrl + getQueryStringParameters(aParams));
 
         String redirectLocation;
-        HttpURLConnection urlConnection = (HttpURLConnection) location.toURL().openConnection();
-        try {
-            redirectLocation = urlConnection.getHeaderField("Location");
+        okhttp3.Request request = new okhttp3.Request.Builder().url(location.toString()).build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            redirectLocation = response.header("Location");
             if (redirectLocation == null) {
-                // HttpURLConnection redirects internally, so get the end result instead
-                redirectLocation = urlConnection.getURL().toString();
+                // OkHttp follows redirects itself, so get the end result instead
+                redirectLocation = response.request().url().toString();
             }
-        } finally {
-            urlConnection.disconnect();
         }
         return redirectLocation;
     }
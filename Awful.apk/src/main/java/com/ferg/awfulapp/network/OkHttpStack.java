@@ -0,0 +1,151 @@
+package com.ferg.awfulapp.network;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A Volley {@link BaseHttpStack} that makes its requests through an {@link OkHttpClient}.
+ * <p>
+ * Volley's default stack opens a HttpURLConnection per request, but a thread page and its images
+ * make dozens of requests to the same few hosts. Going through a single client means they share its
+ * connection pool, so connections are kept alive and reused, and hosts that support HTTP/2 get
+ * all their requests multiplexed over one connection.
+ * <p>
+ * This behaves like Volley's HurlStack otherwise - each request's timeout is used for connecting and
+ * reading, and its own headers take precedence over any additional ones.
+ */
+public class OkHttpStack extends BaseHttpStack {
+
+    private final OkHttpClient client;
+
+    public OkHttpStack(@NonNull OkHttpClient client) {
+        this.client = client;
+    }
+
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        long timeoutMs = request.getTimeoutMs();
+        // this shares the original client's connection pool
+        OkHttpClient requestClient = client.newBuilder()
+                .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(request.getUrl());
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        setMethodAndBody(builder, request);
+
+        Response response = requestClient.newCall(builder.build()).execute();
+        int status = response.code();
+        List<Header> headers = convertHeaders(response.headers());
+        ResponseBody body = response.body();
+        if (body == null || !hasResponseBody(request.getMethod(), status)) {
+            response.close();
+            return new HttpResponse(status, headers);
+        }
+        // closing the stream (which Volley does once it's read) releases the connection back to the pool
+        return new HttpResponse(status, headers, (int) body.contentLength(), body.byteStream());
+    }
+
+
+    private static void setMethodAndBody(@NonNull okhttp3.Request.Builder builder, @NonNull Request<?> request)
+            throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                RequestBody postBody = body(request);
+                if (postBody == null) {
+                    builder.get();
+                } else {
+                    builder.post(postBody);
+                }
+                break;
+            case Request.Method.GET:
+                builder.get();
+                break;
+            case Request.Method.HEAD:
+                builder.head();
+                break;
+            case Request.Method.DELETE:
+                builder.delete(body(request));
+                break;
+            case Request.Method.POST:
+                builder.post(bodyOrEmpty(request));
+                break;
+            case Request.Method.PUT:
+                builder.put(bodyOrEmpty(request));
+                break;
+            case Request.Method.PATCH:
+                builder.patch(bodyOrEmpty(request));
+                break;
+            case Request.Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Request.Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+
+    private static RequestBody body(@NonNull Request<?> request) throws AuthFailureError {
+        byte[] body = request.getBody();
+        return body == null ? null : RequestBody.create(body, MediaType.parse(request.getBodyContentType()));
+    }
+
+
+    @NonNull
+    private static RequestBody bodyOrEmpty(@NonNull Request<?> request) throws AuthFailureError {
+        RequestBody body = body(request);
+        return body != null ? body : RequestBody.create(new byte[0], null);
+    }
+
+
+    @NonNull
+    private static List<Header> convertHeaders(@NonNull Headers headers) {
+        List<Header> converted = new ArrayList<>(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            converted.add(new Header(headers.name(i), headers.value(i)));
+        }
+        return converted;
+    }
+
+
+    /**
+     * Whether a response can have a body - the same check Volley's HurlStack makes.
+     */
+    private static boolean hasResponseBody(int requestMethod, int responseCode) {
+        return requestMethod != Request.Method.HEAD
+                && !(100 <= responseCode && responseCode < HttpURLConnection.HTTP_OK)
+                && responseCode != HttpURLConnection.HTTP_NO_CONTENT
+                && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+}
@@ -0,0 +1,233 @@
+package com.ferg.awfulapp.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops identical requests from being made while one is already in flight.
+ * <p>
+ * The same page can get requested a few times at once - a background sync and the user opening
+ * their bookmarks both load the UCP, quick taps on refresh reload a thread page, and image size
+ * checks repeat for the same link. When a GET or HEAD is {@link #join(Request) joined} while an
+ * identical one is still outstanding, it's attached to that one instead of being queued, and gets
+ * the same result delivered to it - so the response is only downloaded and parsed once.
+ * <p>
+ * This sits between the request queue and its {@link ResponseDelivery}, so it sees every result
+ * before it's delivered. Requests are identical if they have the same method and URL and are the same
+ * type of request, or requests can identify themselves by implementing {@link CoalescingRequest}.
+ */
+public class RequestCoalescer implements ResponseDelivery {
+
+    private final ResponseDelivery delivery;
+    /** the outstanding requests that others can join, by key */
+    private final Map<String, Group> inFlight = new HashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger coalesced = new AtomicInteger();
+
+
+    public RequestCoalescer(@NonNull ResponseDelivery delivery) {
+        this.delivery = delivery;
+    }
+
+
+    /**
+     * Attach a request to an identical one that's already in flight, if there is one.
+     *
+     * @return true if the request was attached and will get the other one's result, or false if
+     * it needs to be queued as usual
+     */
+    public boolean join(@NonNull Request<?> request) {
+        String key = key(request);
+        if (key == null) {
+            return false;
+        }
+        synchronized (inFlight) {
+            Group group = inFlight.get(key);
+            if (group == null) {
+                inFlight.put(key, new Group(request));
+            } else if (group.primary.isCanceled()) {
+                // the outstanding request won't deliver anything, so this one takes over from it
+                group.primary = request;
+            } else {
+                group.followers.add(request);
+                coalesced.incrementAndGet();
+                return true;
+            }
+        }
+        queued.incrementAndGet();
+        return false;
+    }
+
+
+    /**
+     * Call this when a queued request has finished. If it was cancelled before it could deliver a
+     * result to the requests attached to it, one of those is returned to be queued in its place.
+     */
+    @Nullable
+    public Request<?> onRequestFinished(@NonNull Request<?> request) {
+        String key = key(request);
+        if (key == null) {
+            return null;
+        }
+        synchronized (inFlight) {
+            Group group = inFlight.get(key);
+            if (group == null || group.primary != request) {
+                return null;
+            }
+            group.followers.removeIf(Request::isCanceled);
+            if (group.followers.isEmpty()) {
+                inFlight.remove(key);
+                return null;
+            }
+            group.primary = group.followers.remove(0);
+            return group.primary;
+        }
+    }
+
+
+    /**
+     * Cancel any attached requests with this tag - they aren't in the request queue, so cancelling
+     * its requests won't reach them.
+     */
+    public void cancelAll(@NonNull Object tag) {
+        synchronized (inFlight) {
+            for (Group group : inFlight.values()) {
+                for (Request<?> follower : group.followers) {
+                    if (follower.getTag() == tag) {
+                        follower.cancel();
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The number of requests that were attached to an identical one, instead of being made themselves.
+     */
+    public int getCoalesced() {
+        return coalesced.get();
+    }
+
+
+    /**
+     * A summary of how many requests were saved, for logging.
+     */
+    @NonNull
+    public String summary() {
+        int saved = coalesced.get();
+        int total = saved + queued.get();
+        return String.format("%d of %d requests coalesced, %d%% saved", saved, total, total == 0 ? 0 : saved * 100 / total);
+    }
+
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response) {
+        postResponse(request, response, null);
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+        // an intermediate response will be followed by the final one
+        List<Request<?>> followers = response.intermediate ? null : takeFollowers(request);
+        delivery.postResponse(request, response, runnable);
+        if (followers != null) {
+            for (Request<?> follower : followers) {
+                delivery.postResponse(follower, response);
+            }
+        }
+    }
+
+    @Override
+    public void postError(Request<?> request, VolleyError error) {
+        List<Request<?>> followers = takeFollowers(request);
+        delivery.postError(request, error);
+        if (followers != null) {
+            for (Request<?> follower : followers) {
+                delivery.postError(follower, error);
+            }
+        }
+    }
+
+
+    /**
+     * Detach the requests waiting on this one's result, so any new ones start a fresh request.
+     *
+     * @return the attached requests, or null if this request has none to deliver to
+     */
+    @Nullable
+    private List<Request<?>> takeFollowers(@NonNull Request<?> request) {
+        // a cancelled request's result may be incomplete (e.g. its parse was stopped part way), so
+        // leave its followers for onRequestFinished to make a fresh request for
+        if (request.isCanceled()) {
+            return null;
+        }
+        String key = key(request);
+        if (key == null) {
+            return null;
+        }
+        synchronized (inFlight) {
+            Group group = inFlight.get(key);
+            if (group == null || group.primary != request) {
+                return null;
+            }
+            inFlight.remove(key);
+            return group.followers;
+        }
+    }
+
+
+    /**
+     * The key that identical requests share, or null if this request can't be coalesced.
+     */
+    @Nullable
+    static String key(@NonNull Request<?> request) {
+        int method = request.getMethod();
+        if (method != Request.Method.GET && method != Request.Method.HEAD) {
+            return null;
+        }
+        if (request instanceof CoalescingRequest) {
+            String key = ((CoalescingRequest) request).getCoalescingKey();
+            return key == null ? null : method + " " + key;
+        }
+        return method + " " + request.getClass().getName() + " " + request.getUrl();
+    }
+
+
+    /**
+     * A request that decides which other requests are identical to it.
+     */
+    public interface CoalescingRequest {
+
+        /**
+         * A key identifying this request's result - the URL, and anything else that affects how the
+         * response is handled. Requests with the same method and key get coalesced, so return null
+         * if this request should always be made on its own.
+         */
+        @Nullable
+        String getCoalescingKey();
+    }
+
+
+    private static class Group {
+        /** the request that's actually being made */
+        Request<?> primary;
+        /** the requests waiting on its result */
+        final List<Request<?>> followers = new ArrayList<>();
+
+        Group(@NonNull Request<?> primary) {
+            this.primary = primary;
+        }
+    }
+}
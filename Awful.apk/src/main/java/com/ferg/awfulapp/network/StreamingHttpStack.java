@@ -0,0 +1,73 @@
+package com.ferg.awfulapp.network;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Wraps another {@link BaseHttpStack}, so requests can read their response body straight off the
+ * connection instead of waiting for Volley to buffer all of it.
+ * <p>
+ * {@link BasicNetwork} reads the whole body into a byte array before a request gets to parse it,
+ * so nothing can happen until the last byte has arrived. If a request implements {@link StreamingRequest}
+ * and wants to stream, its successful responses are handed to it here, on the network thread, while
+ * they're still downloading. The request parses the body and holds on to the result, and Volley
+ * gets an empty body to pass to {@link Request#parseNetworkResponse}. Anything else (other requests,
+ * errors and redirects) passes straight through.
+ */
+public class StreamingHttpStack extends BaseHttpStack {
+
+    private final BaseHttpStack delegate;
+
+    public StreamingHttpStack(@NonNull BaseHttpStack delegate) {
+        this.delegate = delegate;
+    }
+
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        HttpResponse response = delegate.executeRequest(request, additionalHeaders);
+        InputStream content = response.getContent();
+        int status = response.getStatusCode();
+        boolean streams = request instanceof StreamingRequest && ((StreamingRequest) request).streamsResponse();
+        if (!streams || content == null || status < 200 || status > 299) {
+            return response;
+        }
+
+        try {
+            ((StreamingRequest) request).readResponse(content);
+        } finally {
+            content.close();
+        }
+        // the body's been used up, so Volley gets the status and headers without it
+        return new HttpResponse(status, response.getHeaders());
+    }
+
+
+    /**
+     * A request that can read its response body as it arrives.
+     */
+    public interface StreamingRequest {
+
+        /**
+         * Whether to pass this request's responses to {@link #readResponse(InputStream)}, instead
+         * of having Volley buffer them.
+         */
+        boolean streamsResponse();
+
+        /**
+         * Read and handle a successful response's body, while it's downloading. This is called on
+         * the network thread, before {@link Request#parseNetworkResponse} is called with an empty body.
+         */
+        void readResponse(@NonNull InputStream content) throws IOException;
+    }
+}
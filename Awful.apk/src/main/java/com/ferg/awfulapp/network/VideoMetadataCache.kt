@@ -0,0 +1,191 @@
+package com.ferg.awfulapp.network
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import com.ferg.awfulapp.provider.VideoLinks
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Entities
+import org.jsoup.parser.Parser
+import okhttp3.Request
+import timber.log.Timber
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Looks up the real links for embedded Vimeo videos, off the parsing threads.
+ *
+ * Posts used to fetch each video's metadata while they were being parsed, which held up the whole
+ * page on a network request with no timeout. Now the parser just writes a placeholder link (see
+ * [placeholderLink]) and calls [request], which fetches the metadata in the background and stores
+ * the result in the database, keyed by video ID. Posts are given the stored links when they're
+ * loaded for display ([resolveLinks]), and [Listener]s get any that arrive while a page is already
+ * showing.
+ *
+ * Stored links are cleared out with other old data (see [com.ferg.awfulapp.provider.CacheManager]),
+ * and the most recently used ones are also kept in memory so a page doesn't query for each of its videos.
+ *
+ * Nothing is fetched until [init] has been called.
+ */
+object VideoMetadataCache {
+
+    /** where links used to be stored, with nothing ever clearing them out */
+    private const val OLD_PREFS_NAME = "video_metadata"
+    private const val TIMEOUT_MILLIS = 5000L
+    private const val MEMORY_CACHE_SIZE = 200
+    private const val VIMEO_ID_ATTR = "data-vimeo-id"
+
+    /** Placeholder links with a Vimeo ID, as jsoup outputs the elements from [placeholderLink] */
+    private val PLACEHOLDER_REGEX = "<a href=\"[^\"]*\" $VIMEO_ID_ATTR=\"(\\d+)\">[^<]*</a>".toRegex()
+
+    private var store: Store? = null
+    private var lookup: Lookup = Lookup(::fetchVimeoLink)
+    private var fetcher: Executor = Executors.newFixedThreadPool(2) { runnable -> Thread(runnable, "video-metadata") }
+    private val inFlight: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    private val listeners = CopyOnWriteArraySet<Listener>()
+
+    /** the most recently used links, in access order */
+    private val recent = object : LinkedHashMap<String, String>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, String>?) = size > MEMORY_CACHE_SIZE
+    }
+
+
+    /**
+     * Notified when a video's link has been looked up. This is called on a background thread!
+     */
+    fun interface Listener {
+        fun onVimeoLink(videoId: String, url: String)
+    }
+
+    /** Where looked-up links are kept between runs */
+    interface Store {
+        fun find(videoId: String): String?
+        fun save(videoId: String, url: String)
+    }
+
+    /** Finds the link for a video, from its metadata */
+    fun interface Lookup {
+        @Throws(IOException::class)
+        fun vimeoLink(videoId: String): String?
+    }
+
+
+    @JvmStatic
+    fun init(context: Context) {
+        val appContext = context.applicationContext
+        fetcher.execute { appContext.deleteSharedPreferences(OLD_PREFS_NAME) }
+        init(object : Store {
+            override fun find(videoId: String) = VideoLinks.find(appContext, videoId)
+            override fun save(videoId: String, url: String) = VideoLinks.save(appContext, videoId, url)
+        }, Lookup(::fetchVimeoLink), fetcher)
+    }
+
+    @VisibleForTesting
+    @JvmStatic
+    fun init(store: Store, lookup: Lookup, fetcher: Executor) {
+        synchronized(recent) { recent.clear() }
+        inFlight.clear()
+        this.lookup = lookup
+        this.fetcher = fetcher
+        this.store = store
+    }
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners.add(listener)
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+
+    /** The stored link for a Vimeo video, if we've looked it up before */
+    @JvmStatic
+    fun vimeoLink(videoId: String): String? {
+        synchronized(recent) { recent[videoId] }?.let { return it }
+        return store?.find(videoId)?.also { link -> synchronized(recent) { recent[videoId] = link } }
+    }
+
+
+    /**
+     * The link to use for a Vimeo video in a post - the stored one if we have it, otherwise a link
+     * to the video's page that can be swapped for the real one later.
+     */
+    @JvmStatic
+    fun placeholderLink(videoId: String): Element {
+        val link = vimeoLink(videoId) ?: "https://vimeo.com/$videoId"
+        return Element("a").attr("href", link).attr(VIMEO_ID_ATTR, videoId).text(link)
+    }
+
+
+    /**
+     * Start looking up a Vimeo video's link in the background, unless it's already stored or on its way.
+     */
+    @JvmStatic
+    fun request(videoId: String) {
+        val store = store ?: return
+        if (vimeoLink(videoId) != null || !inFlight.add(videoId)) return
+        fetcher.execute {
+            try {
+                lookup.vimeoLink(videoId)?.let(::webLink)?.let { url ->
+                    store.save(videoId, url)
+                    synchronized(recent) { recent[videoId] = url }
+                    listeners.forEach { it.onVimeoLink(videoId, url) }
+                }
+            } catch (e: Exception) {
+                Timber.w(e, "Couldn't get metadata for Vimeo video %s", videoId)
+            } finally {
+                inFlight.remove(videoId)
+            }
+        }
+    }
+
+
+    /**
+     * Replace any placeholder links in some post content with their stored links, and request any
+     * that haven't been looked up yet.
+     */
+    @JvmStatic
+    fun resolveLinks(content: String?): String? {
+        if (content == null || !content.contains(VIMEO_ID_ATTR)) return content
+        return PLACEHOLDER_REGEX.replace(content) { match ->
+            val videoId = match.groupValues[1]
+            val link = vimeoLink(videoId)
+            if (link == null) {
+                request(videoId)
+                match.value
+            } else {
+                val escaped = Entities.escape(link)
+                "<a href=\"$escaped\" $VIMEO_ID_ATTR=\"$videoId\">$escaped</a>"
+            }
+        }
+    }
+
+
+    /**
+     * The normalised form of a link from a video's metadata, or null if it isn't an http(s) link -
+     * these end up in posts, so anything else (e.g. a javascript: URL) is dropped.
+     */
+    private fun webLink(url: String): String? = url.trim().toHttpUrlOrNull()?.toString()
+
+
+    private fun fetchVimeoLink(videoId: String): String? {
+        val client = NetworkUtils.getHttpClient().newBuilder()
+            .connectTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+            .readTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+            .build()
+        val request = Request.Builder().url("https://vimeo.com/api/v2/video/$videoId.xml").build()
+        client.newCall(request).execute().use { response ->
+            if (!response.isSuccessful) throw IOException("Vimeo lookup failed, status code ${response.code}")
+            val xml = Jsoup.parse(response.body!!.byteStream(), "UTF-8", "", Parser.xmlParser())
+            return (xml.getElementsByTag("mobile_url").first() ?: xml.getElementsByTag("url").first())?.text()
+        }
+    }
+}
@@ -44,6 +44,7 @@ import android.util.TypedValue;
 
 import com.ferg.awfulapp.R;
 import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.util.AwfulUtils;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
@@ -161,6 +162,11 @@ public class AwfulPreferences implements OnSharedPreferenceChangeListener {
     public Float p2rDistance;
     public boolean immersionMode;
     public String transformer;
+    /** how big the database can get (in MB) before old threads are cleared out - see CacheManager */
+    public int cacheSizeMb;
+    /** how far down a thread page (as a percentage) to start fetching the next one, or 0 to never read ahead */
+    public int readAheadPercent;
+    public boolean readAheadOnMetered;
 
 	public boolean postWarningAccepted;
 
@@ -308,6 +314,9 @@ public class AwfulPreferences implements OnSharedPreferenceChangeListener {
 		immersionMode			 = getPreference(Keys.IMMERSION_MODE, false);
 		hideSignatures  		 = getPreference(Keys.HIDE_SIGNATURES, false);
 		transformer  		     = getPreference(Keys.TRANSFORMER, "Default");
+		cacheSizeMb				 = AwfulUtils.safeParseInt(getPreference(Keys.CACHE_SIZE, "100"), 100);
+		readAheadPercent		 = AwfulUtils.safeParseInt(getPreference(Keys.READ_AHEAD, "75"), 75);
+		readAheadOnMetered		 = getPreference(Keys.READ_AHEAD_METERED, false);
 		amberDefaultPos  		 = getPreference(Keys.AMBER_DEFAULT_POS, false);
 		hideIgnoredPosts  		 = getPreference(Keys.HIDE_IGNORED_POSTS, false);
 		markedUsers				 = getPreference(Keys.MARKED_USERS, new HashSet<>());
@@ -437,6 +446,14 @@ public class AwfulPreferences implements OnSharedPreferenceChangeListener {
 		return imagesEnabled && !(no3gImages && !conman.getNetworkInfo(ConnectivityManager.TYPE_WIFI).isConnected());
 	}
 	
+	/**
+	 * Whether the next thread page should be fetched while the current one is being read, on the current connection.
+	 */
+	public boolean canReadAhead() {
+		ConnectivityManager conman = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+		return readAheadPercent > 0 && (readAheadOnMetered || !conman.isActiveNetworkMetered());
+	}
+
 	public boolean canLoadAvatars(){
 		return avatarsEnabled && canLoadImages();
 	}
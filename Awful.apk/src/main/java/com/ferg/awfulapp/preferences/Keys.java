@@ -34,6 +34,8 @@ public abstract class Keys {
             ORIENTATION,
             PAGE_LAYOUT,
             TRANSFORMER,
+            CACHE_SIZE,
+            READ_AHEAD,
             FAVOURITE_FORUMS,
             RECENT_EMOTES,
             IMGUR_ACCOUNT,
@@ -125,6 +127,7 @@ public abstract class Keys {
             DISABLE_TIMGS,
             DISABLE_PULL_NEXT,
             VOLUME_SCROLL,
+            READ_AHEAD_METERED,
             FORCE_FORUM_THEMES,
             NO_FAB,
             SHOW_IGNORE_WARNING,
@@ -158,6 +161,8 @@ public abstract class Keys {
     public static final int ORIENTATION = R.string.pref_key_orientation;
     public static final int PAGE_LAYOUT = R.string.pref_key_page_layout;
     public static final int TRANSFORMER = R.string.pref_key_transformer;
+    public static final int CACHE_SIZE = R.string.pref_key_cache_size;
+    public static final int READ_AHEAD = R.string.pref_key_read_ahead;
 
     public static final int POST_FONT_SIZE_SP = R.string.pref_key_post_font_size_sp;
     public static final int POST_FIXED_FONT_SIZE_SP = R.string.pref_key_post_fixed_font_size_sp;
@@ -207,6 +212,7 @@ public abstract class Keys {
     public static final int DISABLE_TIMGS = R.string.pref_key_disable_timgs;
     public static final int DISABLE_PULL_NEXT = R.string.pref_key_disable_pull_next;
     public static final int VOLUME_SCROLL = R.string.pref_key_volume_scroll;
+    public static final int READ_AHEAD_METERED = R.string.pref_key_read_ahead_metered;
     public static final int FORCE_FORUM_THEMES = R.string.pref_key_force_forum_themes;
     public static final int NO_FAB = R.string.pref_key_no_fab;
     public static final int SHOW_IGNORE_WARNING = R.string.pref_key_show_ignore_warning;
@@ -41,6 +41,7 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import android.util.Log;
 
 import com.ferg.awfulapp.AwfulApplication;
@@ -50,12 +51,21 @@ import com.ferg.awfulapp.thread.AwfulForum;
 import com.ferg.awfulapp.thread.AwfulMessage;
 import com.ferg.awfulapp.thread.AwfulPost;
 import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.users.User;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_DRAFTS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
@@ -65,10 +75,17 @@ import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_DRAFTS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_USERS;
 
 public class AwfulProvider extends ContentProvider {
     private static final String TAG = "AwfulProvider";
 
+    /** the maximum number of queued rows a pipelined insert writes in one go */
+    private static final int PIPELINE_BATCH_SIZE = 16;
+    /** runs the writers for pipelined inserts, one thread each */
+    private static final ExecutorService pipelineWriter = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "pipelined-insert"));
+
+
     private DatabaseHelper mDbHelper;
     /** Set in #onCreate, so it should never be null when methods come to use it*/
     private Context context;
@@ -173,29 +190,34 @@ public class AwfulProvider extends ContentProvider {
     }
     public static final String[] ThreadProjection = arrayOfKeys(sThreadProjectionMap);
 
-    // Post
+    // Post - the author details are joined from the users table, see User#POST_COLUMNS
 	private static final HashMap<String, String> sPostProjectionMap = new HashMap<>();
     static {
-        sPostProjectionMap.put(AwfulPost.ID, AwfulPost.ID);
+        sPostProjectionMap.put(AwfulPost.ID, TABLE_POSTS+"."+AwfulPost.ID+" AS "+AwfulPost.ID);
         sPostProjectionMap.put(AwfulPost.THREAD_ID, AwfulPost.THREAD_ID);
         sPostProjectionMap.put(AwfulPost.POST_INDEX, AwfulPost.POST_INDEX);
         sPostProjectionMap.put(AwfulPost.DATE, AwfulPost.DATE);
-        sPostProjectionMap.put(AwfulPost.REGDATE, AwfulPost.REGDATE);
         sPostProjectionMap.put(AwfulPost.USER_ID, AwfulPost.USER_ID);
-        sPostProjectionMap.put(AwfulPost.USERNAME, AwfulPost.USERNAME);
         sPostProjectionMap.put(AwfulPost.IS_IGNORED, AwfulPost.IS_IGNORED);
         sPostProjectionMap.put(AwfulPost.PREVIOUSLY_READ, AwfulPost.PREVIOUSLY_READ);
         sPostProjectionMap.put(AwfulPost.EDITABLE, AwfulPost.EDITABLE);
         sPostProjectionMap.put(AwfulPost.IS_OP, AwfulPost.IS_OP);
-        sPostProjectionMap.put(AwfulPost.IS_PLAT, AwfulPost.IS_PLAT);
-        sPostProjectionMap.put(AwfulPost.ROLE, AwfulPost.ROLE);
-        sPostProjectionMap.put(AwfulPost.AVATAR, AwfulPost.AVATAR);
-        sPostProjectionMap.put(AwfulPost.AVATAR_SECOND, AwfulPost.AVATAR_SECOND);
-        sPostProjectionMap.put(AwfulPost.AVATAR_TEXT, AwfulPost.AVATAR_TEXT);
+        for (String column : User.POST_COLUMNS) {
+            sPostProjectionMap.put(column, DatabaseHelper.postAuthorColumn(column)+" AS "+column);
+        }
         sPostProjectionMap.put(AwfulPost.CONTENT, AwfulPost.CONTENT);
         sPostProjectionMap.put(AwfulPost.EDITED, AwfulPost.EDITED);
+        sPostProjectionMap.put(AwfulPost.CONTENT_HASH, AwfulPost.CONTENT_HASH);
     }
     public static final String[] PostProjection = arrayOfKeys(sPostProjectionMap);
+    /** Everything needed to lay out a page of posts, without their (potentially huge) bodies - see PostBodyStream */
+    public static final String[] PostMetadataProjection;
+    static {
+        HashMap<String, String> metadata = new HashMap<>(sPostProjectionMap);
+        metadata.remove(AwfulPost.CONTENT);
+        metadata.remove(AwfulPost.CONTENT_HASH);
+        PostMetadataProjection = arrayOfKeys(metadata);
+    }
 
     // UCP Thread
 	private static final HashMap<String, String> sUCPThreadProjectionMap = new HashMap<>();
@@ -347,6 +369,39 @@ public class AwfulProvider extends ContentProvider {
         return true;
     }
 
+    /**
+     * Direct access to the database, for housekeeping that doesn't fit the provider's Uris - see {@link CacheManager} and {@link SearchIndex}
+     */
+    @NonNull
+    SQLiteDatabase getDatabase() {
+        return mDbHelper.getWritableDatabase();
+    }
+
+
+    /**
+     * Make several queries against the same snapshot of the database, so nothing written in between
+     * them can leave their results out of step (e.g. a page's posts and their bodies).
+     * <p>
+     * The queries have to be made through this provider on the calling thread, and any cursors
+     * they return have to be finished with before this returns. Writes wait until it's done, so
+     * keep it short - and never call it on the main thread.
+     */
+    @WorkerThread
+    public static <T> T readConsistently(@NonNull Context context, @NonNull Supplier<T> queries) {
+        SQLiteDatabase db = CacheManager.getDatabase(context);
+        if (db == null) {
+            return queries.get();
+        }
+        // queries made on this thread during a transaction all use its connection and see its snapshot
+        db.beginTransactionNonExclusive();
+        try {
+            return queries.get();
+        } finally {
+            // nothing's been written, so there's nothing to commit
+            db.endTransaction();
+        }
+    }
+
     @Override
     public String getType(@NonNull Uri aUri) {
         return null;
@@ -360,7 +415,11 @@ public class AwfulProvider extends ContentProvider {
         String table = getTableForUriType(uriType);
 
         // if there's no Where clause, this will delete everything in the table!
-        return db.delete(table, aWhere, aWhereArgs);
+        int result = db.delete(table, aWhere, aWhereArgs);
+        if (result > 0) {
+            notifyChange(aUri);
+        }
+        return result;
     }
 
 
@@ -400,7 +459,15 @@ public class AwfulProvider extends ContentProvider {
         }
 
         int result = db.update(table, aValues, aWhere, aWhereArgs);
-        context.getContentResolver().notifyChange(aUri, null);
+        if (result > 0) {
+            // for an ID Uri, only observers of that row (or the whole table) hear about it
+            notifyChange(aUri);
+        }
+        if (result > 0 && whereClause != null) {
+            ContentValues indexed = new ContentValues(aValues);
+            indexed.put(whereClause, aUri.getLastPathSegment());
+            SearchIndex.index(db, table, Collections.singletonList(indexed));
+        }
         return result;
     }
 
@@ -415,7 +482,10 @@ public class AwfulProvider extends ContentProvider {
 
         long rowId = db.insert(table, "", aValues);
         if (rowId > -1) {
-            return ContentUris.withAppendedId(aUri, rowId);
+            Uri rowUri = ContentUris.withAppendedId(aUri, rowId);
+            notifyChange(rowUri);
+            SearchIndex.index(db, table, Collections.singletonList(aValues));
+            return rowUri;
         }
         throw new SQLException("Failed to insert row into " + aUri);
     }
@@ -433,20 +503,15 @@ public class AwfulProvider extends ContentProvider {
         assertIsTableUri(uriType);
         String table = getTableForUriType(uriType);
 
-        db.beginTransaction();
-        try {
+        // an immediate transaction rather than an exclusive one, so readers can carry on while it's written
+        db.beginTransactionNonExclusive();
+        try (BulkRowWriter writer = new BulkRowWriter(db, table)) {
             for (ContentValues value : aValues) {
-                if (uriType == URI_POST) {
-                    db.delete(table, AwfulPost.POST_INDEX + "=? AND " + AwfulPost.THREAD_ID + "=?",
-                            int2StrArray(value.getAsInteger(AwfulPost.POST_INDEX), value.getAsInteger(AwfulPost.THREAD_ID)));
-                } else if (uriType == URI_EMOTE) {
-                    db.delete(table, AwfulEmote.TEXT + "=?", new String[]{value.getAsString(AwfulEmote.TEXT)});
-                }
-                db.replace(table, "", value);
+                writer.write(value);
             }
+            writer.finish();
 
             db.setTransactionSuccessful();
-            context.getContentResolver().notifyChange(aUri, null);
         } catch (SQLiteConstraintException e) {
             Log.w(TAG, e.toString());
             // transaction failed (exception throws before #setTransactionSuccessful), no rows inserted
@@ -455,18 +520,108 @@ public class AwfulProvider extends ContentProvider {
             db.endTransaction();
         }
         // transaction succeeded, all rows inserted
+        notifyChange(aUri);
+        SearchIndex.index(db, table, Arrays.asList(aValues));
         return aValues.length;
     }
 
 
+    /**
+     * Start writing rows into the table for a Uri as they arrive in a queue, on a separate writer thread.
+     * <p>
+     * Rows are written the same way as {@link #bulkInsert(Uri, ContentValues[])}, inside a single
+     * transaction that's committed (and a change notification sent, or added to the
+     * {@link NotificationBatch} open on the calling thread) once the endMarker is taken from the
+     * queue, or rolled back if the abortMarker is taken instead. If a write fails the transaction
+     * is rolled back, but the queue is still drained up to a marker so producers never get stuck
+     * waiting for space.
+     * <p>
+     * This is the provider side of {@link PipelinedInsert}, which you should use instead of calling this.
+     *
+     * @return the number of rows written, or 0 if the transaction failed
+     */
+    @NonNull
+    Future<Integer> startPipelinedInsert(@NonNull final Uri aUri, @NonNull final BlockingQueue<ContentValues> rows,
+                                         @NonNull final ContentValues endMarker, @NonNull final ContentValues abortMarker) {
+        final int uriType = matchUri(aUri, true);
+        assertIsTableUri(uriType);
+        final String table = getTableForUriType(uriType);
+        // the writes happen on another thread, so they won't see the batch that's open on this one
+        final NotificationBatch notifications = NotificationBatch.current();
+
+        return pipelineWriter.submit(() -> {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            List<ContentValues> batch = new ArrayList<>(PIPELINE_BATCH_SIZE);
+            List<ContentValues> writtenRows = new ArrayList<>();
+            boolean failed = false;
+            boolean finished = false;
+
+            db.beginTransactionNonExclusive();
+            try (BulkRowWriter writer = new BulkRowWriter(db, table)) {
+                while (!finished) {
+                    // wait for a row, then grab whatever else is ready
+                    batch.add(rows.take());
+                    rows.drainTo(batch, PIPELINE_BATCH_SIZE - 1);
+                    for (ContentValues value : batch) {
+                        if (value == endMarker) {
+                            finished = true;
+                        } else if (value == abortMarker) {
+                            finished = true;
+                            failed = true;
+                        } else if (!failed) {
+                            try {
+                                writer.write(value);
+                                writtenRows.add(value);
+                            } catch (SQLException e) {
+                                Log.w(TAG, "Pipelined insert failed, rolling back: " + e);
+                                failed = true;
+                            }
+                        }
+                    }
+                    batch.clear();
+                }
+                if (!failed) {
+                    try {
+                        writer.finish();
+                        db.setTransactionSuccessful();
+                    } catch (SQLException e) {
+                        Log.w(TAG, "Pipelined insert failed, rolling back: " + e);
+                        failed = true;
+                    }
+                }
+            } finally {
+                db.endTransaction();
+            }
+
+            if (failed) {
+                return 0;
+            }
+            if (!writtenRows.isEmpty()) {
+                NotificationBatch.notifyChange(context.getContentResolver(), aUri, notifications);
+                SearchIndex.index(db, table, writtenRows);
+            }
+            return writtenRows.size();
+        });
+    }
+
+
+    /**
+     * Notify observers of a change to a Uri, or hold the notification if there's a
+     * {@link NotificationBatch} open on this thread.
+     */
+    private void notifyChange(@NonNull Uri uri) {
+        NotificationBatch.notifyChange(context.getContentResolver(), uri, NotificationBatch.current());
+    }
+
+
     @Nullable
     @Override
     public Cursor query(@NonNull Uri aUri, String[] aProjection, String aSelection,
                         String[] aSelectionArgs, String aSortOrder)
     {
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
-        // Typically this should fetch a readable database but we're querying before
-        // we actually add anything, so make it writable.
+        // this is the same database object the writes use, but outside of a transaction its queries
+        // go through the read connections, so they don't wait for writes to finish (see DatabaseHelper)
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
         final int uriType = matchUri(aUri, false);
@@ -490,8 +645,9 @@ public class AwfulProvider extends ContentProvider {
                 break;
 
             case URI_POST_ID:
-                whereClause = AwfulPost.ID;
+                whereClause = TABLE_POSTS+"."+AwfulPost.ID;
             case URI_POST:
+                table = TABLE_POSTS+" LEFT OUTER JOIN "+ TABLE_USERS+" ON "+ TABLE_POSTS+"."+AwfulPost.USER_ID+"="+ TABLE_USERS+"."+AwfulPost.ID;
                 builder.setProjectionMap(sPostProjectionMap);
                 break;
 
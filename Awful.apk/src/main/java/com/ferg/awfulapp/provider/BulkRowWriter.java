@@ -0,0 +1,317 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import com.ferg.awfulapp.thread.AwfulEmote;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.users.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_USERS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP;
+
+/**
+ * Writes the rows for one of {@link AwfulProvider}'s bulk inserts, replacing any existing data for
+ * the same items. The caller handles the transaction - create one of these inside it, write the
+ * rows, call {@link #finish()} before committing, and always {@link #close()} it.
+ * <p>
+ * Most bulk inserts are refreshing rows we already have, so instead of replacing a row (which
+ * deletes it and inserts it again, updating every index twice) each row is written with an UPDATE
+ * on its ID, and only inserted if nothing was updated. Like a replace, any columns missing from the
+ * row are cleared. SQLite's INSERT ... ON CONFLICT DO UPDATE would do this in one statement, but
+ * older versions of Android ship a SQLite that doesn't support it. Each set of columns gets its
+ * own statements, compiled the first time they're needed and reused for every row after that.
+ * <p>
+ * Posts are identified by their thread and position. Instead of clearing out each position before
+ * writing a post there, this keeps track of the range of positions written in each thread, and
+ * {@link #finish()} deletes any other posts in that range in one go. Posts without any content have
+ * been left unchanged (see PostParseTask) so they only update the columns they have, keeping the
+ * stored content. Emotes are identified by their text, and old rows for those are still deleted
+ * one at a time.
+ * <p>
+ * A post's author details (see {@link User#POST_COLUMNS}) are split off into the users table, and
+ * each author is only written once, so a page full of posts from the same few people doesn't write
+ * the same details over and over. Only one of each user's posts on a page needs to carry them. If a
+ * post's author couldn't be identified, their details are stored on the post instead.
+ */
+class BulkRowWriter implements AutoCloseable {
+
+    private static final String TAG = "BulkRowWriter";
+    /** every table's ID column has the same name */
+    private static final String ID = AwfulPost.ID;
+    private static final Set<String> USER_COLUMNS = new HashSet<>(Arrays.asList(User.POST_COLUMNS));
+
+    @NonNull
+    private final SQLiteDatabase db;
+    @NonNull
+    private final String table;
+    private final boolean isPosts;
+
+    /** insert and update statements for each set of columns we've seen */
+    private final Map<Set<String>, BoundStatement> inserts = new HashMap<>();
+    private final Map<Set<String>, BoundStatement> updates = new HashMap<>();
+    private SQLiteStatement deleteEmote;
+    private String[] tableColumns;
+    /** the positions and IDs of the posts written to each thread, keyed by thread ID */
+    private final Map<Long, PostRange> postRanges = new HashMap<>();
+    /** writes the post authors to the users table, created when the first one turns up */
+    @Nullable
+    private BulkRowWriter userWriter;
+    /** the IDs of the users we've written */
+    private final Set<Long> writtenUsers = new HashSet<>();
+
+
+    BulkRowWriter(@NonNull SQLiteDatabase db, @NonNull String table) {
+        this.db = db;
+        this.table = table;
+        isPosts = TABLE_POSTS.equals(table);
+    }
+
+
+    /**
+     * Write a row, replacing any existing row with the same ID (or for emotes, the same text).
+     * Rows with no ID are always inserted.
+     */
+    void write(@NonNull ContentValues row) {
+        boolean keepStoredContent = false;
+        if (isPosts) {
+            row = splitUser(row);
+            trackPost(row);
+            keepStoredContent = !row.containsKey(AwfulPost.CONTENT);
+        } else if (TABLE_EMOTES.equals(table)) {
+            if (deleteEmote == null) {
+                deleteEmote = db.compileStatement("DELETE FROM " + table + " WHERE " + AwfulEmote.TEXT + "=?");
+            }
+            DatabaseUtils.bindObjectToProgram(deleteEmote, 1, row.get(AwfulEmote.TEXT));
+            deleteEmote.executeUpdateDelete();
+        }
+
+        if (row.get(ID) != null) {
+            if (updateFor(row, keepStoredContent).bind(row).executeUpdateDelete() > 0) {
+                return;
+            }
+            if (keepStoredContent) {
+                Log.w(TAG, "Unchanged post " + row.getAsLong(AwfulPost.ID) + " is no longer stored, inserting it without content");
+            }
+        }
+        try {
+            insertFor(row).bind(row).executeInsert();
+        } catch (SQLException e) {
+            // same as SQLiteDatabase#replace, which this used to call
+            Log.e(TAG, "Error inserting " + row, e);
+        }
+    }
+
+
+    /**
+     * Clear out any old posts that were stored in the positions we've written to, and weren't
+     * written over. Call this after writing every row.
+     */
+    void finish() {
+        for (Map.Entry<Long, PostRange> thread : postRanges.entrySet()) {
+            PostRange range = thread.getValue();
+            // the IDs are numbers, so they can go in the SQL - this avoids hitting the limit on bound parameters
+            String where = AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<=?" +
+                    " AND " + AwfulPost.ID + " NOT IN (" + range.ids + ")";
+            db.delete(table, where, new String[]{
+                    Long.toString(thread.getKey()), Long.toString(range.first), Long.toString(range.last)});
+        }
+        postRanges.clear();
+    }
+
+
+    @Override
+    public void close() {
+        for (BoundStatement statement : inserts.values()) {
+            statement.statement.close();
+        }
+        for (BoundStatement statement : updates.values()) {
+            statement.statement.close();
+        }
+        if (deleteEmote != null) {
+            deleteEmote.close();
+        }
+        if (userWriter != null) {
+            userWriter.close();
+        }
+    }
+
+
+    /**
+     * Write a post's author details to the users table, if we haven't already, and return the
+     * post without them. Posts without a user ID keep their author's details.
+     */
+    @NonNull
+    private ContentValues splitUser(@NonNull ContentValues row) {
+        boolean hasUser = false;
+        for (String column : User.POST_COLUMNS) {
+            hasUser |= row.containsKey(column);
+        }
+        Long userId = row.getAsLong(AwfulPost.USER_ID);
+        // there's no user to store them under, so they stay on the post
+        if (!hasUser || userId == null) {
+            return row;
+        }
+        ContentValues post = new ContentValues(row);
+        ContentValues user = new ContentValues(row);
+        for (String column : row.keySet()) {
+            if (USER_COLUMNS.contains(column)) {
+                post.remove(column);
+            } else if (!UPDATED_TIMESTAMP.equals(column)) {
+                user.remove(column);
+            }
+        }
+        if (writtenUsers.add(userId)) {
+            user.put(ID, userId);
+            if (userWriter == null) {
+                userWriter = new BulkRowWriter(db, TABLE_USERS);
+            }
+            userWriter.write(user);
+        }
+        return post;
+    }
+
+
+    private void trackPost(@NonNull ContentValues row) {
+        Long threadId = row.getAsLong(AwfulPost.THREAD_ID);
+        Long position = row.getAsLong(AwfulPost.POST_INDEX);
+        Long postId = row.getAsLong(AwfulPost.ID);
+        if (threadId == null || position == null || postId == null) {
+            return;
+        }
+        PostRange range = postRanges.get(threadId);
+        if (range == null) {
+            postRanges.put(threadId, new PostRange(position, postId));
+        } else {
+            range.add(position, postId);
+        }
+    }
+
+
+    @NonNull
+    private BoundStatement insertFor(@NonNull ContentValues row) {
+        BoundStatement insert = inserts.get(row.keySet());
+        if (insert == null) {
+            String[] columns = row.keySet().toArray(new String[0]);
+            StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ").append(table).append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(columns[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+            insert = new BoundStatement(db.compileStatement(sql.toString()), columns, null);
+            inserts.put(new HashSet<>(row.keySet()), insert);
+        }
+        return insert;
+    }
+
+
+    /**
+     * Get the update statement for a row's columns.
+     *
+     * @param onlyRowColumns    only set the row's own columns, instead of clearing all the others too
+     */
+    @NonNull
+    private BoundStatement updateFor(@NonNull ContentValues row, boolean onlyRowColumns) {
+        BoundStatement update = updates.get(row.keySet());
+        if (update == null) {
+            String[] columns = onlyRowColumns ? row.keySet().toArray(new String[0]) : tableColumns();
+            StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(columns[i]).append("=?");
+            }
+            sql.append(" WHERE ").append(ID).append("=?");
+            update = new BoundStatement(db.compileStatement(sql.toString()), columns, ID);
+            updates.put(new HashSet<>(row.keySet()), update);
+        }
+        return update;
+    }
+
+
+    @NonNull
+    private String[] tableColumns() {
+        if (tableColumns == null) {
+            try (Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null)) {
+                List<String> columns = new ArrayList<>();
+                int nameColumn = cursor.getColumnIndexOrThrow("name");
+                while (cursor.moveToNext()) {
+                    columns.add(cursor.getString(nameColumn));
+                }
+                tableColumns = columns.toArray(new String[0]);
+            }
+        }
+        return tableColumns;
+    }
+
+
+    /**
+     * A compiled statement, and the columns its parameters are bound from.
+     */
+    private static class BoundStatement {
+        @NonNull
+        final SQLiteStatement statement;
+        @NonNull
+        final String[] columns;
+        /** a column to bind to one extra parameter at the end, e.g. for a WHERE clause */
+        final String whereColumn;
+
+        BoundStatement(@NonNull SQLiteStatement statement, @NonNull String[] columns, String whereColumn) {
+            this.statement = statement;
+            this.columns = columns;
+            this.whereColumn = whereColumn;
+        }
+
+        @NonNull
+        SQLiteStatement bind(@NonNull ContentValues row) {
+            for (int i = 0; i < columns.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, row.get(columns[i]));
+            }
+            if (whereColumn != null) {
+                DatabaseUtils.bindObjectToProgram(statement, columns.length + 1, row.get(whereColumn));
+            }
+            return statement;
+        }
+    }
+
+
+    /**
+     * The first and last positions written to in a thread, and the IDs of the posts written.
+     */
+    private static class PostRange {
+        long first;
+        long last;
+        final StringBuilder ids = new StringBuilder();
+
+        PostRange(long position, long postId) {
+            first = position;
+            last = position;
+            ids.append(postId);
+        }
+
+        void add(long position, long postId) {
+            first = Math.min(first, position);
+            last = Math.max(last, position);
+            ids.append(',').append(postId);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.preferences.AwfulPreferences;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulThread;
+
+import java.sql.Timestamp;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PAGE_VALIDATORS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POST_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_CACHE;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_USERS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_VIDEO_LINKS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP;
+
+/**
+ * Keeps the database under the size the user has set, by clearing out the cached posts for the
+ * threads they haven't read for the longest.
+ * <p>
+ * Call {@link #threadRead(Context, int)} whenever a thread's posts are displayed. That records when
+ * it was last read, and every so often checks the size of the database - if it's over budget,
+ * threads are evicted (their posts, search index entries and page validators deleted) least recently read first,
+ * one thread per transaction, until it's back under. Anyone left without any cached posts is then
+ * removed from the users table. Threads with cached posts that have never been recorded as read (e.g.
+ * pages that were fetched but never opened) go first. Threads read or fetched in the last hour are
+ * never evicted - a page that's just been fetched may be about to be shown - so the cache can go over
+ * budget for a while if someone reads a lot in one go.
+ * <p>
+ * Everything runs on a single background thread, and each transaction is small, so it never holds
+ * up the UI or blocks a page being written for long.
+ */
+public class CacheManager {
+
+    // columns in the thread cache table
+    static final String THREAD_ID = "_id";
+    static final String LAST_READ = "last_read";
+
+    /** how long between size checks when threads are being read */
+    private static final long TRIM_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    /** threads read (or fetched) more recently than this are never evicted */
+    private static final long MIN_EVICTION_AGE = TimeUnit.HOURS.toMillis(1);
+    /** rows that aren't part of a cached thread (forum listings, bookmarks, emotes) are kept this long */
+    private static final String OLD_ROWS = UPDATED_TIMESTAMP + " < datetime('now','-7 days')";
+    /** deletes everything cached for a thread, taking its ID as the only argument */
+    static final String[] EVICT_THREAD = {
+            "DELETE FROM " + TABLE_POST_SEARCH + " WHERE rowid IN (SELECT " + AwfulPost.ID + " FROM " + TABLE_POSTS +
+                    " WHERE " + AwfulPost.THREAD_ID + "=?)",
+            "DELETE FROM " + TABLE_POSTS + " WHERE " + AwfulPost.THREAD_ID + "=?",
+            "DELETE FROM " + TABLE_THREAD_CACHE + " WHERE " + THREAD_ID + "=?",
+            "DELETE FROM " + TABLE_PAGE_VALIDATORS + " WHERE " + PageValidators.THREAD_ID + "=?"
+    };
+
+    /** marks a page of a forum's threads as current, taking the time, the forum ID and the page's index range */
+    static final String REFRESH_FORUM_PAGE = "UPDATE " + TABLE_THREADS + " SET " + UPDATED_TIMESTAMP + "=?" +
+            " WHERE " + AwfulThread.FORUM_ID + "=? AND " + AwfulThread.INDEX + ">=? AND " + AwfulThread.INDEX + "<?";
+    /** marks a page of bookmarks and their threads as current, taking the time and the page's index range */
+    static final String[] REFRESH_BOOKMARKS_PAGE = {
+            "UPDATE " + TABLE_THREADS + " SET " + UPDATED_TIMESTAMP + "=? WHERE " + AwfulThread.ID + " IN (SELECT " + AwfulThread.ID +
+                    " FROM " + TABLE_UCP_THREADS + " WHERE " + AwfulThread.INDEX + ">=? AND " + AwfulThread.INDEX + "<?)",
+            "UPDATE " + TABLE_UCP_THREADS + " SET " + UPDATED_TIMESTAMP + "=?" +
+                    " WHERE " + AwfulThread.INDEX + ">=? AND " + AwfulThread.INDEX + "<?"
+    };
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "cache-manager"));
+    private static volatile long lastTrimTime = 0;
+
+
+    private CacheManager() {
+    }
+
+
+    /**
+     * Record that a thread was just read, and trim the cache if it's due a check.
+     */
+    public static void threadRead(@NonNull Context context, int threadId) {
+        final Context appContext = context.getApplicationContext();
+        final long now = System.currentTimeMillis();
+        worker.execute(() -> {
+            SQLiteDatabase db = getDatabase(appContext);
+            if (db == null) {
+                return;
+            }
+            ContentValues values = new ContentValues();
+            values.put(THREAD_ID, threadId);
+            values.put(LAST_READ, now);
+            db.insertWithOnConflict(TABLE_THREAD_CACHE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            if (now - lastTrimTime > TRIM_INTERVAL) {
+                trim(appContext, db);
+            }
+        });
+    }
+
+
+    /**
+     * Trim the cache down to size in the background, and clear out old listing data.
+     */
+    public static void trimCache(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+        worker.execute(() -> {
+            SQLiteDatabase db = getDatabase(appContext);
+            if (db != null) {
+                trimOldRows(db);
+                trim(appContext, db);
+            }
+        });
+    }
+
+
+    /**
+     * Record that a page of a forum's threads (or the bookmarks) is still current, when it's been
+     * loaded again without changing. Its rows aren't written again, so this keeps them from being
+     * trimmed as old listings while they're still being shown. Nothing is notified - the data
+     * hasn't changed.
+     *
+     * @param fromIndex the index of the page's first thread
+     * @param toIndex   the index the next page starts at
+     */
+    @WorkerThread
+    public static void listingUnchanged(@NonNull Context context, int forumId, int fromIndex, int toIndex) {
+        SQLiteDatabase db = getDatabase(context);
+        if (db == null) {
+            return;
+        }
+        String now = new Timestamp(System.currentTimeMillis()).toString();
+        if (forumId != Constants.USERCP_ID) {
+            db.execSQL(REFRESH_FORUM_PAGE, new Object[]{now, forumId, fromIndex, toIndex});
+            return;
+        }
+        db.beginTransactionNonExclusive();
+        try {
+            for (String statement : REFRESH_BOOKMARKS_PAGE) {
+                db.execSQL(statement, new Object[]{now, fromIndex, toIndex});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+
+    private static void trim(@NonNull Context context, @NonNull SQLiteDatabase db) {
+        lastTrimTime = System.currentTimeMillis();
+        long budget = AwfulPreferences.getInstance(context).cacheSizeMb * 1024L * 1024L;
+        long before = usedBytes(db);
+        int evicted = evictToBudget(db, budget, lastTrimTime - MIN_EVICTION_AGE);
+        if (evicted > 0) {
+            Timber.i("Evicted %d threads from the cache, %d KB -> %d KB (budget %d KB)",
+                    evicted, before / 1024, usedBytes(db) / 1024, budget / 1024);
+        }
+    }
+
+
+    /**
+     * Evict the least recently read threads, one per transaction, until the database is under budget.
+     *
+     * @param readBefore only evict threads last read (or fetched, if they've never been read) before this time
+     * @return the number of threads evicted
+     */
+    static int evictToBudget(@NonNull SQLiteDatabase db, long budgetBytes, long readBefore) {
+        int evicted = 0;
+        while (usedBytes(db) > budgetBytes) {
+            Long threadId = leastRecentlyRead(db, readBefore);
+            if (threadId == null) {
+                Timber.w("Cache is over budget, but there's nothing left to evict");
+                break;
+            }
+            Object[] args = {threadId};
+            db.beginTransactionNonExclusive();
+            try {
+                for (String statement : EVICT_THREAD) {
+                    db.execSQL(statement, args);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            evicted++;
+        }
+        if (evicted > 0) {
+            db.delete(TABLE_USERS, AwfulPost.ID + " NOT IN (SELECT " + AwfulPost.USER_ID + " FROM " + TABLE_POSTS +
+                    " WHERE " + AwfulPost.USER_ID + " IS NOT NULL)", null);
+        }
+        return evicted;
+    }
+
+
+    /**
+     * Find the thread to evict next - one with cached posts that's never been read, or failing
+     * that, the one that was read longest ago. Never-read threads only count once none of their
+     * posts have been written since readBefore, so pages that were just fetched (e.g. read ahead)
+     * don't get evicted before they can be shown.
+     */
+    @Nullable
+    private static Long leastRecentlyRead(@NonNull SQLiteDatabase db, long readBefore) {
+        // posts are timestamped the same way, so these compare as strings
+        String fetchedBefore = new Timestamp(readBefore).toString();
+        try (Cursor unread = db.rawQuery("SELECT " + AwfulPost.THREAD_ID + " FROM " + TABLE_POSTS +
+                " WHERE " + AwfulPost.THREAD_ID + " NOT IN (SELECT " + THREAD_ID + " FROM " + TABLE_THREAD_CACHE + ")" +
+                " GROUP BY " + AwfulPost.THREAD_ID + " HAVING MAX(" + UPDATED_TIMESTAMP + ")<? LIMIT 1", new String[]{fetchedBefore})) {
+            if (unread.moveToFirst()) {
+                return unread.getLong(0);
+            }
+        }
+        try (Cursor oldest = db.rawQuery("SELECT " + THREAD_ID + " FROM " + TABLE_THREAD_CACHE +
+                " WHERE " + LAST_READ + "<? ORDER BY " + LAST_READ + " LIMIT 1", new String[]{Long.toString(readBefore)})) {
+            if (oldest.moveToFirst()) {
+                return oldest.getLong(0);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Clear out old rows from the tables that hold listings rather than cached threads. Threads
+     * with cached posts keep their details until the posts are evicted, whether or not they've been read.
+     */
+    private static void trimOldRows(@NonNull SQLiteDatabase db) {
+        int rowCount = db.delete(TABLE_THREADS, OLD_ROWS + " AND " + AwfulThread.ID +
+                " NOT IN (SELECT " + AwfulPost.THREAD_ID + " FROM " + TABLE_POSTS + ")", null);
+        rowCount += db.delete(TABLE_UCP_THREADS, OLD_ROWS, null);
+        rowCount += db.delete(TABLE_EMOTES, OLD_ROWS, null);
+        // a thread's page validators go when its posts are evicted
+        rowCount += db.delete(TABLE_PAGE_VALIDATORS, OLD_ROWS + " AND " + PageValidators.THREAD_ID + " IS NULL", null);
+        rowCount += db.delete(TABLE_VIDEO_LINKS, OLD_ROWS, null);
+        Timber.i("Trimmed listings older than 7 days, culled: %d", rowCount);
+    }
+
+
+    /**
+     * The space the database's data takes up, not counting free pages left behind by deletes.
+     */
+    static long usedBytes(@NonNull SQLiteDatabase db) {
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return (pages - freePages) * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+
+    /**
+     * Get the database from the app's provider, or null if it isn't running in this process.
+     */
+    @Nullable
+    static SQLiteDatabase getDatabase(@NonNull Context context) {
+        try (ContentProviderClient client = context.getContentResolver().acquireContentProviderClient(AwfulPost.CONTENT_URI)) {
+            ContentProvider provider = client == null ? null : client.getLocalContentProvider();
+            if (provider instanceof AwfulProvider) {
+                return ((AwfulProvider) provider).getDatabase();
+            }
+        }
+        Timber.w("No local provider, can't access the database");
+        return null;
+    }
+}
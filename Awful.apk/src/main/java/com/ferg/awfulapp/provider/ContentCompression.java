@@ -0,0 +1,180 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the HTML bodies of posts and PMs for storing in the database.
+ * <p>
+ * Bodies are the bulk of the database, and of the data copied into cursor windows when a page is
+ * read back, so long ones are stored as a BLOB - a format byte, the length of the original text,
+ * and the text's UTF-8 bytes deflated with a preset dictionary. Posts are mostly short, and too
+ * short for deflate to find much repetition inside each one, but they all share a lot of the same
+ * markup (quote blocks, smilies, image tags...) so the dictionary gives it something to refer back to.
+ * <p>
+ * SQLite will happily store a BLOB in a text column, so short bodies are still stored as plain text,
+ * and so are rows written before this existed. Use {@link #getString(Cursor, int)} or
+ * {@link #isCompressed(Cursor, int)} to read a body column, never {@link Cursor#getString(int)}.
+ * <p>
+ * <b>Never change the dictionary</b> - rows compressed with it can't be read without it. Add a new
+ * one with a new format byte instead, and keep the old one around for reading old rows.
+ */
+public final class ContentCompression {
+
+    /** deflate with {@link #DICTIONARY_V1} */
+    private static final byte FORMAT_DEFLATE_V1 = 1;
+    /** the format byte, then the original length as a 4-byte int */
+    private static final int HEADER_LENGTH = 5;
+    /** bodies shorter than this (in chars) aren't worth compressing */
+    static final int MIN_COMPRESSED_LENGTH = 200;
+
+    /**
+     * Markup that turns up in most posts after they've been processed, roughly from least to most
+     * common - deflate can refer to the end of the dictionary more cheaply than the start.
+     */
+    private static final byte[] DICTIONARY_V1 = (
+            " allowfullscreen sandbox=\"allow-scripts allow-same-origin allow-popups allow-top-navigation\"></iframe>" +
+            "<div class=\"videoWrapper\">\n <iframe class=\"youtube-player\" type=\"text/html\" width=\"640\" height=\"385\" src=\"https://www.youtube.com/embed/" +
+            "<a href=\"https://www.youtube.com/watch?v=" +
+            "<a href=\"https://twitter.com/" +
+            "<span class=\"converted-to-link\"><a href=\"" +
+            "<a class=\"img-link\" href=\"" +
+            "<span class=\"bbc-spoiler\">" +
+            "<div class=\"bbc-block code\">\n <h5>code:</h5>\n <pre>" +
+            "</pre>\n</div>" +
+            "<p class=\"editedby\"><span>" +
+            " fucked around with this message at " +
+            "</span></p>" +
+            "<!-- google_ad_section_end -->" +
+            "<!-- google_ad_section_start -->" +
+            "\" class=\"timg playGif\" width=\"200px\">" +
+            "\" rel=\"nofollow\">https://" +
+            "<a href=\"https://forums.somethingawful.com/showthread.php?threadid=" +
+            "<img src=\"https://i.imgur.com/" +
+            ".jpg\" alt=\"\" class=\"img\" border=\"0\">" +
+            ".png\" alt=\"\" class=\"img\" border=\"0\">" +
+            "<img src=\"https://fi.somethingawful.com/images/smilies/emot-" +
+            "<img src=\"https://i.somethingawful.com/forumsystem/emoticons/emot-" +
+            ".gif\" alt=\"\" class=\"img\" border=\"0\" title=\":" +
+            "<div class=\"bbc-block\">\n <h4>quote:</h4>\n <blockquote>\n  " +
+            "<a href=\"https://forums.somethingawful.com/showthread.php?goto=post&amp;postid=" +
+            "\" class=\"quote_link\">" +
+            " posted:</a>\n  <br>\n  " +
+            "\n </blockquote>\n</div>\n" +
+            "&nbsp;&amp;&quot; the and you that this is of to a in it I <br>\n<br>\n"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    // Deflaters and Inflaters hold native memory, so each thread keeps its own (not ThreadLocal.withInitial, which needs API 26)
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION);
+        }
+    };
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+
+    private ContentCompression() {
+    }
+
+
+    /**
+     * Put a body into some ContentValues, compressed if it's long enough to be worth it.
+     */
+    public static void put(@NonNull ContentValues values, @NonNull String column, @Nullable String content) {
+        if (content == null || content.length() < MIN_COMPRESSED_LENGTH) {
+            values.put(column, content);
+        } else {
+            values.put(column, compress(content));
+        }
+    }
+
+
+    /**
+     * Whether a body column holds compressed data, which you can get with {@link Cursor#getBlob(int)}
+     * and {@link #decompress(byte[])} later on.
+     */
+    public static boolean isCompressed(@NonNull Cursor cursor, int column) {
+        return cursor.getType(column) == Cursor.FIELD_TYPE_BLOB;
+    }
+
+
+    /**
+     * Read a body column, decompressing it if necessary.
+     */
+    @Nullable
+    public static String getString(@NonNull Cursor cursor, int column) {
+        return isCompressed(cursor, column) ? decompress(cursor.getBlob(column)) : cursor.getString(column);
+    }
+
+
+    @NonNull
+    public static byte[] compress(@NonNull String content) {
+        byte[] text = content.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY_V1);
+        deflater.setInput(text);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + text.length / 3);
+        out.write(FORMAT_DEFLATE_V1);
+        out.write(text.length >>> 24);
+        out.write(text.length >>> 16);
+        out.write(text.length >>> 8);
+        out.write(text.length);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Decompress a body from {@link #compress(String)}.
+     *
+     * @throws IllegalArgumentException if the data isn't in a format we know, or it's been corrupted
+     */
+    @NonNull
+    public static String decompress(@NonNull byte[] compressed) {
+        if (compressed.length < HEADER_LENGTH || compressed[0] != FORMAT_DEFLATE_V1) {
+            throw new IllegalArgumentException("Unknown compressed content format");
+        }
+        int length = (compressed[1] & 0xFF) << 24 | (compressed[2] & 0xFF) << 16 | (compressed[3] & 0xFF) << 8 | (compressed[4] & 0xFF);
+        byte[] text = new byte[length];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH);
+        try {
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(text, read, length - read);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY_V1);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IllegalArgumentException("Compressed content is truncated");
+                    }
+                }
+                read += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed content is corrupted", e);
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
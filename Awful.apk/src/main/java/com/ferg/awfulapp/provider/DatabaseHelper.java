@@ -10,6 +10,7 @@ import com.ferg.awfulapp.thread.AwfulForum;
 import com.ferg.awfulapp.thread.AwfulMessage;
 import com.ferg.awfulapp.thread.AwfulPost;
 import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.users.User;
 
 /**
  * Created by baka kaba on 06/05/2017.
@@ -20,7 +21,7 @@ import com.ferg.awfulapp.thread.AwfulThread;
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "awful.db";
-    private static final int DATABASE_VERSION = 37;
+    private static final int DATABASE_VERSION = 38;
 
     static final String TABLE_FORUM    = "forum";
     static final String TABLE_THREADS    = "threads";
@@ -31,11 +32,28 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     static final String TABLE_PM    = "private_messages";
     static final String TABLE_DRAFTS    = "draft_messages";
     static final String TABLE_THREAD_DRAFTS    = "draft_threads";
+    static final String TABLE_THREAD_CACHE    = "thread_cache";
+    static final String TABLE_POST_SEARCH    = "post_search";
+    static final String TABLE_PM_SEARCH    = "pm_search";
+    static final String TABLE_USERS    = "users";
+    static final String TABLE_PAGE_VALIDATORS    = "page_validators";
+    static final String TABLE_VIDEO_LINKS    = "video_links";
 
     public static final String UPDATED_TIMESTAMP    = "timestamp_row_update";
 
     DatabaseHelper(Context aContext) {
         super(aContext, DATABASE_NAME, null, DATABASE_VERSION);
+        // Parse workers write whole pages in one transaction while loaders are reading from the cache.
+        // With write-ahead logging the database gets a pool of read connections, and readers see the
+        // last committed data instead of waiting for the writer (and the writer doesn't wait for them)
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase aDb) {
+        // Everything in here can be downloaded again, so it doesn't need syncing to disk on every commit.
+        // With WAL this is still safe from corruption - a crash can only lose the last few transactions
+        aDb.execSQL("PRAGMA synchronous=NORMAL");
     }
 
     @Override
@@ -44,135 +62,276 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         createThreadTable(aDb);
         createUCPTable(aDb);
         createPostTable(aDb);
+        createUserTable(aDb);
         createEmoteTable(aDb);
         createPMTable(aDb);
         createDraftTable(aDb);
         createThreadDraftTable(aDb);
+        createThreadCacheTable(aDb);
+        createSearchTables(aDb);
+        createPageValidatorsTable(aDb);
+        createVideoLinksTable(aDb);
+        createIndexes(aDb);
     }
 
 
+    static final String CREATE_FORUM_TABLE = "CREATE TABLE " + TABLE_FORUM + " (" +
+            AwfulForum.ID + " INTEGER UNIQUE," +
+            AwfulForum.PARENT_ID + " INTEGER," + //subforums list parent forum id, primary forums list 0 (index)
+            AwfulForum.INDEX + " INTEGER," +
+            AwfulForum.TITLE + " VARCHAR," +
+            AwfulForum.SUBTEXT + " VARCHAR," +
+            AwfulForum.PAGE_COUNT + " INTEGER," +
+            AwfulForum.TAG_URL + " VARCHAR," +
+            AwfulForum.TAG_CACHEFILE + " VARCHAR," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createForumTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_FORUM + " (" +
-                AwfulForum.ID + " INTEGER UNIQUE," +
-                AwfulForum.PARENT_ID + " INTEGER," + //subforums list parent forum id, primary forums list 0 (index)
-                AwfulForum.INDEX + " INTEGER," +
-                AwfulForum.TITLE + " VARCHAR," +
-                AwfulForum.SUBTEXT + " VARCHAR," +
-                AwfulForum.PAGE_COUNT + " INTEGER," +
-                AwfulForum.TAG_URL + " VARCHAR," +
-                AwfulForum.TAG_CACHEFILE + " VARCHAR," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_FORUM_TABLE);
     }
 
+    static final String CREATE_THREAD_TABLE = "CREATE TABLE " + TABLE_THREADS + " (" +
+            AwfulThread.ID + " INTEGER UNIQUE," +
+            AwfulThread.FORUM_ID + " INTEGER," +
+            AwfulThread.INDEX + " INTEGER," +
+            AwfulThread.TITLE + " VARCHAR," +
+            AwfulThread.POSTCOUNT + " INTEGER," +
+            AwfulThread.UNREADCOUNT + " INTEGER," +
+            AwfulThread.AUTHOR + " VARCHAR," +
+            AwfulThread.AUTHOR_ID + " INTEGER," +
+            AwfulThread.LOCKED + " INTEGER," +
+            AwfulThread.CAN_OPEN_CLOSE + " INTEGER," +
+            AwfulThread.BOOKMARKED + " INTEGER," +
+            AwfulThread.STICKY + " INTEGER," +
+            AwfulThread.CATEGORY + " INTEGER," +
+            AwfulThread.LASTPOSTER + " VARCHAR," +
+            AwfulThread.TAG_URL + " VARCHAR," +
+            AwfulThread.TAG_CACHEFILE + " VARCHAR," +
+            AwfulThread.TAG_EXTRA + " INTEGER, " +
+            AwfulThread.HAS_VIEWED_THREAD + " INTEGER, " +
+            AwfulThread.ARCHIVED + " INTEGER, " +
+            AwfulThread.RATING + " INTEGER, " +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createThreadTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_THREADS + " (" +
-                AwfulThread.ID + " INTEGER UNIQUE," +
-                AwfulThread.FORUM_ID + " INTEGER," +
-                AwfulThread.INDEX + " INTEGER," +
-                AwfulThread.TITLE + " VARCHAR," +
-                AwfulThread.POSTCOUNT + " INTEGER," +
-                AwfulThread.UNREADCOUNT + " INTEGER," +
-                AwfulThread.AUTHOR + " VARCHAR," +
-                AwfulThread.AUTHOR_ID + " INTEGER," +
-                AwfulThread.LOCKED + " INTEGER," +
-                AwfulThread.CAN_OPEN_CLOSE + " INTEGER," +
-                AwfulThread.BOOKMARKED + " INTEGER," +
-                AwfulThread.STICKY + " INTEGER," +
-                AwfulThread.CATEGORY + " INTEGER," +
-                AwfulThread.LASTPOSTER + " VARCHAR," +
-                AwfulThread.TAG_URL + " VARCHAR," +
-                AwfulThread.TAG_CACHEFILE + " VARCHAR," +
-                AwfulThread.TAG_EXTRA + " INTEGER, " +
-                AwfulThread.HAS_VIEWED_THREAD + " INTEGER, " +
-                AwfulThread.ARCHIVED + " INTEGER, " +
-                AwfulThread.RATING + " INTEGER, " +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_THREAD_TABLE);
     }
 
+    static final String CREATE_UCP_TABLE = "CREATE TABLE " + TABLE_UCP_THREADS + " (" +
+            AwfulThread.ID + " INTEGER UNIQUE," + //to be joined with thread table
+            AwfulThread.INDEX + " INTEGER," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createUCPTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_UCP_THREADS + " (" +
-                AwfulThread.ID + " INTEGER UNIQUE," + //to be joined with thread table
-                AwfulThread.INDEX + " INTEGER," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_UCP_TABLE);
     }
 
+    static final String CREATE_POST_TABLE = "CREATE TABLE " + TABLE_POSTS + " (" +
+            AwfulPost.ID + " INTEGER UNIQUE," +
+            AwfulPost.THREAD_ID + " INTEGER," +
+            AwfulPost.POST_INDEX + " INTEGER," +
+            AwfulPost.DATE + " VARCHAR," +
+            AwfulPost.USER_ID + " INTEGER," +
+            // the author's details are only stored here if their user ID couldn't be parsed - see postAuthorColumn
+            AwfulPost.USERNAME + " VARCHAR," +
+            AwfulPost.REGDATE + " VARCHAR," +
+            AwfulPost.ROLE + " VARCHAR," +
+            AwfulPost.IS_PLAT + " INTEGER," +
+            AwfulPost.AVATAR + " VARCHAR," +
+            AwfulPost.AVATAR_SECOND + " VARCHAR," +
+            AwfulPost.AVATAR_TEXT + " VARCHAR," +
+            AwfulPost.IS_IGNORED + " INTEGER," +
+            AwfulPost.PREVIOUSLY_READ + " INTEGER," +
+            AwfulPost.EDITABLE + " INTEGER," +
+            AwfulPost.IS_OP + " INTEGER," +
+            AwfulPost.CONTENT + " VARCHAR," +
+            AwfulPost.EDITED + " VARCHAR," +
+            AwfulPost.CONTENT_HASH + " INTEGER," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createPostTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_POSTS + " (" +
-                AwfulPost.ID + " INTEGER UNIQUE," +
-                AwfulPost.THREAD_ID + " INTEGER," +
-                AwfulPost.POST_INDEX + " INTEGER," +
-                AwfulPost.DATE + " VARCHAR," +
-                AwfulPost.REGDATE + " VARCHAR," +
-                AwfulPost.USER_ID + " INTEGER," +
-                AwfulPost.USERNAME + " VARCHAR," +
-                AwfulPost.IS_IGNORED + " INTEGER," +
-                AwfulPost.PREVIOUSLY_READ + " INTEGER," +
-                AwfulPost.EDITABLE + " INTEGER," +
-                AwfulPost.IS_OP + " INTEGER," +
-                AwfulPost.IS_PLAT + " INTEGER," +
-                AwfulPost.ROLE + " VARCHAR," +
-                AwfulPost.AVATAR + " VARCHAR," +
-                AwfulPost.AVATAR_SECOND + " VARCHAR," +
-                AwfulPost.AVATAR_TEXT + " VARCHAR," +
-                AwfulPost.CONTENT + " VARCHAR," +
-                AwfulPost.EDITED + " VARCHAR," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_POST_TABLE);
+    }
+
+    /** The details of everyone who wrote a cached post, keyed by user ID - see {@link User#POST_COLUMNS} */
+    static final String CREATE_USER_TABLE = "CREATE TABLE " + TABLE_USERS + " (" +
+            AwfulPost.ID + " INTEGER PRIMARY KEY," +
+            AwfulPost.USERNAME + " VARCHAR," +
+            AwfulPost.REGDATE + " VARCHAR," +
+            AwfulPost.ROLE + " VARCHAR," +
+            AwfulPost.IS_PLAT + " INTEGER," +
+            AwfulPost.AVATAR + " VARCHAR," +
+            AwfulPost.AVATAR_SECOND + " VARCHAR," +
+            AwfulPost.AVATAR_TEXT + " VARCHAR," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
+    private void createUserTable(SQLiteDatabase aDb) {
+        aDb.execSQL(CREATE_USER_TABLE);
+    }
+
+    /**
+     * The SQL for one of a post's author columns (see {@link User#POST_COLUMNS}), when the posts table
+     * is joined with the users table. Their details come from the users table, unless the post has no
+     * user ID to join on - then they're stored on the post itself.
+     */
+    static String postAuthorColumn(String column) {
+        return "CASE WHEN " + TABLE_POSTS + "." + AwfulPost.USER_ID + " IS NULL THEN " + TABLE_POSTS + "." + column +
+                " ELSE " + TABLE_USERS + "." + column + " END";
     }
 
+    static final String CREATE_EMOTE_TABLE = "CREATE TABLE " + TABLE_EMOTES + " (" +
+            AwfulEmote.ID + " INTEGER UNIQUE," +
+            AwfulEmote.TEXT + " VARCHAR," +
+            AwfulEmote.SUBTEXT + " VARCHAR," +
+            AwfulEmote.URL + " VARCHAR," +
+            AwfulEmote.INDEX + " INTEGER," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createEmoteTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_EMOTES + " (" +
-                AwfulEmote.ID + " INTEGER UNIQUE," +
-                AwfulEmote.TEXT + " VARCHAR," +
-                AwfulEmote.SUBTEXT + " VARCHAR," +
-                AwfulEmote.URL + " VARCHAR," +
-                AwfulEmote.INDEX + " INTEGER," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_EMOTE_TABLE);
     }
 
+    static final String CREATE_PM_TABLE = "CREATE TABLE " + TABLE_PM + " (" +
+            AwfulMessage.ID + " INTEGER UNIQUE," +
+            AwfulMessage.TITLE + " VARCHAR," +
+            AwfulMessage.AUTHOR + " VARCHAR," +
+            AwfulMessage.CONTENT + " VARCHAR," +
+            AwfulMessage.UNREAD + " INTEGER," +
+            AwfulMessage.FOLDER + " INTEGER," +
+            AwfulMessage.ICON + " VARCHAR," +
+            AwfulMessage.DATE + " VARCHAR," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createPMTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_PM + " (" +
-                AwfulMessage.ID + " INTEGER UNIQUE," +
-                AwfulMessage.TITLE + " VARCHAR," +
-                AwfulMessage.AUTHOR + " VARCHAR," +
-                AwfulMessage.CONTENT + " VARCHAR," +
-                AwfulMessage.UNREAD + " INTEGER," +
-                AwfulMessage.FOLDER + " INTEGER," +
-                AwfulMessage.ICON + " VARCHAR," +
-                AwfulMessage.DATE + " VARCHAR," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_PM_TABLE);
     }
 
+    static final String CREATE_DRAFT_TABLE = "CREATE TABLE " + TABLE_DRAFTS + " (" +
+            AwfulMessage.ID + " INTEGER UNIQUE," +
+            AwfulMessage.TYPE + " INTEGER," +
+            AwfulMessage.TITLE + " VARCHAR," +
+            AwfulPost.FORM_KEY + " VARCHAR," +
+            AwfulPost.FORM_COOKIE + " VARCHAR," +
+            AwfulPost.EDIT_POST_ID + " INTEGER," +
+            AwfulMessage.RECIPIENT      + " VARCHAR,"   +
+            AwfulMessage.REPLY_CONTENT      + " VARCHAR," +
+            AwfulMessage.REPLY_ICON      + " VARCHAR," +
+            AwfulPost.REPLY_ORIGINAL_CONTENT + " VARCHAR," +
+            AwfulPost.FORM_BOOKMARK + " VARCHAR," +
+            AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
+            AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createDraftTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_DRAFTS + " (" +
-                AwfulMessage.ID + " INTEGER UNIQUE," +
-                AwfulMessage.TYPE + " INTEGER," +
-                AwfulMessage.TITLE + " VARCHAR," +
-                AwfulPost.FORM_KEY + " VARCHAR," +
-                AwfulPost.FORM_COOKIE + " VARCHAR," +
-                AwfulPost.EDIT_POST_ID + " INTEGER," +
-                AwfulMessage.RECIPIENT      + " VARCHAR,"   +
-                AwfulMessage.REPLY_CONTENT      + " VARCHAR," +
-                AwfulMessage.REPLY_ICON      + " VARCHAR," +
-                AwfulPost.REPLY_ORIGINAL_CONTENT + " VARCHAR," +
-                AwfulPost.FORM_BOOKMARK + " VARCHAR," +
-                AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
-                AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_DRAFT_TABLE);
     }
 
+    static final String CREATE_THREAD_DRAFT_TABLE = "CREATE TABLE " + TABLE_THREAD_DRAFTS + " (" +
+            AwfulMessage.ID + " INTEGER UNIQUE," +
+            AwfulPost.FORM_KEY + " VARCHAR," +
+            AwfulPost.FORM_COOKIE + " VARCHAR," +
+            AwfulMessage.POST_CONTENT      + " VARCHAR," +
+            AwfulMessage.POST_SUBJECT      + " VARCHAR," +
+            AwfulMessage.POST_ICON_ID      + " VARCHAR," +
+            AwfulMessage.POST_ICON_URL      + " VARCHAR," +
+            AwfulPost.FORM_BOOKMARK + " VARCHAR," +
+            AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
+            AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
     private void createThreadDraftTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_THREAD_DRAFTS + " (" +
-                AwfulMessage.ID + " INTEGER UNIQUE," +
-                AwfulPost.FORM_KEY + " VARCHAR," +
-                AwfulPost.FORM_COOKIE + " VARCHAR," +
-                AwfulMessage.POST_CONTENT      + " VARCHAR," +
-                AwfulMessage.POST_SUBJECT      + " VARCHAR," +
-                AwfulMessage.POST_ICON_ID      + " VARCHAR," +
-                AwfulMessage.POST_ICON_URL      + " VARCHAR," +
-                AwfulPost.FORM_BOOKMARK + " VARCHAR," +
-                AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
-                AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
-                UPDATED_TIMESTAMP + " DATETIME);");
+        aDb.execSQL(CREATE_THREAD_DRAFT_TABLE);
+    }
+
+
+    /** When each thread with cached posts was last read, see {@link CacheManager} */
+    static final String CREATE_THREAD_CACHE_TABLE = "CREATE TABLE " + TABLE_THREAD_CACHE + " (" +
+            CacheManager.THREAD_ID + " INTEGER PRIMARY KEY," +
+            CacheManager.LAST_READ + " INTEGER);";
+
+    private void createThreadCacheTable(SQLiteDatabase aDb) {
+        aDb.execSQL(CREATE_THREAD_CACHE_TABLE);
+    }
+
+
+    /** Full-text indexes of the cached posts and PMs, see {@link SearchIndex} */
+    static final String CREATE_POST_SEARCH_TABLE = "CREATE VIRTUAL TABLE " + TABLE_POST_SEARCH + " USING fts4(" +
+            SearchIndex.USERNAME + ", " +
+            SearchIndex.BODY + ");";
+
+    static final String CREATE_PM_SEARCH_TABLE = "CREATE VIRTUAL TABLE " + TABLE_PM_SEARCH + " USING fts4(" +
+            SearchIndex.USERNAME + ", " +
+            SearchIndex.TITLE + ", " +
+            SearchIndex.BODY + ");";
+
+    private void createSearchTables(SQLiteDatabase aDb) {
+        aDb.execSQL(CREATE_POST_SEARCH_TABLE);
+        aDb.execSQL(CREATE_PM_SEARCH_TABLE);
+    }
+
+
+    /** Validators for conditionally requesting the pages we've stored, see {@link PageValidators} */
+    static final String CREATE_PAGE_VALIDATORS_TABLE = "CREATE TABLE " + TABLE_PAGE_VALIDATORS + " (" +
+            PageValidators.KEY + " TEXT PRIMARY KEY," +
+            PageValidators.SIGNATURE + " TEXT," +
+            PageValidators.THREAD_ID + " INTEGER," +
+            PageValidators.ETAG + " TEXT," +
+            PageValidators.LAST_MODIFIED + " TEXT," +
+            PageValidators.CONTENT_HASH + " BLOB," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
+    private void createPageValidatorsTable(SQLiteDatabase aDb) {
+        aDb.execSQL(CREATE_PAGE_VALIDATORS_TABLE);
+    }
+
+
+    /** The links looked up for embedded videos, see {@link VideoLinks} */
+    static final String CREATE_VIDEO_LINKS_TABLE = "CREATE TABLE " + TABLE_VIDEO_LINKS + " (" +
+            VideoLinks.VIDEO_ID + " TEXT PRIMARY KEY," +
+            VideoLinks.URL + " TEXT," +
+            UPDATED_TIMESTAMP + " DATETIME);";
+
+    private void createVideoLinksTable(SQLiteDatabase aDb) {
+        aDb.execSQL(CREATE_VIDEO_LINKS_TABLE);
+    }
+
+
+    /**
+     * Indexes for each way the app looks up rows - without these every query scans its whole table,
+     * which gets slower as the cache grows. If you add a query, add it to QueryPlanTest too.
+     */
+    static final String[] CREATE_INDEXES = {
+            // pages of posts, and updating/replacing posts by position - the extra columns mean ForumParsing#loadContentHashes only has to read the index
+            "CREATE INDEX IF NOT EXISTS posts_thread_position ON " + TABLE_POSTS + " (" +
+                    AwfulPost.THREAD_ID + ", " + AwfulPost.POST_INDEX + ", " + AwfulPost.ID + ", " + AwfulPost.CONTENT_HASH + ");",
+            // when each thread's posts were last written, for finding never-read threads old enough to evict
+            "CREATE INDEX IF NOT EXISTS posts_thread_updated ON " + TABLE_POSTS + " (" + AwfulPost.THREAD_ID + ", " + UPDATED_TIMESTAMP + ");",
+            // pages of threads in a forum
+            "CREATE INDEX IF NOT EXISTS threads_forum_position ON " + TABLE_THREADS + " (" +
+                    AwfulThread.FORUM_ID + ", " + AwfulThread.INDEX + ");",
+            // pages of bookmarks
+            "CREATE INDEX IF NOT EXISTS ucp_thread_position ON " + TABLE_UCP_THREADS + " (" + AwfulThread.INDEX + ");",
+            // replacing emotes by their code, and listing them in order
+            "CREATE INDEX IF NOT EXISTS emotes_text ON " + TABLE_EMOTES + " (" + AwfulEmote.TEXT + ");",
+            "CREATE INDEX IF NOT EXISTS emotes_position ON " + TABLE_EMOTES + " (" + AwfulEmote.INDEX + ");",
+            // listing a PM folder, newest first
+            "CREATE INDEX IF NOT EXISTS private_messages_folder ON " + TABLE_PM + " (" + AwfulMessage.FOLDER + ", " + AwfulMessage.ID + ");",
+            // the least recently read threads, see CacheManager
+            "CREATE INDEX IF NOT EXISTS thread_cache_last_read ON " + TABLE_THREAD_CACHE + " (" + CacheManager.LAST_READ + ");",
+            // clearing out old rows, see CacheManager#trimOldRows
+            "CREATE INDEX IF NOT EXISTS threads_updated ON " + TABLE_THREADS + " (" + UPDATED_TIMESTAMP + ");",
+            "CREATE INDEX IF NOT EXISTS ucp_thread_updated ON " + TABLE_UCP_THREADS + " (" + UPDATED_TIMESTAMP + ");",
+            "CREATE INDEX IF NOT EXISTS emotes_updated ON " + TABLE_EMOTES + " (" + UPDATED_TIMESTAMP + ");",
+            "CREATE INDEX IF NOT EXISTS page_validators_updated ON " + TABLE_PAGE_VALIDATORS + " (" + UPDATED_TIMESTAMP + ");",
+            "CREATE INDEX IF NOT EXISTS video_links_updated ON " + TABLE_VIDEO_LINKS + " (" + UPDATED_TIMESTAMP + ");",
+            // evicting a thread's page validators along with its posts
+            "CREATE INDEX IF NOT EXISTS page_validators_thread ON " + TABLE_PAGE_VALIDATORS + " (" + PageValidators.THREAD_ID + ");"
+    };
+
+    private void createIndexes(SQLiteDatabase aDb) {
+        for (String index : CREATE_INDEXES) {
+            aDb.execSQL(index);
+        }
     }
 
 
@@ -208,6 +367,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             case 36:
                 dropTables(aDb, TABLE_THREAD_DRAFTS);
                 createThreadDraftTable(aDb);
+            case 37:
+                // cached posts gained content hashes and had their authors moved to their own table, so they have to go
+                dropTables(aDb, TABLE_POSTS);
+                createPostTable(aDb);
+                createUserTable(aDb);
+                createThreadCacheTable(aDb);
+                // existing PMs get indexed in the background, see SearchIndex#catchUp
+                createSearchTables(aDb);
+                createPageValidatorsTable(aDb);
+                createVideoLinksTable(aDb);
+                createIndexes(aDb);
                 break;//make sure to keep this break statement on the last case of this switch
             default:
                 wipeRecreateTables(aDb);
@@ -229,7 +399,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void wipeRecreateTables(SQLiteDatabase aDb) {
-        String[] allTables = {TABLE_FORUM, TABLE_THREADS, TABLE_POSTS, TABLE_EMOTES, TABLE_UCP_THREADS, TABLE_PM, TABLE_DRAFTS, TABLE_THREAD_DRAFTS};
+        String[] allTables = {TABLE_FORUM, TABLE_THREADS, TABLE_POSTS, TABLE_EMOTES, TABLE_UCP_THREADS, TABLE_PM, TABLE_DRAFTS, TABLE_THREAD_DRAFTS, TABLE_THREAD_CACHE, TABLE_POST_SEARCH, TABLE_PM_SEARCH, TABLE_USERS, TABLE_PAGE_VALIDATORS, TABLE_VIDEO_LINKS};
         dropTables(aDb, allTables);
         onCreate(aDb);
     }
@@ -0,0 +1,133 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds back {@link AwfulProvider}'s change notifications while a group of related writes happens,
+ * and sends each one once at the end.
+ * <p>
+ * Every notification makes the loaders watching that Uri run their queries again, so a request that
+ * deletes a page of threads, writes the new ones and updates the forum's page count would otherwise
+ * reload the thread list twice. Call {@link #begin()} before the writes, and {@link #end(ContentResolver)}
+ * afterwards (in a finally block!) on the same thread. Until then, notifications from that thread's
+ * writes are collected instead of sent, and a Uri is dropped if one of its ancestors is also waiting
+ * to be notified, since observers watching descendants hear about that anyway. Batches can be nested,
+ * and only the outermost one sends anything.
+ * <p>
+ * Only writes made on the thread that opened a batch are held by it. A {@link PipelinedInsert} writes on
+ * its own thread, so it holds on to the batch that was open when it was started, and adds to that.
+ */
+public class NotificationBatch {
+
+    private static final ThreadLocal<NotificationBatch> current = new ThreadLocal<>();
+
+    /** how many times {@link #begin()} has been called on the owning thread without a matching end */
+    private int depth = 0;
+    // these can be touched by any thread that was handed this batch
+    private final Set<Uri> pending = new LinkedHashSet<>();
+    private boolean sent = false;
+
+
+    private NotificationBatch() {
+    }
+
+
+    /**
+     * Start holding back change notifications on this thread, or join the batch that's already open.
+     */
+    public static void begin() {
+        NotificationBatch batch = current.get();
+        if (batch == null) {
+            batch = new NotificationBatch();
+            current.set(batch);
+        }
+        batch.depth++;
+    }
+
+
+    /**
+     * Finish a batch started with {@link #begin()}. If it's the outermost one, this sends all the
+     * notifications it's been holding.
+     */
+    public static void end(@NonNull ContentResolver resolver) {
+        NotificationBatch batch = current.get();
+        if (batch == null) {
+            throw new IllegalStateException("No notification batch is open on this thread");
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        current.remove();
+        for (Uri uri : batch.close()) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+
+    /**
+     * The batch that's open on this thread, if any.
+     */
+    @Nullable
+    static NotificationBatch current() {
+        return current.get();
+    }
+
+
+    /**
+     * Notify observers of a change to a Uri, or hold the notification in a batch if there is one.
+     * If the batch has already been sent, the notification goes out right away.
+     */
+    static void notifyChange(@NonNull ContentResolver resolver, @NonNull Uri uri, @Nullable NotificationBatch batch) {
+        if (batch == null || !batch.add(uri)) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+
+    private synchronized boolean add(@NonNull Uri uri) {
+        if (sent) {
+            return false;
+        }
+        pending.add(uri);
+        return true;
+    }
+
+
+    /**
+     * Stop collecting notifications, and get the ones to send.
+     */
+    @NonNull
+    private synchronized List<Uri> close() {
+        sent = true;
+        List<Uri> toSend = new ArrayList<>(pending.size());
+        for (Uri uri : pending) {
+            if (!hasPendingAncestor(uri)) {
+                toSend.add(uri);
+            }
+        }
+        pending.clear();
+        return toSend;
+    }
+
+
+    private boolean hasPendingAncestor(@NonNull Uri uri) {
+        List<String> path = uri.getPathSegments();
+        for (Uri other : pending) {
+            List<String> otherPath = other.getPathSegments();
+            if (otherPath.size() < path.size()
+                    && other.getAuthority() != null && other.getAuthority().equals(uri.getAuthority())
+                    && path.subList(0, otherPath.size()).equals(otherPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,102 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.sql.Timestamp;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PAGE_VALIDATORS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP;
+
+/**
+ * The validators for a page we've fetched and stored, so the next request for it can be made
+ * conditionally, and skipped if the page hasn't changed.
+ * <p>
+ * Each page is stored under a key for the data it was written as (e.g. one page of a thread), along
+ * with a signature for the exact request and settings it was handled with - if the same data gets
+ * written by a different request, its validators replace the old ones. The site doesn't send an
+ * ETag or Last-Modified header for most pages, so a hash of the page's content is kept too.
+ * <p>
+ * Validators for a thread's pages are deleted along with its posts when it's evicted (see
+ * {@link CacheManager}), and the rest are cleared out with the old listings they belong to.
+ */
+public class PageValidators {
+
+    // columns in the page validators table
+    static final String KEY = "_id";
+    static final String SIGNATURE = "signature";
+    static final String THREAD_ID = "thread_id";
+    static final String ETAG = "etag";
+    static final String LAST_MODIFIED = "last_modified";
+    static final String CONTENT_HASH = "content_hash";
+
+    /** the stored validators for a page, by its key and signature */
+    static final String FIND_QUERY = "SELECT " + ETAG + ", " + LAST_MODIFIED + ", " + CONTENT_HASH +
+            " FROM " + TABLE_PAGE_VALIDATORS + " WHERE " + KEY + "=? AND " + SIGNATURE + "=?";
+    /** store a page's validators, replacing any it had before */
+    static final String SAVE_STATEMENT = "INSERT OR REPLACE INTO " + TABLE_PAGE_VALIDATORS + " (" + KEY + ", " + SIGNATURE + ", " +
+            THREAD_ID + ", " + ETAG + ", " + LAST_MODIFIED + ", " + CONTENT_HASH + ", " + UPDATED_TIMESTAMP + ") VALUES (?,?,?,?,?,?,?)";
+
+    @Nullable
+    public final String etag;
+    @Nullable
+    public final String lastModified;
+    @Nullable
+    public final byte[] contentHash;
+
+
+    public PageValidators(@Nullable String etag, @Nullable String lastModified, @Nullable byte[] contentHash) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+    }
+
+
+    /**
+     * Whether the site gave us anything to make a conditional request with - if not, the only way
+     * to tell if the page has changed is to fetch it and compare its {@link #contentHash}.
+     */
+    public boolean hasHeaders() {
+        return etag != null || lastModified != null;
+    }
+
+
+    /**
+     * Get the stored validators for a page, if it was last stored with the same signature.
+     */
+    @Nullable
+    @WorkerThread
+    public static PageValidators find(@NonNull Context context, @NonNull String key, @NonNull String signature) {
+        SQLiteDatabase db = CacheManager.getDatabase(context);
+        if (db == null) {
+            return null;
+        }
+        try (Cursor cursor = db.rawQuery(FIND_QUERY, new String[]{key, signature})) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new PageValidators(cursor.getString(0), cursor.getString(1), cursor.isNull(2) ? null : cursor.getBlob(2));
+        }
+    }
+
+
+    /**
+     * Store the validators for a page that's just been handled, replacing any it had before.
+     *
+     * @param threadId the thread the page belongs to, or 0 if it isn't part of a thread
+     */
+    @WorkerThread
+    public static void save(@NonNull Context context, @NonNull String key, @NonNull String signature, int threadId,
+                            @NonNull PageValidators validators) {
+        SQLiteDatabase db = CacheManager.getDatabase(context);
+        if (db == null) {
+            return;
+        }
+        db.execSQL(SAVE_STATEMENT, new Object[]{key, signature, threadId > 0 ? threadId : null, validators.etag,
+                validators.lastModified, validators.contentHash, new Timestamp(System.currentTimeMillis()).toString()});
+    }
+}
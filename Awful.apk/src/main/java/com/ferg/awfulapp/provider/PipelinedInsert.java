@@ -0,0 +1,221 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * A bulk insert that writes rows to the database while they're still being produced.
+ * <p>
+ * Instead of parsing a whole page and then handing everything to {@link ContentResolver#bulkInsert(Uri, ContentValues[])},
+ * parse workers can {@link #add(ContentValues)} each row as soon as it's ready. Rows go into a
+ * bounded queue, and once the insert has been {@link #start()}ed a single writer thread drains them
+ * in batches into one open transaction. Calling {@link #finish()} after the last row commits the
+ * transaction and sends a single change notification, so observers still see the whole page land
+ * at once. {@link #abort()} rolls it back instead. <b>Always</b> call one of them, even if something
+ * goes wrong, or the writer holds the database forever!
+ * <p>
+ * The database only has one write connection, so the transaction is kept short: call {@link #start()}
+ * once there's nothing left to wait for but parsing - not while a streamed page is still downloading,
+ * or a slow (or background, or cancelled) download would block every other write. Rows added before
+ * then wait in the queue. The database is in WAL mode, so reads carry on while the transaction is
+ * open, but the producing thread mustn't write anything else until it's finished the insert.
+ * <p>
+ * Rows are only held up when another insert is writing, which never waits on anything but parsing.
+ * The queue holds more than a page's worth of rows, so parse workers don't get stuck behind a
+ * writer that's waiting for another insert to finish, and that insert's parse tasks can still run.
+ * <p>
+ * If the provider isn't running in this process (it always should be) this falls back to
+ * collecting the rows and doing a regular bulk insert when it's finished.
+ */
+public class PipelinedInsert {
+
+    /** how many rows can be waiting for the writer before producers have to wait - pages have 40 items at most */
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final BlockingQueue<ContentValues> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // unique objects that tell the writer there's nothing else coming, and whether to commit or roll back
+    private final ContentValues endMarker = new ContentValues();
+    private final ContentValues abortMarker = new ContentValues();
+    // only used if we couldn't start a writer, and need to do a regular bulk insert
+    private final List<ContentValues> fallbackRows = new ArrayList<>();
+    @Nullable
+    private volatile Future<Integer> writer;
+    private volatile boolean started = false;
+    private volatile boolean finished = false;
+
+
+    private PipelinedInsert(@NonNull ContentResolver resolver, @NonNull Uri uri) {
+        this.resolver = resolver;
+        this.uri = uri;
+    }
+
+
+    /**
+     * Open a pipelined insert into the table for a content Uri. Nothing is written until it's
+     * {@link #start()}ed.
+     */
+    @NonNull
+    public static PipelinedInsert open(@NonNull ContentResolver resolver, @NonNull Uri uri) {
+        return new PipelinedInsert(resolver, uri);
+    }
+
+
+    /**
+     * Start writing the rows as they arrive. Call this on the thread that will finish the insert,
+     * once the rest of the rows are only waiting on parsing. Calling it again does nothing.
+     */
+    public synchronized void start() {
+        if (started || finished) {
+            return;
+        }
+        started = true;
+        try (ContentProviderClient client = resolver.acquireContentProviderClient(uri)) {
+            ContentProvider provider = client == null ? null : client.getLocalContentProvider();
+            if (provider instanceof AwfulProvider) {
+                writer = ((AwfulProvider) provider).startPipelinedInsert(uri, queue, endMarker, abortMarker);
+                return;
+            }
+        }
+        Timber.w("No local provider for %s, falling back to a bulk insert", uri);
+        // anything that was already queued goes in the bulk insert too
+        synchronized (fallbackRows) {
+            queue.drainTo(fallbackRows);
+        }
+    }
+
+
+    /**
+     * Add a row to be written. This can be called from any thread, and will block if the writer has
+     * fallen behind. Rows added after the insert has been finished or aborted are dropped.
+     */
+    public void add(@NonNull ContentValues row) {
+        if (finished) {
+            Timber.w("Row added to %s after the insert finished - dropping it", uri);
+            return;
+        }
+        if (started && writer == null) {
+            synchronized (fallbackRows) {
+                fallbackRows.add(row);
+            }
+            return;
+        }
+        try {
+            // if the writer has died it won't be making any more space, so don't wait forever
+            do {
+                Future<Integer> writer = this.writer;
+                if (finished || (writer != null && writer.isDone())) {
+                    Timber.w("Writer for %s has stopped - dropping a row", uri);
+                    return;
+                }
+            } while (!queue.offer(row, 1, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Timber.w(e, "Interrupted while queueing a row for %s", uri);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Wait for every added row to be written, and commit them all. This starts the insert if it
+     * hasn't been already.
+     *
+     * @return the number of rows written - 0 if the insert failed and nothing was committed
+     */
+    public int finish() {
+        start();
+        return end(true);
+    }
+
+
+    /**
+     * Discard every added row without writing anything, e.g. when the work producing them has
+     * been cancelled. If the writer has started, this waits for it to roll back.
+     */
+    public void abort() {
+        end(false);
+    }
+
+
+    private int end(boolean commit) {
+        Future<Integer> writer;
+        synchronized (this) {
+            if (finished) {
+                return 0;
+            }
+            finished = true;
+            writer = this.writer;
+            if (writer == null && (!commit || !started)) {
+                queue.clear();
+                return 0;
+            }
+        }
+        if (writer == null) {
+            synchronized (fallbackRows) {
+                queue.drainTo(fallbackRows);
+                return resolver.bulkInsert(uri, fallbackRows.toArray(new ContentValues[0]));
+            }
+        }
+        // the marker has to get through even if we're interrupted, or the writer never ends - unless
+        // it's already given up, and isn't taking anything from the queue
+        ContentValues marker = commit ? endMarker : abortMarker;
+        boolean interrupted = false;
+        while (!writer.isDone()) {
+            try {
+                if (queue.offer(marker, 1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            return getQuietly(writer);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Wait for the writer to end, even if this thread is interrupted - it's only got the queued rows
+     * left to write, and the caller expects them to be committed (or rolled back) when this returns.
+     */
+    private int getQuietly(@NonNull Future<Integer> writer) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return writer.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Timber.w(e.getCause(), "Pipelined insert into %s failed", uri);
+            return 0;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ferg.awfulapp.R;
+import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.thread.AwfulForum;
+import com.ferg.awfulapp.thread.AwfulMessage;
+import com.ferg.awfulapp.thread.AwfulPagedItem;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulSearch;
+import com.ferg.awfulapp.thread.AwfulThread;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FORUM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POST_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_USERS;
+
+/**
+ * A full-text index of the cached posts and PMs, so they can be searched offline.
+ * <p>
+ * The index is two FTS4 tables holding the plain text of each post (with quotes stripped out, so
+ * a search finds who said something rather than everyone who quoted it) and PM, with the
+ * username/author in its own column so searches can be filtered with username:"...". Each row's
+ * rowid is the ID of the post or PM it indexes.
+ * <p>
+ * {@link AwfulProvider} passes the rows it writes to {@link #index(SQLiteDatabase, String, Collection)}
+ * once they're committed, and they're stripped and indexed on a separate background thread, in
+ * small transactions, so indexing never holds up a page being written. Anything that gets missed
+ * (e.g. the app being killed before it's indexed, or data cached before this existed) is picked up
+ * by {@link #catchUp(Context)}, which also clears out entries for rows that have been deleted.
+ * <p>
+ * Results are ranked with BM25 on the match info FTS4 returns, since Android's FTS4 doesn't have
+ * a ranking function of its own. Every match is ranked, reading only its match info, and then the
+ * snippets and details are loaded for the best ones.
+ */
+public class SearchIndex {
+
+    // columns in the search tables - both have a username column, so one username: filter works on both
+    static final String USERNAME = "username";
+    static final String TITLE = "title";
+    static final String BODY = "body";
+
+    /** how many rows to index in each transaction */
+    private static final int BATCH_SIZE = 50;
+    /** the most results to return */
+    private static final int MAX_RESULTS = 100;
+    /** how many words to show in each result's snippet */
+    private static final int SNIPPET_WORDS = 24;
+    // markers for the matching words in a snippet, replaced with HTML once the rest of it is escaped
+    private static final String MATCH_START = "\u0002";
+    private static final String MATCH_END = "\u0003";
+
+    // BM25 tuning - these are the usual values
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /** how much a match in each column counts, in the order the columns are defined */
+    static final double[] POST_WEIGHTS = {0.5, 1.0};
+    static final double[] PM_WEIGHTS = {0.5, 2.0, 1.0};
+
+    // a username:"..." or username:name filter, some other filter, a "quoted phrase", or a plain word
+    private static final Pattern QUERY_TERM = Pattern.compile("(\\w+):(?:\"([^\"]*)\"?|(\\S+))|\"([^\"]*)\"?|(\\S+)");
+    private static final Pattern SEARCHABLE = Pattern.compile("[\\p{L}\\p{N}]");
+    private static final Pattern NOT_SEARCHABLE = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /** every matching post's ID and match info, for ranking - add a forum filter to the end if needed */
+    static final String POST_MATCH_QUERY = "SELECT " +
+            TABLE_POST_SEARCH + ".rowid, " +
+            "matchinfo(" + TABLE_POST_SEARCH + ", 'pcnalx')" +
+            " FROM " + TABLE_POST_SEARCH +
+            " JOIN " + TABLE_POSTS + " ON " + TABLE_POSTS + "." + AwfulPost.ID + "=" + TABLE_POST_SEARCH + ".rowid" +
+            " LEFT OUTER JOIN " + TABLE_THREADS + " ON " + TABLE_THREADS + "." + AwfulThread.ID + "=" + TABLE_POSTS + "." + AwfulPost.THREAD_ID +
+            " WHERE " + TABLE_POST_SEARCH + " MATCH ?";
+
+    static final String PM_MATCH_QUERY = "SELECT " +
+            TABLE_PM_SEARCH + ".rowid, " +
+            "matchinfo(" + TABLE_PM_SEARCH + ", 'pcnalx')" +
+            " FROM " + TABLE_PM_SEARCH +
+            " JOIN " + TABLE_PM + " ON " + TABLE_PM + "." + AwfulMessage.ID + "=" + TABLE_PM_SEARCH + ".rowid" +
+            " WHERE " + TABLE_PM_SEARCH + " MATCH ?";
+
+    /** the snippets and details for matching posts - add the IDs of the ones to load to the end, see {@link #rowsIn} */
+    static final String POST_SEARCH_QUERY = "SELECT " +
+            TABLE_POST_SEARCH + ".rowid, " +
+            "snippet(" + TABLE_POST_SEARCH + ", '" + MATCH_START + "', '" + MATCH_END + "', '\u2026', -1, " + SNIPPET_WORDS + "), " +
+            DatabaseHelper.postAuthorColumn(AwfulPost.USERNAME) + ", " +
+            TABLE_POSTS + "." + AwfulPost.DATE + ", " +
+            TABLE_POSTS + "." + AwfulPost.THREAD_ID + ", " +
+            TABLE_POSTS + "." + AwfulPost.POST_INDEX + ", " +
+            TABLE_THREADS + "." + AwfulThread.TITLE + ", " +
+            TABLE_THREADS + "." + AwfulThread.FORUM_ID + ", " +
+            TABLE_FORUM + "." + AwfulForum.TITLE +
+            " FROM " + TABLE_POST_SEARCH +
+            " JOIN " + TABLE_POSTS + " ON " + TABLE_POSTS + "." + AwfulPost.ID + "=" + TABLE_POST_SEARCH + ".rowid" +
+            " LEFT OUTER JOIN " + TABLE_USERS + " ON " + TABLE_USERS + "." + AwfulPost.ID + "=" + TABLE_POSTS + "." + AwfulPost.USER_ID +
+            " LEFT OUTER JOIN " + TABLE_THREADS + " ON " + TABLE_THREADS + "." + AwfulThread.ID + "=" + TABLE_POSTS + "." + AwfulPost.THREAD_ID +
+            " LEFT OUTER JOIN " + TABLE_FORUM + " ON " + TABLE_FORUM + "." + AwfulForum.ID + "=" + TABLE_THREADS + "." + AwfulThread.FORUM_ID +
+            " WHERE " + TABLE_POST_SEARCH + " MATCH ?";
+
+    static final String PM_SEARCH_QUERY = "SELECT " +
+            TABLE_PM_SEARCH + ".rowid, " +
+            "snippet(" + TABLE_PM_SEARCH + ", '" + MATCH_START + "', '" + MATCH_END + "', '\u2026', -1, " + SNIPPET_WORDS + "), " +
+            TABLE_PM + "." + AwfulMessage.AUTHOR + ", " +
+            TABLE_PM + "." + AwfulMessage.DATE + ", " +
+            TABLE_PM + "." + AwfulMessage.TITLE +
+            " FROM " + TABLE_PM_SEARCH +
+            " JOIN " + TABLE_PM + " ON " + TABLE_PM + "." + AwfulMessage.ID + "=" + TABLE_PM_SEARCH + ".rowid" +
+            " WHERE " + TABLE_PM_SEARCH + " MATCH ?";
+
+    /** where backfilled posts get their usernames from, see User#POST_COLUMNS */
+    private static final String POSTS_WITH_USERS = TABLE_POSTS +
+            " LEFT OUTER JOIN " + TABLE_USERS + " ON " + TABLE_USERS + "." + AwfulPost.ID + "=" + TABLE_POSTS + "." + AwfulPost.USER_ID;
+    private static final String POST_USERNAME = DatabaseHelper.postAuthorColumn(AwfulPost.USERNAME);
+    private static final String USERNAME_QUERY = "SELECT " + AwfulPost.USERNAME + " FROM " + TABLE_USERS + " WHERE " + AwfulPost.ID + "=?";
+
+    private static final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "search-indexer"));
+
+
+    private SearchIndex() {
+    }
+
+
+    /**
+     * Index some rows that have just been written. Only posts and PMs that include their content
+     * are indexed - anything else is ignored, so it's fine to pass every row from a write.
+     * <p>
+     * This returns immediately, the rows are indexed on a background thread.
+     *
+     * @param table the table the rows were written to
+     */
+    static void index(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull Collection<ContentValues> rows) {
+        if (!TABLE_POSTS.equals(table) && !TABLE_PM.equals(table)) {
+            return;
+        }
+        final List<ContentValues> indexable = new ArrayList<>();
+        for (ContentValues row : rows) {
+            if (row.containsKey(AwfulPost.CONTENT) && row.getAsLong(AwfulPost.ID) != null) {
+                indexable.add(row);
+            }
+        }
+        if (!indexable.isEmpty()) {
+            indexer.execute(() -> write(db, table, indexable));
+        }
+    }
+
+
+    /**
+     * Bring the index up to date in the background, indexing any cached posts and PMs it's
+     * missing and removing entries for ones that have been deleted.
+     */
+    public static void catchUp(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+        indexer.execute(() -> {
+            SQLiteDatabase db = CacheManager.getDatabase(appContext);
+            if (db == null) {
+                return;
+            }
+            try {
+                int removed = db.delete(TABLE_POST_SEARCH, "rowid NOT IN (SELECT " + AwfulPost.ID + " FROM " + TABLE_POSTS + ")", null);
+                removed += db.delete(TABLE_PM_SEARCH, "rowid NOT IN (SELECT " + AwfulMessage.ID + " FROM " + TABLE_PM + ")", null);
+                int added = backfill(db, TABLE_POSTS, POSTS_WITH_USERS, TABLE_POST_SEARCH, POST_USERNAME, AwfulPost.USERNAME, null);
+                added += backfill(db, TABLE_PM, TABLE_PM, TABLE_PM_SEARCH, AwfulMessage.AUTHOR, AwfulMessage.AUTHOR, AwfulMessage.TITLE);
+                Timber.i("Search index caught up, %d entries added, %d removed", added, removed);
+            } catch (SQLException e) {
+                Timber.w(e, "Couldn't bring the search index up to date");
+            }
+        });
+    }
+
+
+    /**
+     * Index the rows in a table that aren't in its search table yet, a batch at a time.
+     *
+     * @param from           the table, or a join with the table that provides the other columns
+     * @param usernameSource the SQL for the username, selected from {@code from}
+     * @param usernameColumn the column the username is written under, see {@link #writeBatch}
+     * @return the number of rows indexed
+     */
+    private static int backfill(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull String from, @NonNull String searchTable,
+                                @NonNull String usernameSource, @NonNull String usernameColumn, @Nullable String titleColumn) {
+        String id = table + "." + AwfulPost.ID;
+        String query = "SELECT " + id + ", " + usernameSource + ", " + (titleColumn == null ? "NULL" : titleColumn) + ", " +
+                AwfulPost.CONTENT + " FROM " + from + " WHERE " + id + " IS NOT NULL AND " + AwfulPost.CONTENT + " IS NOT NULL" +
+                " AND " + id + " NOT IN (SELECT rowid FROM " + searchTable + ") LIMIT " + BATCH_SIZE;
+        int indexed = 0;
+        List<ContentValues> batch = new ArrayList<>(BATCH_SIZE);
+        do {
+            batch.clear();
+            try (Cursor cursor = db.rawQuery(query, null)) {
+                while (cursor.moveToNext()) {
+                    ContentValues row = new ContentValues();
+                    row.put(AwfulPost.ID, cursor.getLong(0));
+                    row.put(usernameColumn, cursor.getString(1));
+                    if (titleColumn != null) {
+                        row.put(titleColumn, cursor.getString(2));
+                    }
+                    row.put(AwfulPost.CONTENT, ContentCompression.getString(cursor, 3));
+                    batch.add(row);
+                }
+            }
+            writeBatch(db, table, batch);
+            indexed += batch.size();
+        } while (batch.size() == BATCH_SIZE);
+        return indexed;
+    }
+
+
+    private static void write(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull List<ContentValues> rows) {
+        try {
+            for (int start = 0; start < rows.size(); start += BATCH_SIZE) {
+                writeBatch(db, table, rows.subList(start, Math.min(start + BATCH_SIZE, rows.size())));
+            }
+        } catch (SQLException e) {
+            // whatever's missing will get picked up by #catchUp
+            Timber.w(e, "Failed to index %d rows from %s", rows.size(), table);
+        }
+    }
+
+
+    /**
+     * Replace the index entries for a batch of rows, in one transaction.
+     */
+    private static void writeBatch(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull List<ContentValues> rows) {
+        boolean isPosts = TABLE_POSTS.equals(table);
+        String searchTable = isPosts ? TABLE_POST_SEARCH : TABLE_PM_SEARCH;
+        String insertSql = isPosts
+                ? "INSERT INTO " + searchTable + " (rowid, " + USERNAME + ", " + BODY + ") VALUES (?,?,?)"
+                : "INSERT INTO " + searchTable + " (rowid, " + USERNAME + ", " + TITLE + ", " + BODY + ") VALUES (?,?,?,?)";
+
+        db.beginTransactionNonExclusive();
+        try (SQLiteStatement delete = db.compileStatement("DELETE FROM " + searchTable + " WHERE rowid=?");
+             SQLiteStatement insert = db.compileStatement(insertSql);
+             SQLiteStatement username = isPosts ? db.compileStatement(USERNAME_QUERY) : null) {
+            for (ContentValues row : rows) {
+                long id = row.getAsLong(AwfulPost.ID);
+                delete.bindLong(1, id);
+                delete.executeUpdateDelete();
+
+                int column = 1;
+                insert.clearBindings();
+                insert.bindLong(column++, id);
+                if (isPosts) {
+                    // only one of each user's posts in a write carries their details
+                    String name = row.containsKey(AwfulPost.USERNAME) ? row.getAsString(AwfulPost.USERNAME) : lookUpUsername(username, row);
+                    DatabaseUtils.bindObjectToProgram(insert, column++, name);
+                } else {
+                    DatabaseUtils.bindObjectToProgram(insert, column++, row.get(AwfulMessage.AUTHOR));
+                }
+                if (!isPosts) {
+                    DatabaseUtils.bindObjectToProgram(insert, column++, row.get(AwfulMessage.TITLE));
+                }
+                insert.bindString(column, plainText(row.get(AwfulPost.CONTENT)));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+
+    @Nullable
+    private static String lookUpUsername(@NonNull SQLiteStatement query, @NonNull ContentValues post) {
+        Long userId = post.getAsLong(AwfulPost.USER_ID);
+        if (userId == null) {
+            return null;
+        }
+        query.bindLong(1, userId);
+        try {
+            return query.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Get the text of a post or PM body, without its markup or any quoted posts.
+     *
+     * @param content the stored content, which might be compressed
+     */
+    @NonNull
+    static String plainText(@Nullable Object content) {
+        String html = content instanceof byte[] ? ContentCompression.decompress((byte[]) content) : (String) content;
+        if (html == null || html.isEmpty()) {
+            return "";
+        }
+        Element body = Jsoup.parseBodyFragment(html).body();
+        // quotes are in the same kind of block as code, but code's worth searching
+        body.select("div.bbc-block:not(.code)").remove();
+        return body.text();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Searching
+    ///////////////////////////////////////////////////////////////////////////
+
+
+    /**
+     * Search the cached posts and PMs, best matches first. This reads the database, so don't
+     * call it on the main thread.
+     * <p>
+     * The query can contain words, "quoted phrases", words ending in * to match anything that
+     * starts with them, and username:"..." filters. The site's other search filters are ignored.
+     *
+     * @param forumIds only return posts from these forums, or any forum if this is empty
+     * @param perPage  the number of posts per page, used to link each post's page
+     */
+    @NonNull
+    public static List<AwfulSearch> search(@NonNull Context context, @NonNull String query, @NonNull Set<Integer> forumIds, int perPage) {
+        String match = toMatchQuery(query);
+        SQLiteDatabase db = CacheManager.getDatabase(context.getApplicationContext());
+        if (match == null || db == null) {
+            return Collections.emptyList();
+        }
+        long start = System.currentTimeMillis();
+
+        // rank every match first - snippets are slow to make, so they're only made for the results we keep
+        List<Match> matches = new ArrayList<>();
+        String postQuery = POST_MATCH_QUERY + forumFilter(forumIds);
+        try (Cursor cursor = db.rawQuery(postQuery, new String[]{match})) {
+            while (cursor.moveToNext()) {
+                matches.add(new Match(true, cursor.getLong(0), rank(matchInfo(cursor.getBlob(1)), POST_WEIGHTS)));
+            }
+        }
+        try (Cursor cursor = db.rawQuery(PM_MATCH_QUERY, new String[]{match})) {
+            while (cursor.moveToNext()) {
+                matches.add(new Match(false, cursor.getLong(0), rank(matchInfo(cursor.getBlob(1)), PM_WEIGHTS)));
+            }
+        }
+        Collections.sort(matches, (a, b) -> Double.compare(b.score, a.score));
+        List<Match> best = matches.subList(0, Math.min(matches.size(), MAX_RESULTS));
+
+        List<Long> postIds = new ArrayList<>();
+        List<Long> pmIds = new ArrayList<>();
+        for (Match result : best) {
+            (result.isPost ? postIds : pmIds).add(result.id);
+        }
+        Map<Long, AwfulSearch> posts = new HashMap<>();
+        if (!postIds.isEmpty()) {
+            try (Cursor cursor = db.rawQuery(POST_SEARCH_QUERY + rowsIn(TABLE_POST_SEARCH, postIds), new String[]{match})) {
+                while (cursor.moveToNext()) {
+                    int threadId = cursor.getInt(4);
+                    int page = AwfulPagedItem.indexToPage(cursor.getInt(5), perPage);
+                    String threadTitle = cursor.getString(6);
+
+                    AwfulSearch search = new AwfulSearch();
+                    search.setBlurb(highlight(cursor.getString(1)));
+                    search.setUsername(cursor.getString(2));
+                    search.setPostDate(cursor.getString(3));
+                    search.setThreadTitle(threadTitle != null ? threadTitle : "Thread " + threadId);
+                    search.setForumId(cursor.getInt(7));
+                    search.setForumTitle(cursor.isNull(8) ? "" : cursor.getString(8));
+                    search.setThreadLink(String.format(Locale.US, "/%s?%s=%d&%s=%d&%s=%d#post%d", Constants.PATH_THREAD,
+                            Constants.PARAM_THREAD_ID, threadId, Constants.PARAM_PAGE, page, Constants.PARAM_PER_PAGE, perPage, cursor.getLong(0)));
+                    posts.put(cursor.getLong(0), search);
+                }
+            }
+        }
+
+        Map<Long, AwfulSearch> pms = new HashMap<>();
+        if (!pmIds.isEmpty()) {
+            String pmLabel = context.getString(R.string.private_message);
+            try (Cursor cursor = db.rawQuery(PM_SEARCH_QUERY + rowsIn(TABLE_PM_SEARCH, pmIds), new String[]{match})) {
+                while (cursor.moveToNext()) {
+                    AwfulSearch search = new AwfulSearch();
+                    search.setBlurb(highlight(cursor.getString(1)));
+                    search.setUsername(cursor.getString(2));
+                    search.setPostDate(cursor.getString(3));
+                    search.setThreadTitle(cursor.getString(4));
+                    search.setForumTitle(pmLabel);
+                    search.setThreadLink(String.format(Locale.US, "%s?%s=%s&%s=%d", Constants.FUNCTION_PRIVATE_MESSAGE,
+                            Constants.PARAM_ACTION, "show", Constants.PARAM_PRIVATE_MESSAGE_ID, cursor.getLong(0)));
+                    pms.put(cursor.getLong(0), search);
+                }
+            }
+        }
+
+        List<AwfulSearch> ranked = new ArrayList<>(best.size());
+        for (Match result : best) {
+            AwfulSearch search = (result.isPost ? posts : pms).get(result.id);
+            // it might have been deleted in between
+            if (search != null) {
+                search.setResultNumber(Integer.toString(ranked.size() + 1));
+                ranked.add(search);
+            }
+        }
+        Timber.d("Cached search for %s: %d matches in %d ms", match, matches.size(), System.currentTimeMillis() - start);
+        return ranked;
+    }
+
+
+    /**
+     * A condition to add to {@link #POST_MATCH_QUERY} that limits it to some forums.
+     *
+     * @param forumIds the forums to search, or empty to search them all
+     */
+    @NonNull
+    static String forumFilter(@NonNull Collection<Integer> forumIds) {
+        return forumIds.isEmpty() ? "" : " AND " + TABLE_THREADS + "." + AwfulThread.FORUM_ID + " IN (" + joinIds(forumIds) + ")";
+    }
+
+
+    /**
+     * A condition to add to {@link #POST_SEARCH_QUERY} or {@link #PM_SEARCH_QUERY} that limits it to
+     * some rows of its search table.
+     */
+    @NonNull
+    static String rowsIn(@NonNull String searchTable, @NonNull Collection<Long> ids) {
+        return " AND " + searchTable + ".rowid IN (" + joinIds(ids) + ")";
+    }
+
+
+    @NonNull
+    private static String joinIds(@NonNull Collection<? extends Number> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (Number id : ids) {
+            joined.append(joined.length() == 0 ? "" : ",").append(id.longValue());
+        }
+        return joined.toString();
+    }
+
+
+    /**
+     * Turn a search the user typed into an FTS query, quoting every term so nothing they type can
+     * break the query syntax.
+     *
+     * @return the query, or null if there's nothing in it to search for
+     */
+    @Nullable
+    static String toMatchQuery(@NonNull String query) {
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = QUERY_TERM.matcher(query);
+        while (matcher.find()) {
+            String filter = matcher.group(1);
+            if (filter != null) {
+                if (USERNAME.equalsIgnoreCase(filter)) {
+                    // column filters can't take a quoted phrase, so filter on each word of the name instead
+                    String name = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+                    for (String word : NOT_SEARCHABLE.split(name)) {
+                        if (!word.isEmpty()) {
+                            terms.add(USERNAME + ":" + word);
+                        }
+                    }
+                }
+                continue;
+            }
+            String term = (matcher.group(4) != null ? matcher.group(4) : matcher.group(5)).replace("\"", "");
+            if (!SEARCHABLE.matcher(term).find()) {
+                continue;
+            }
+            // a trailing * is a prefix search, anything else is punctuation the tokenizer will ignore anyway
+            boolean prefix = term.endsWith("*");
+            terms.add("\"" + term.replace("*", "").trim() + (prefix ? "*\"" : "\""));
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            match.append(match.length() == 0 ? "" : " ").append(term);
+        }
+        return match.toString();
+    }
+
+
+    /**
+     * Read the blob returned by matchinfo() - it's an array of 32-bit ints in the device's byte order.
+     */
+    @NonNull
+    static int[] matchInfo(@NonNull byte[] blob) {
+        int[] info = new int[blob.length / 4];
+        ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder()).asIntBuffer().get(info);
+        return info;
+    }
+
+
+    /**
+     * Score a match with BM25, using the match info from matchinfo(table, 'pcnalx').
+     *
+     * @param weights how much a match in each column counts, a column without one counts as 1
+     * @return the score, higher is better
+     */
+    static double rank(@NonNull int[] info, @NonNull double[] weights) {
+        int phrases = info[0];
+        int columns = info[1];
+        double rows = info[2];
+        int averageLengths = 3;
+        int lengths = averageLengths + columns;
+        int hits = lengths + columns;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int hitInfo = hits + 3 * (phrase * columns + column);
+                double hitCount = info[hitInfo];
+                double weight = column < weights.length ? weights[column] : 1;
+                if (hitCount == 0 || weight == 0) {
+                    continue;
+                }
+                double rowsWithHits = info[hitInfo + 2];
+                // the +1 keeps very common terms from scoring below zero
+                double idf = Math.log((rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5) + 1);
+                double lengthRatio = info[lengths + column] / Math.max(info[averageLengths + column], 1.0);
+                score += weight * idf * (hitCount * (K1 + 1)) / (hitCount + K1 * (1 - B + B * lengthRatio));
+            }
+        }
+        return score;
+    }
+
+
+    /**
+     * Escape a snippet for display as HTML, and make its matching words bold.
+     */
+    @NonNull
+    static String highlight(@Nullable String snippet) {
+        if (snippet == null) {
+            return "";
+        }
+        return snippet.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace(MATCH_START, "<b>").replace(MATCH_END, "</b>");
+    }
+
+
+    private static class Match {
+        /** whether this is a post, or a PM */
+        final boolean isPost;
+        final long id;
+        final double score;
+
+        Match(boolean isPost, long id, double score) {
+            this.isPost = isPost;
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
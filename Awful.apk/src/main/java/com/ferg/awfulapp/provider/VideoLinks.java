@@ -0,0 +1,66 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.sql.Timestamp;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_VIDEO_LINKS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP;
+
+/**
+ * The links we've looked up for embedded videos, keyed by the video's ID, so they don't have to be
+ * looked up again every time a post with one is displayed.
+ * <p>
+ * These are cleared out along with old listings (see {@link CacheManager}), and looked up again if
+ * they're needed after that.
+ */
+public class VideoLinks {
+
+    // columns in the video links table
+    static final String VIDEO_ID = "_id";
+    static final String URL = "url";
+
+
+    private VideoLinks() {
+    }
+
+
+    /**
+     * Get the stored link for a video, if we have one.
+     */
+    @Nullable
+    @WorkerThread
+    public static String find(@NonNull Context context, @NonNull String videoId) {
+        SQLiteDatabase db = CacheManager.getDatabase(context);
+        if (db == null) {
+            return null;
+        }
+        try (Cursor cursor = db.query(TABLE_VIDEO_LINKS, new String[]{URL}, VIDEO_ID + "=?", new String[]{videoId},
+                null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+
+    /**
+     * Store the link for a video, replacing any it had before.
+     */
+    @WorkerThread
+    public static void save(@NonNull Context context, @NonNull String videoId, @NonNull String url) {
+        SQLiteDatabase db = CacheManager.getDatabase(context);
+        if (db == null) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(VIDEO_ID, videoId);
+        values.put(URL, url);
+        values.put(UPDATED_TIMESTAMP, new Timestamp(System.currentTimeMillis()).toString());
+        db.insertWithOnConflict(TABLE_VIDEO_LINKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -32,6 +32,7 @@
 package com.ferg.awfulapp.search
 
 import android.app.ProgressDialog
+import android.net.Uri
 import android.os.Bundle
 import android.text.Html
 import android.view.LayoutInflater
@@ -56,6 +57,7 @@ import com.ferg.awfulapp.constants.Constants
 import com.ferg.awfulapp.network.NetworkUtils
 import com.ferg.awfulapp.preferences.AwfulPreferences
 import com.ferg.awfulapp.provider.ColorProvider
+import com.ferg.awfulapp.provider.SearchIndex
 import com.ferg.awfulapp.task.AwfulRequest
 import com.ferg.awfulapp.task.SearchRequest
 import com.ferg.awfulapp.task.SearchResultPageRequest
@@ -67,6 +69,7 @@ import com.google.android.material.snackbar.Snackbar
 import com.orangegangsters.github.swipyrefreshlayout.library.SwipyRefreshLayoutDirection
 import org.apache.commons.lang3.ArrayUtils
 import timber.log.Timber
+import kotlin.concurrent.thread
 
 class SearchFragment : AwfulFragment(), com.orangegangsters.github.swipyrefreshlayout.library.SwipyRefreshLayout.OnRefreshListener {
 
@@ -78,6 +81,9 @@ class SearchFragment : AwfulFragment(), com.orangegangsters.github.swipyrefreshl
 
     var searchForums = HashSet<Int>()
 
+    /** whether to search the posts and PMs cached on the device, instead of the site */
+    private var searchCached = false
+
     private var mDialog: ProgressDialog? = null
     private val mSearchResultList: RecyclerView by lazy {
         (requireView().findViewById(R.id.search_results) as RecyclerView)
@@ -178,6 +184,31 @@ class SearchFragment : AwfulFragment(), com.orangegangsters.github.swipyrefreshl
                 }))
     }
 
+    /**
+     * Search the posts and PMs cached on the device. This works offline, but only finds what's
+     * been loaded before - see [SearchIndex].
+     */
+    private fun searchCache() {
+        val appContext = requireContext().applicationContext
+        val query = mSearchQuery.text.toString()
+        val forums = HashSet(searchForums)
+        val perPage = prefs.postPerPage
+        thread(name = "cached-search") {
+            val results = SearchIndex.search(appContext, query, forums, perPage)
+            activity?.runOnUiThread {
+                val root = view ?: return@runOnUiThread
+                mSearchResults = results.toMutableList()
+                // there's no more pages of results to fetch
+                mQueryId = 0
+                mSRL.isEnabled = false
+                mSearchResultList.adapter?.notifyDataSetChanged()
+                if (results.isEmpty()) {
+                    Snackbar.make(root, R.string.search_cached_no_results, Snackbar.LENGTH_LONG).show()
+                }
+            }
+        }
+    }
+
     override fun onCreateOptionsMenu(menu: Menu, inflater: MenuInflater) {
         inflater!!.inflate(R.menu.search, menu)
         val fm = FontManager.getInstance()
@@ -196,7 +227,11 @@ class SearchFragment : AwfulFragment(), com.orangegangsters.github.swipyrefreshl
         }
 
         when (item.itemId) {
-            R.id.search_submit -> search()
+            R.id.search_submit -> if (searchCached) searchCache() else search()
+            R.id.search_cached -> {
+                searchCached = !searchCached
+                item.isChecked = searchCached
+            }
             R.id.select_forums ->
                 SearchForumsFragment(this)
                         .apply { setStyle(DialogFragment.STYLE_NO_TITLE, 0) }
@@ -208,6 +243,7 @@ class SearchFragment : AwfulFragment(), com.orangegangsters.github.swipyrefreshl
 
     override fun onPrepareOptionsMenu(menu: Menu) {
         super.onPrepareOptionsMenu(menu)
+        menu.findItem(R.id.search_cached)?.isChecked = searchCached
 
         val fm = FontManager.getInstance()
         for (i in 0 until menu.size()) {
@@ -284,7 +320,12 @@ class SearchFragment : AwfulFragment(), com.orangegangsters.github.swipyrefreshl
                 val threadLink = result.threadLink
                 val forumId = result.forumId
                 self.setOnClickListener {
-                    AwfulURL.parse(Constants.BASE_URL + threadLink).let(NavigationEvent::Url).let(::navigate)
+                    // cached PM results link straight to the message, everything else is a thread
+                    if (threadLink.startsWith(Constants.FUNCTION_PRIVATE_MESSAGE)) {
+                        navigate(NavigationEvent.ShowPrivateMessages(Uri.parse(threadLink)))
+                    } else {
+                        AwfulURL.parse(Constants.BASE_URL + threadLink).let(NavigationEvent::Url).let(::navigate)
+                    }
                 }
                 awfulActivity?.setPreferredFont(holder.itemView)
             }
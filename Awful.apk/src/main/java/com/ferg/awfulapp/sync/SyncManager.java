@@ -16,9 +16,10 @@ import com.ferg.awfulapp.messages.PmManager;
 import com.ferg.awfulapp.network.NetworkUtils;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.preferences.Keys;
+import com.ferg.awfulapp.provider.CacheManager;
+import com.ferg.awfulapp.provider.SearchIndex;
 import com.ferg.awfulapp.task.FeatureRequest;
 import com.ferg.awfulapp.task.RefreshUserProfileRequest;
-import com.ferg.awfulapp.util.AwfulUtils;
 
 import java.util.concurrent.TimeUnit;
 
@@ -75,7 +76,8 @@ public class SyncManager {
 
 
     private static void trimDatabase(@NonNull Context context) {
-        AwfulUtils.trimDbEntries(context.getContentResolver());
+        CacheManager.trimCache(context);
+        SearchIndex.catchUp(context);
     }
 
 
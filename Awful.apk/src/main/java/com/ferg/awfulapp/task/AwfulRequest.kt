@@ -7,16 +7,23 @@ import android.os.Handler
 import android.os.Looper
 import android.widget.Toast
 import androidx.annotation.UiThread
+import androidx.annotation.WorkerThread
 import com.android.volley.*
-import com.android.volley.toolbox.HttpHeaderParser
 import com.ferg.awfulapp.AwfulApplication
 import com.ferg.awfulapp.CaptchaActivity
 import com.ferg.awfulapp.R
 import com.ferg.awfulapp.constants.Constants.BASE_URL
+import com.ferg.awfulapp.constants.Constants.DEBUG
 import com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING
 import com.ferg.awfulapp.network.CookieController
 import com.ferg.awfulapp.network.NetworkUtils
+import com.ferg.awfulapp.network.RequestCoalescer
+import com.ferg.awfulapp.network.StreamingHttpStack
 import com.ferg.awfulapp.preferences.AwfulPreferences
+import com.ferg.awfulapp.provider.NotificationBatch
+import com.ferg.awfulapp.provider.PageValidators
+import com.ferg.awfulapp.thread.ParsePriority
+import com.ferg.awfulapp.thread.ParseScheduler
 import com.ferg.awfulapp.task.AwfulRequest.Parameters.GetParams
 import com.ferg.awfulapp.task.AwfulRequest.Parameters.PostParams
 import com.ferg.awfulapp.util.AwfulError
@@ -32,6 +39,9 @@ import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.IOException
+import java.io.InputStream
+import java.io.UncheckedIOException
+import java.util.concurrent.CancellationException
 
 /**
  * Base class for requests to the Something Awful forums site, with HTML response and error handling.
@@ -52,6 +62,12 @@ import java.io.IOException
  * won't want to change [handleCriticalError] in most cases, and if you do add any handler code (e.g. if
  * a network failure requires the app to update some state) you'll probably just want to call the
  * super method to get the standard error handling when you're done.
+ *
+ * Requests that store their response in the database can set a [cachedPage], so they're made
+ * conditionally next time and skipped if the page hasn't changed. Responses aren't kept in Volley's
+ * cache - the site rarely sends headers it can use, and we already store what we parse from them.
+ * A GET that's queued while an identical one is in flight gets that one's result instead of being
+ * made again (see [RequestCoalescer]).
  */
 abstract class AwfulRequest<T>(protected val context: Context, private val baseUrl: String, private val isPostRequest: Boolean = false) {
     private val handler: Handler = Handler(Looper.getMainLooper())
@@ -104,6 +120,33 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
 
     open val requestTag: Any get() = REQUEST_TAG
 
+    /**
+     * How urgently this request's response needs parsing, compared to other requests' - see [ParsePriority].
+     */
+    protected open val parsePriority: ParsePriority get() = ParsePriority.BACKGROUND
+
+    /**
+     * Where this request goes in the network queue, compared to other requests'.
+     */
+    protected open val requestPriority: Request.Priority get() = Request.Priority.NORMAL
+
+    /**
+     * Whether the response is parsed while it's downloading, instead of after it's been read into
+     * memory - see [AwfulStreamingRequest].
+     */
+    internal open val streamsResponse: Boolean get() = false
+
+    /**
+     * The stored data this request's response is written as, e.g. one page of a thread, or null if
+     * it doesn't have any.
+     *
+     * Requests with a cached page remember the validators for each response they handle (see
+     * [PageValidators]) and make the next request for the same page conditionally. If the site says
+     * the page hasn't changed, or it hashes the same as last time, nothing is parsed or written, and
+     * [handleUnchangedResponse] provides the result instead.
+     */
+    protected open val cachedPage: CachedPage? get() = null
+
     protected val preferences: AwfulPreferences get() = AwfulPreferences.getInstance(context)
     protected val contentResolver: ContentResolver get() = context.contentResolver
 
@@ -184,6 +227,32 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
     protected open fun customizeProgressListenerError(error: VolleyError): VolleyError = error
     // TODO: check if any request classes should be using this, for better error feedback
 
+    /**
+     * Called once parsing a response has ended, whether it succeeded or failed.
+     *
+     * Override this to release anything that was set up while handling the response, e.g. work
+     * started from [AwfulStrippedRequest.onStreamedElement] that needs closing off if the response
+     * never made it to the handler. This is called from a finally block, so it shouldn't throw -
+     * anything it throws would replace the result of the parse.
+     */
+    protected open fun onParseEnded() {}
+
+    /**
+     * Whether the data for this request's [cachedPage] is still stored and worth validating.
+     *
+     * Return false to fetch and parse the page unconditionally, e.g. if it's been evicted, or it's
+     * likely to have changed - checking a response's hash means waiting until all of it has arrived.
+     */
+    @WorkerThread
+    protected open fun hasCachedPage(): Boolean = true
+
+    /**
+     * Produce the result for a response that hasn't changed since this request's [cachedPage] was
+     * stored, instead of parsing it again.
+     */
+    protected open fun handleUnchangedResponse(): T =
+        throw IllegalStateException("${javaClass.simpleName} has a cached page but can't handle it being unchanged")
+
 
     /**
      * Pass a progress [percent]age to any progress listener attached to this request.
@@ -195,14 +264,22 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
 
 
     /**
-     * Parse a HTML [Document] from this request's [response].
+     * Parse a HTML [Document] from this request's buffered [response].
+     */
+    @Throws(IOException::class)
+    private fun parseAsHtml(response: NetworkResponse): Document = parseAsHtml(ByteArrayInputStream(response.data))
+
+
+    /**
+     * Parse a HTML [Document] from this request's response [input]. For an [AwfulStreamingRequest]
+     * this is the connection itself, so the page is parsed while it's still arriving.
      *
      * Don't override this, it's an internal function that's handled differently by [AwfulStrippedRequest]
      */
     @Throws(IOException::class)
-    protected open fun parseAsHtml(response: NetworkResponse): Document {
+    protected open fun parseAsHtml(input: InputStream): Document {
         val jsoupParseStart = System.currentTimeMillis()
-        val doc = Jsoup.parse(ByteArrayInputStream(response.data), SITE_HTML_ENCODING, BASE_URL)
+        val doc = Jsoup.parse(input, SITE_HTML_ENCODING, BASE_URL)
         Timber.d("Jsoup parsing finished (took ${System.currentTimeMillis() - jsoupParseStart}ms)")
         return doc
     }
@@ -224,6 +301,12 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
      * Since GET requests (apparently?) require their full parameterised URL to be passed into
      * the constructor here, we can't just make AwfulRequest a subclass of this, since its subclasses
      * add their GET parameters in the init blocks
+     *
+     * If the request [streamsResponse], the response is parsed in [readResponse] while it downloads,
+     * and the result is held until Volley calls [parseNetworkResponse] with the (empty) buffered response.
+     *
+     * If it has a [cachedPage], the stored validators are looked up when its headers are built, and
+     * new ones are saved once a response has been handled successfully.
      */
     private inner class ActualRequest internal constructor(
             url: String,
@@ -233,20 +316,99 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
             if (isPostRequest) Request.Method.POST else Request.Method.GET,
             url,
             errorListener
-    ) {
+    ), StreamingHttpStack.StreamingRequest, RequestCoalescer.CoalescingRequest {
+
+        /** the result of parsing a streamed response, waiting for [parseNetworkResponse] */
+        private var streamedResult: Response<T>? = null
+
+        private val page = cachedPage
+        /** identifies the request and settings a page was stored with, so we don't validate it against a different one */
+        private val pageSignature = "$url ${page?.variant}"
+        private val validatorStore = object : PageValidation.Store {
+            override fun find(key: String, signature: String) = PageValidators.find(context, key, signature)
+            override fun save(key: String, signature: String, threadId: Int, validators: PageValidators) =
+                PageValidators.save(context, key, signature, threadId, validators)
+        }
+        private val validation = page?.let { PageValidation(it, pageSignature, validatorStore) { hasCachedPage() } }
 
         init {
             Timber.i("Created request: $url")
             retryPolicy = lenientRetryPolicy
+            // responses are stored as the data we parse from them, and validated with PageValidators
+            setShouldCache(false)
         }
 
 
+        override fun getPriority(): Priority = requestPriority
+
+        override fun streamsResponse(): Boolean = this@AwfulRequest.streamsResponse
+
+        // only the same kind of request, handling the page the same way, can share a result
+        override fun getCoalescingKey(): String = "${this@AwfulRequest.javaClass.name} $pageSignature"
+
+        override fun readResponse(content: InputStream) {
+            streamedResult = when {
+                validation == null -> parseInScope { parseAsHtml(content) }
+                // we can only tell if the page has changed once all of it has arrived. Nothing has been
+                // handled yet, so if reading it fails the request can be retried like any other
+                validation.storedHash != null -> parseUnlessUnchanged(false, content.readBytes())
+                else -> {
+                    // hash the page as it goes past, so it can be checked next time
+                    val hashing = validation.hashing(content)
+                    parseInScope { parseAsHtml(hashing) }.also { result ->
+                        if (result.isSuccess) validation.finishHashing(hashing)
+                    }
+                }
+            }
+        }
+
         override fun parseNetworkResponse(response: NetworkResponse): Response<T> {
+            val result = streamedResult?.also { streamedResult = null }
+                ?: parseUnlessUnchanged(response.notModified, response.data)
+            if (validation != null && result.isSuccess) {
+                // Volley's header map ignores case
+                validation.save(response.notModified, response.headers.orEmpty())
+            }
+            return result
+        }
+
+        /**
+         * Parse a buffered response [body], unless it's for the page we already have - see [PageValidation.isUnchanged].
+         */
+        private fun parseUnlessUnchanged(notModified: Boolean, body: ByteArray): Response<T> =
+            if (validation?.isUnchanged(notModified, body) == true) unchangedResponse()
+            else parseInScope { parseAsHtml(ByteArrayInputStream(body)) }
+
+        /**
+         * The result for a response that hasn't changed since its page was stored - no parsing required.
+         */
+        private fun unchangedResponse(): Response<T> {
+            Timber.i("Page unchanged, skipping parse: $url")
+            updateProgress(100)
+            return Response.success(handleUnchangedResponse(), null)
+        }
+
+        /**
+         * Parse and handle the document read by [readDocument].
+         */
+        private fun parseInScope(readDocument: () -> Document): Response<T> =
+            // any parse tasks started while handling this response are cancelled along with the request
+            ParseScheduler.runInScope(requestTag, parsePriority) {
+                // observers hear about the response's DB writes once it's all been handled, instead of after every write
+                NotificationBatch.begin()
+                try {
+                    parseResponse(readDocument)
+                } finally {
+                    NotificationBatch.end(contentResolver)
+                }
+            }
+
+        private fun parseResponse(readDocument: () -> Document): Response<T> {
             val startTime = System.currentTimeMillis()
             Timber.i("Starting parse: $url")
             updateProgress(25)
             try {
-                val doc = parseAsHtml(response)
+                val doc = readDocument()
                 updateProgress(50)
                 // we only pass critical errors for requests to handle - anything else (i.e. probations) gets swallowed
                 AwfulError.checkPageErrors(doc, preferences)?.let { error ->
@@ -255,14 +417,33 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
 
                 val result = handleResponseDocument(doc)
                 Timber.d("Successful parse: $url\nTook ${System.currentTimeMillis() - startTime}ms")
-                return Response.success(result, HttpHeaderParser.parseCacheHeaders(response))
+                // only gather the stats in debug builds, where they'll actually get logged
+                if (DEBUG) {
+                    Timber.v("Parse scheduler: ${ParseScheduler.stats().joinToString()}")
+                    Timber.v("Connections: ${NetworkUtils.getConnectionStats().joinToString()}")
+                    Timber.v("Requests: ${NetworkUtils.getCoalescingStats()}")
+                }
+                return Response.success(result, null)
             } catch (ae: AwfulError) {
                 return Response.error(ae)
+            } catch (e: IOException) {
+                // the connection failed while a streamed response was being read
+                Timber.w(e, "Failed reading response: $url")
+                return Response.error(NetworkError(e))
+            } catch (e: UncheckedIOException) {
+                // jsoup's stream parser wraps read failures
+                Timber.w(e, "Failed reading response: $url")
+                return Response.error(NetworkError(e.cause))
+            } catch (e: CancellationException) {
+                // the request was cancelled while its parse tasks were running - nobody's waiting for a result
+                Timber.d("Cancelled parse: $url")
+                return Response.error(ParseError(e))
             } catch (e: Exception) {
                 // TODO: find out what else this is meant to be catching, because it's swallowing every exception
                 Timber.e(e, "Failed parse: $url")
                 return Response.error(ParseError(e))
             } finally {
+                onParseEnded()
                 updateProgress(100)
             }
         }
@@ -311,9 +492,18 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
         override fun getHeaders(): Map<String, String> {
             return mutableMapOf<String, String>("User-Agent" to AwfulApplication.getAwfulUserAgent())
                 .apply(CookieController::setCookieHeaders)
+                .apply(::addValidatorHeaders)
                 .also { Timber.i("getHeaders: %s", this) };
         }
 
+        /**
+         * Make this a conditional request, if we have validators for its page. This is called on
+         * the network thread, and looks them up the first time.
+         */
+        private fun addValidatorHeaders(headers: MutableMap<String, String>) {
+            validation?.addHeaders(headers)
+        }
+
         @Throws(AuthFailureError::class)
         override fun getBody(): ByteArray {
             check(parameters is PostParams)
@@ -332,6 +522,16 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
     }
 
 
+    /**
+     * The stored data a request's response is written as - see [cachedPage].
+     *
+     * @param key       identifies the stored data, e.g. "thread/1234/2" - requests that write the same data should use the same key
+     * @param variant   anything besides the URL that affects what gets stored, e.g. settings used while parsing
+     * @param threadId  the thread the data belongs to, so it's cleared out when the thread's evicted from the cache
+     */
+    class CachedPage(val key: String, val variant: String = "", val threadId: Int = 0)
+
+
     /**
      * Receives callbacks when a request succeeds or fails.
      */
@@ -377,5 +577,6 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
         val REQUEST_TAG = Any()
 
         private val lenientRetryPolicy = DefaultRetryPolicy(20000, 1, 1f)
+
     }
 }
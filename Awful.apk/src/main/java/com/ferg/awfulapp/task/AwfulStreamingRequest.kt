@@ -0,0 +1,25 @@
+package com.ferg.awfulapp.task
+
+import android.content.Context
+import com.android.volley.NetworkError
+import com.ferg.awfulapp.network.StreamingHttpStack
+
+/**
+ * An [AwfulRequest] whose response page is parsed while it's still downloading.
+ *
+ * Volley normally reads a whole response into memory before a request gets to look at it, so
+ * parsing can't start until the last byte has arrived, and the page is held in memory at least
+ * twice (as raw bytes, and again while it's being parsed). These requests are handed the connection's
+ * stream instead (see [StreamingHttpStack]), and [parseAsHtml] reads the page straight off it.
+ * Everything else works like any other [AwfulRequest] - the page is checked for errors in the same
+ * way, and the same progress and result callbacks happen.
+ *
+ * If the connection drops partway through the page, the request fails with a [NetworkError]. It
+ * isn't retried, since some of the page may have been handled already.
+ */
+abstract class AwfulStreamingRequest<T>(context: Context, baseUrl: String, isPostRequest: Boolean = false)
+    : AwfulRequest<T>(context, baseUrl, isPostRequest) {
+
+    final override val streamsResponse: Boolean
+        get() = true
+}
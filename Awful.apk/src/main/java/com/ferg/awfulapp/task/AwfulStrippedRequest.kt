@@ -1,14 +1,19 @@
 package com.ferg.awfulapp.task
 
 import android.content.Context
-import com.android.volley.NetworkResponse
 import com.ferg.awfulapp.constants.Constants.BASE_URL
 import com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING
 import com.ferg.awfulapp.util.AwfulError
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
+import org.jsoup.nodes.Element
+import org.jsoup.parser.Parser
+import org.jsoup.parser.StreamParser
+import org.jsoup.select.QueryParser
 import timber.log.Timber
 import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
 import java.nio.charset.Charset
 
 /**
@@ -17,9 +22,17 @@ import java.nio.charset.Charset
  * Wrapper class for AwfulRequests, allowing a request to receive and handle a response with the
  * page selector elements stripped out (which can speed up HTML parsing considerably)
  *
+ * These are [AwfulStreamingRequest]s - the selectors are stripped from each line of the page as it
+ * arrives, and the page is parsed while it's still downloading.
+ *
  * Ideally this is just temporary until all the outstanding requests can be moved over to using it
+ *
+ * Requests can also opt into streaming mode by setting [streamedElementQuery] - instead of building
+ * the full page and then handling it, each matching element is passed to [onStreamedElement] as
+ * soon as the parser has finished it, so the request can start processing (or throw away) parts
+ * of the page while the rest is still being parsed.
  */
-abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : AwfulRequest<T>(context, apiUrl) {
+abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : AwfulStreamingRequest<T>(context, apiUrl) {
 
     // data pulled after stripping unwanted elements from the source HTML in #parseAsHtml
     private var selectedPage: Int? = null
@@ -38,32 +51,54 @@ abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : Awful
     @Throws(AwfulError::class)
     internal abstract fun handleStrippedResponse(document: Document, currentPage: Int?, totalPages: Int?): T
 
+    /**
+     * A CSS query for elements that should be handed to [onStreamedElement] while the page is being
+     * parsed. Leave this null to parse the whole page in one go.
+     */
+    protected open val streamedElementQuery: String? = null
+
+    /**
+     * Receives each complete [element] matching [streamedElementQuery], in page order, while the
+     * rest of the page is still being parsed. Remove the element if you don't want it to stay in
+     * the document that's passed to [handleStrippedResponse].
+     */
+    protected open fun onStreamedElement(element: Element) {}
+
     @Throws(IOException::class)
-    override fun parseAsHtml(response: NetworkResponse): Document {
+    override fun parseAsHtml(input: InputStream): Document {
         // TODO: fall back to superclass implementation on error, set retry flag
         val startTime = System.currentTimeMillis()
         Timber.d("Stripping page selectors from HTML to speed up parsing")
-        // grab the data as a string, and match the select blocks
-        val html = String(response.data, SITE_CHARSET)
-
-        // try and pull out the useful data before we throw the blocks away
-        pageSelectorRegex.find(html)?.value?.let { selectBlock ->
-            // separate matchers so one can fail without breaking the other
-            selectedPage = selectedPageRegex.find(selectBlock)?.tryParseInt()
-            lastPage = lastPageRegex.find(selectBlock)?.tryParseInt()
+        // the select blocks are cut out (and the useful data pulled from them) as the parser reads the page
+        val stripped = PageSelectorStripper(input)
+        val document = streamedElementQuery?.let { parseAsStream(stripped, it) }
+            ?: Jsoup.parse(stripped, SITE_HTML_ENCODING, BASE_URL)
+        selectedPage = stripped.selectedPage
+        lastPage = stripped.lastPage
+        return document.also {
+            Timber.d("Stripped ${stripped.blockCount} page selectors, jsoup parsing finished (took ${startTime.elapsed}ms)")
         }
+    }
 
-        // now dump the select blocks and parse what's left
-        val smaller = pageSelectorRegex.replace(html, "")
-        Timber.d("Garbage stripped (took ${startTime.elapsed}ms) - starting Jsoup parse")
-        val jsoupParseStart = System.currentTimeMillis()
-        return Jsoup.parse(smaller, BASE_URL).also {
-            Timber.d("jsoup parsing finished (took ${jsoupParseStart.elapsed}ms)")
+    /**
+     * Parse a page from an [input] stream, passing any elements matching [query] to [onStreamedElement]
+     * as they're completed.
+     */
+    @Throws(IOException::class)
+    private fun parseAsStream(input: InputStream, query: String): Document {
+        Timber.d("Streaming page, handling elements matching: $query")
+        StreamParser(Parser.htmlParser()).use { streamer ->
+            streamer.parse(InputStreamReader(input, SITE_CHARSET), BASE_URL)
+            val evaluator = QueryParser.parse(query)
+            while (true) {
+                val element = streamer.selectNext(evaluator) ?: break
+                onStreamedElement(element)
+            }
+            return streamer.complete()
         }
     }
 
     private val Long.elapsed get() = System.currentTimeMillis() - this
-    private fun MatchResult.tryParseInt() = this.groupValues[1].toIntOrNull()
 
     @Throws(AwfulError::class)
     override fun handleResponseDocument(document: Document): T {
@@ -72,14 +107,5 @@ abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : Awful
 
     companion object {
         private val SITE_CHARSET = Charset.forName(SITE_HTML_ENCODING)
-
-        // TODO: can/should this be done with the outer <div class="pages"> tag instead?
-        // matches a single page select block (usually 2 on a page)
-        private val pageSelectorRegex = Regex("""<select data-url="\S*\.php.*</select>""")
-        // matches the "value" attribute of the <option> tag with a "selected" attribute
-        private val selectedPageRegex = Regex("""value="(\d*)"\s*selected""")
-        // matches the inner text of the last <option> tag
-        // (I can't safely get the contents of its "value" attr without the regex exploding over backtracking)
-        private val lastPageRegex = Regex(""">\s*(\d*)\s*</option>\s*</select>""")
     }
 }
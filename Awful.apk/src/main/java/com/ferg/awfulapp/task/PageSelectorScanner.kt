@@ -0,0 +1,221 @@
+package com.ferg.awfulapp.task
+
+import java.io.InputStream
+
+/**
+ * Finds the page selector blocks in a page's raw response [data] (up to [size]), in a single pass over the bytes.
+ *
+ * This does the same job as the old regex stripping in [AwfulStrippedRequest], without decoding
+ * the whole page into a String and then copying it again to remove the matches. The site's
+ * encoding (windows-1252) is single-byte and all the markup we look for is ASCII, so we can match
+ * directly on the bytes without worrying about splitting a character.
+ *
+ * A block is a `<select data-url="...php...">` tag up to the last `</select>` on the same line
+ * (matching the old regex). The values for the selected and last page are pulled from the first
+ * block, and [strippedStream] gives a view of the page with every block skipped.
+ *
+ * [PageSelectorStripper] uses this to strip a page a line at a time, while it's being downloaded.
+ */
+class PageSelectorScanner @JvmOverloads constructor(private val data: ByteArray, private val size: Int = data.size) {
+
+    /** The value of the selected option in the first selector block, if there was one */
+    var selectedPage: Int? = null
+        private set
+
+    /** The text of the last option in the first selector block, if there was one */
+    var lastPage: Int? = null
+        private set
+
+    // start (inclusive) and end (exclusive) offsets of each block, in order
+    private val blockStarts = ArrayList<Int>(2)
+    private val blockEnds = ArrayList<Int>(2)
+
+    /** The number of selector blocks found in the page */
+    val blockCount: Int get() = blockStarts.size
+
+    init {
+        var pos = 0
+        while (true) {
+            val start = indexOf(SELECT_START, pos, size)
+            if (start < 0) break
+            val lineEnd = lineEnd(start)
+            val end = blockEnd(start, lineEnd)
+            if (end < 0) {
+                pos = start + SELECT_START.size
+                continue
+            }
+            if (blockStarts.isEmpty()) {
+                readPageNumbers(start, end)
+            }
+            blockStarts.add(start)
+            blockEnds.add(end)
+            pos = end
+        }
+    }
+
+    /**
+     * Get a stream over the page data, with all the selector blocks left out.
+     */
+    fun strippedStream(): InputStream = StrippedStream()
+
+
+    /**
+     * Check the block starting at [start] has a .php data-url, and find where it ends (before [lineEnd]).
+     * @return the end offset (exclusive) or -1 if this isn't a valid block
+     */
+    private fun blockEnd(start: Int, lineEnd: Int): Int {
+        // the url is a run of non-whitespace, which needs to contain '.php'
+        val urlStart = start + SELECT_START.size
+        var urlEnd = urlStart
+        while (urlEnd < lineEnd && !data[urlEnd].isWhitespace()) urlEnd++
+        if (indexOf(PHP, urlStart, urlEnd) < 0) return -1
+
+        val close = lastIndexOf(SELECT_END, urlStart, lineEnd)
+        return if (close < 0) -1 else close + SELECT_END.size
+    }
+
+    /**
+     * Pull the selected and last page numbers out of the block between [start] and [end].
+     */
+    private fun readPageNumbers(start: Int, end: Int) {
+        // value="(\d*)"\s*selected
+        var pos = start
+        while (selectedPage == null) {
+            val value = indexOf(VALUE_ATTR, pos, end)
+            if (value < 0) break
+            val digitsStart = value + VALUE_ATTR.size
+            val digitsEnd = skipDigits(digitsStart, end)
+            pos = digitsStart
+            if (digitsEnd < end && data[digitsEnd] == QUOTE) {
+                val next = skipWhitespace(digitsEnd + 1, end)
+                if (startsWith(SELECTED, next, end)) selectedPage = parseInt(digitsStart, digitsEnd)
+            }
+        }
+
+        // >\s*(\d*)\s*</option>\s*</select> - i.e. the text of the last option, right before the block's end
+        val optionEnd = lastIndexOf(OPTION_END, start, end)
+        if (optionEnd >= 0 && skipWhitespace(optionEnd + OPTION_END.size, end) == end - SELECT_END.size) {
+            var digitsEnd = optionEnd
+            while (digitsEnd > start && data[digitsEnd - 1].isWhitespace()) digitsEnd--
+            var digitsStart = digitsEnd
+            while (digitsStart > start && data[digitsStart - 1].isDigit()) digitsStart--
+            var textStart = digitsStart
+            while (textStart > start && data[textStart - 1].isWhitespace()) textStart--
+            if (textStart > start && data[textStart - 1] == TAG_CLOSE) lastPage = parseInt(digitsStart, digitsEnd)
+        }
+    }
+
+
+    private fun lineEnd(from: Int): Int {
+        var pos = from
+        while (pos < size && data[pos] != LF && data[pos] != CR) pos++
+        return pos
+    }
+
+    private fun skipDigits(from: Int, limit: Int): Int {
+        var pos = from
+        while (pos < limit && data[pos].isDigit()) pos++
+        return pos
+    }
+
+    private fun skipWhitespace(from: Int, limit: Int): Int {
+        var pos = from
+        while (pos < limit && data[pos].isWhitespace()) pos++
+        return pos
+    }
+
+    private fun parseInt(from: Int, to: Int): Int? {
+        if (from == to || to - from > 9) return null
+        var result = 0
+        for (i in from until to) result = result * 10 + (data[i] - ZERO)
+        return result
+    }
+
+    private fun startsWith(pattern: ByteArray, at: Int, limit: Int): Boolean {
+        if (at + pattern.size > limit) return false
+        for (i in pattern.indices) {
+            if (data[at + i] != pattern[i]) return false
+        }
+        return true
+    }
+
+    private fun indexOf(pattern: ByteArray, from: Int, limit: Int): Int {
+        val first = pattern[0]
+        for (i in from..limit - pattern.size) {
+            if (data[i] == first && startsWith(pattern, i, limit)) return i
+        }
+        return -1
+    }
+
+    private fun lastIndexOf(pattern: ByteArray, from: Int, limit: Int): Int {
+        for (i in limit - pattern.size downTo from) {
+            if (startsWith(pattern, i, limit)) return i
+        }
+        return -1
+    }
+
+    // matches regex \s and \d
+    private fun Byte.isWhitespace() = this == SPACE || this == TAB || this == LF || this == VT || this == FF || this == CR
+    private fun Byte.isDigit() = this >= ZERO && this <= NINE
+
+
+    /**
+     * Reads straight from the page data, jumping over each selector block.
+     */
+    private inner class StrippedStream : InputStream() {
+        private var pos = 0
+        private var nextBlock = 0
+
+        /** skip any block starting at the current position */
+        private fun skipBlocks() {
+            while (nextBlock < blockStarts.size && pos >= blockStarts[nextBlock]) {
+                pos = maxOf(pos, blockEnds[nextBlock])
+                nextBlock++
+            }
+        }
+
+        /** the end of the run of bytes we can read before hitting a block */
+        private fun runEnd() = if (nextBlock < blockStarts.size) blockStarts[nextBlock] else size
+
+        override fun read(): Int {
+            skipBlocks()
+            return if (pos < size) data[pos++].toInt() and 0xFF else -1
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            skipBlocks()
+            if (pos >= size) return -1
+            val count = minOf(len, runEnd() - pos)
+            System.arraycopy(data, pos, b, off, count)
+            pos += count
+            return count
+        }
+
+        override fun available(): Int {
+            skipBlocks()
+            return runEnd() - pos
+        }
+    }
+
+
+    companion object {
+        private val SELECT_START = "<select data-url=\"".toByteArray(Charsets.US_ASCII)
+        private val SELECT_END = "</select>".toByteArray(Charsets.US_ASCII)
+        private val OPTION_END = "</option>".toByteArray(Charsets.US_ASCII)
+        private val VALUE_ATTR = "value=\"".toByteArray(Charsets.US_ASCII)
+        private val SELECTED = "selected".toByteArray(Charsets.US_ASCII)
+        private val PHP = ".php".toByteArray(Charsets.US_ASCII)
+
+        private const val SPACE: Byte = 0x20
+        private const val TAB: Byte = 0x09
+        private const val LF: Byte = 0x0A
+        private const val VT: Byte = 0x0B
+        private const val FF: Byte = 0x0C
+        private const val CR: Byte = 0x0D
+        private const val QUOTE: Byte = 0x22
+        private const val TAG_CLOSE: Byte = 0x3E
+        private const val ZERO: Byte = 0x30
+        private const val NINE: Byte = 0x39
+    }
+}
@@ -0,0 +1,119 @@
+package com.ferg.awfulapp.task
+
+import java.io.InputStream
+
+/**
+ * Strips the page selector blocks out of a page while it's being read from a [source] stream, so the
+ * page can be parsed as it downloads - [PageSelectorScanner] does the same for a page that's already
+ * been read into memory.
+ *
+ * A block never runs past the end of its line, so this reads the page a line at a time, and runs
+ * each line through a [PageSelectorScanner] before passing it on. The page numbers come from the
+ * first block, so [selectedPage] and [lastPage] are only set once the stream has got that far -
+ * read them after the page has been parsed.
+ */
+class PageSelectorStripper(private val source: InputStream) : InputStream() {
+
+    /** The value of the selected option in the first selector block, if one has been read */
+    var selectedPage: Int? = null
+        private set
+
+    /** The text of the last option in the first selector block, if one has been read */
+    var lastPage: Int? = null
+        private set
+
+    /** The number of selector blocks stripped so far */
+    var blockCount = 0
+        private set
+
+    // bytes read from the source that haven't been added to a line yet
+    private val chunk = ByteArray(8192)
+    private var chunkPos = 0
+    private var chunkEnd = 0
+
+    // the current line (including its line feed), and how much of it has been passed on
+    private var line = ByteArray(8192)
+    private var lineEnd = 0
+    private var linePos = 0
+
+    // the current line with its blocks skipped, if it had any
+    private var strippedLine: InputStream? = null
+
+    private val single = ByteArray(1)
+
+
+    override fun read(): Int = if (read(single, 0, 1) < 0) -1 else single[0].toInt() and 0xFF
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        while (true) {
+            val stripped = strippedLine
+            if (stripped != null) {
+                val count = stripped.read(b, off, len)
+                if (count > 0) return count
+                strippedLine = null
+            } else if (linePos < lineEnd) {
+                val count = minOf(len, lineEnd - linePos)
+                System.arraycopy(line, linePos, b, off, count)
+                linePos += count
+                return count
+            }
+            if (!readLine()) return -1
+        }
+    }
+
+    override fun available(): Int = strippedLine?.available() ?: (lineEnd - linePos)
+
+    override fun close() = source.close()
+
+
+    /**
+     * Read the next line from the source, and strip any blocks out of it.
+     * @return false if the source has run out
+     */
+    private fun readLine(): Boolean {
+        lineEnd = 0
+        linePos = 0
+        while (true) {
+            if (chunkPos == chunkEnd) {
+                val count = source.read(chunk)
+                if (count < 0) break
+                chunkPos = 0
+                chunkEnd = count
+            }
+            var end = chunkPos
+            while (end < chunkEnd && chunk[end] != LF) end++
+            val foundLineEnd = end < chunkEnd
+            if (foundLineEnd) end++
+            append(chunkPos, end)
+            chunkPos = end
+            if (foundLineEnd) break
+        }
+        if (lineEnd == 0) return false
+
+        val scanner = PageSelectorScanner(line, lineEnd)
+        if (scanner.blockCount > 0) {
+            if (blockCount == 0) {
+                selectedPage = scanner.selectedPage
+                lastPage = scanner.lastPage
+            }
+            blockCount += scanner.blockCount
+            strippedLine = scanner.strippedStream()
+            linePos = lineEnd
+        }
+        return true
+    }
+
+    /** Add the bytes between [from] and [to] in the current chunk to the line */
+    private fun append(from: Int, to: Int) {
+        val count = to - from
+        if (lineEnd + count > line.size) line = line.copyOf(maxOf(line.size * 2, lineEnd + count))
+        System.arraycopy(chunk, from, line, lineEnd, count)
+        lineEnd += count
+    }
+
+
+    companion object {
+        private const val LF: Byte = 0x0A
+    }
+}
@@ -0,0 +1,124 @@
+package com.ferg.awfulapp.task
+
+import android.os.Looper
+import androidx.annotation.WorkerThread
+import com.ferg.awfulapp.provider.PageValidators
+import java.io.IOException
+import java.io.InputStream
+import java.security.DigestInputStream
+import java.security.MessageDigest
+
+/**
+ * Validates the responses to a request for an [AwfulRequest.CachedPage] against the [PageValidators]
+ * stored for that page, so a page that hasn't changed doesn't get parsed and written again.
+ *
+ * The stored validators are looked up the first time they're needed, which is when the request's
+ * headers are built - Volley does that on its network thread, and so is everything else here. The
+ * lookup checks the page is still stored first, and both of those are database queries, so they
+ * refuse to run on the main thread.
+ *
+ * @param signature identifies the request and settings the page is being handled with
+ * @param isStored  whether the page's data is still stored and worth validating
+ */
+internal class PageValidation(
+    private val page: AwfulRequest.CachedPage,
+    private val signature: String,
+    private val store: Store,
+    private val isStored: () -> Boolean
+) {
+
+    /** Where pages' validators are kept between requests */
+    interface Store {
+        fun find(key: String, signature: String): PageValidators?
+        fun save(key: String, signature: String, threadId: Int, validators: PageValidators)
+    }
+
+    /** the validators stored for this page, if it's still worth validating */
+    private val stored: PageValidators? by lazy {
+        check(Looper.getMainLooper()?.isCurrentThread != true) { "Looking up page validators on the main thread: ${page.key}" }
+        if (isStored()) store.find(page.key, signature) else null
+    }
+
+    /** the hash of the response that was read, to store with its other validators */
+    private var responseHash: ByteArray? = null
+
+    /**
+     * The hash to check the response against, if the site didn't give us any validators to send
+     * with the request. If this is set, the response has to be read in full before it's handled.
+     */
+    @get:WorkerThread
+    val storedHash: ByteArray? get() = stored?.takeUnless { it.hasHeaders() }?.contentHash
+
+
+    /**
+     * Make this a conditional request, if the site gave us validators the last time this page was stored.
+     */
+    @WorkerThread
+    fun addHeaders(headers: MutableMap<String, String>) {
+        stored?.etag?.let { headers["If-None-Match"] = it }
+        stored?.lastModified?.let { headers["If-Modified-Since"] = it }
+    }
+
+
+    /**
+     * Whether a buffered response is for the same page we already have - either the site said so
+     * with a 304 ([notModified]), or the [body] hashes the same as the stored page.
+     */
+    @WorkerThread
+    fun isUnchanged(notModified: Boolean, body: ByteArray): Boolean {
+        if (notModified) return true
+        val hash = newDigest().digest(body).also { responseHash = it }
+        return storedHash?.contentEquals(hash) == true
+    }
+
+
+    /**
+     * Hash a response that's being handled as it's read, so it can be checked next time. Call
+     * [finishHashing] once it's been handled.
+     */
+    fun hashing(input: InputStream): DigestInputStream = DigestInputStream(input, newDigest())
+
+    /**
+     * Read the rest of a stream from [hashing], so the hash covers all of it.
+     */
+    fun finishHashing(hashing: DigestInputStream) {
+        responseHash = hashing.finishOrNull()
+    }
+
+
+    /**
+     * Store the validators for a response to this page that's been handled, keeping any the
+     * response didn't replace if it was a 304.
+     *
+     * @param headers the response's headers, ignoring case (like Volley's)
+     */
+    @WorkerThread
+    fun save(notModified: Boolean, headers: Map<String, String>) {
+        val previous = if (notModified) stored else null
+        val validators = PageValidators(
+            headers["ETag"] ?: previous?.etag,
+            headers["Last-Modified"] ?: previous?.lastModified,
+            responseHash ?: previous?.contentHash
+        )
+        store.save(page.key, signature, page.threadId, validators)
+    }
+
+
+    companion object {
+        private fun newDigest(): MessageDigest = MessageDigest.getInstance("SHA-1")
+
+        /**
+         * Read the rest of this stream, so the digest covers all of it, and return the digest - or
+         * null if the rest couldn't be read.
+         */
+        private fun DigestInputStream.finishOrNull(): ByteArray? = try {
+            val buffer = ByteArray(8192)
+            while (read(buffer) != -1) {
+                // just reading it through the digest
+            }
+            messageDigest.digest()
+        } catch (e: IOException) {
+            null
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.ferg.awfulapp.task
 
+import android.content.ContentUris
 import android.content.Context
 import com.ferg.awfulapp.announcements.AnnouncementsManager
 import com.ferg.awfulapp.constants.Constants.*
 import com.ferg.awfulapp.messages.PmManager
+import com.ferg.awfulapp.provider.CacheManager
+import com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS
+import com.ferg.awfulapp.task.AwfulRequest.CachedPage
+import com.ferg.awfulapp.thread.AwfulThread
 import com.ferg.awfulapp.thread.AwfulForum
 import com.ferg.awfulapp.thread.AwfulPagedItem
+import com.ferg.awfulapp.thread.ParsePriority
 import com.ferg.awfulapp.util.AwfulError
 import org.jsoup.nodes.Document
 
@@ -17,6 +23,9 @@ import org.jsoup.nodes.Document
  *
  * This request also hands the page off to other parsers, e.g. for announcements
  * and private messages, to scrape any updated information the page contains.
+ *
+ * If we still have the threads from the last time this page was loaded, the request is validated
+ * (see [AwfulRequest.cachedPage]) and nothing is parsed if the page hasn't changed.
  */
 class ThreadListRequest(context: Context, private val forumId: Int, private val page: Int)
     : AwfulStrippedRequest<Void?>(context, when {
@@ -29,6 +38,12 @@ class ThreadListRequest(context: Context, private val forumId: Int, private val
     override val requestTag: Any
         get() = REQUEST_TAG
 
+    override val parsePriority = ParsePriority.THREAD_LIST
+
+    // pages of threads are stored by their position in the forum (or the bookmarks)
+    override val cachedPage: CachedPage
+        get() = CachedPage("forum/$forumId/$page")
+
 
     init {
         with(parameters) {
@@ -44,6 +59,40 @@ class ThreadListRequest(context: Context, private val forumId: Int, private val
         return null
     }
 
+    /**
+     * A page is only worth validating if we have all of it - a row for every position from the start
+     * of the page, and either a full page of them or the listing's last page. Old listings get trimmed,
+     * except for threads with cached posts, so a page can be left with just a few of its threads.
+     */
+    override fun hasCachedPage(): Boolean {
+        val firstIndex = AwfulPagedItem.forumPageToIndex(page)
+        val range = arrayOf(firstIndex.toString(), AwfulPagedItem.forumPageToIndex(page + 1).toString())
+        val cursor = if (forumId == USERCP_ID) {
+            contentResolver.query(AwfulThread.CONTENT_URI_UCP, arrayOf(AwfulThread.INDEX),
+                "$TABLE_UCP_THREADS.${AwfulThread.INDEX}>=? AND $TABLE_UCP_THREADS.${AwfulThread.INDEX}<?", range, null)
+        } else {
+            contentResolver.query(AwfulThread.CONTENT_URI, arrayOf(AwfulThread.INDEX),
+                "${AwfulThread.FORUM_ID}=? AND ${AwfulThread.INDEX}>=? AND ${AwfulThread.INDEX}<?", arrayOf(forumId.toString(), *range), null)
+        }
+        val indexes = cursor.use { c -> c?.run { List(count) { row -> moveToPosition(row); getInt(0) } } }?.sorted() ?: return false
+        if (indexes.isEmpty() || indexes != List(indexes.size) { firstIndex + it }) {
+            return false
+        }
+        return indexes.size >= FULL_PAGE_THREADS || page >= storedPageCount()
+    }
+
+    /** the number of pages the listing had when it was last parsed, or 0 if we don't know */
+    private fun storedPageCount(): Int =
+        contentResolver.query(ContentUris.withAppendedId(AwfulForum.CONTENT_URI, forumId.toLong()),
+            arrayOf(AwfulForum.PAGE_COUNT), null, null, null)
+            .use { if (it != null && it.moveToFirst()) it.getInt(0) else 0 }
+
+    // the threads we already have are still current, so keep them from being trimmed as old
+    override fun handleUnchangedResponse(): Void? {
+        CacheManager.listingUnchanged(context, forumId, AwfulPagedItem.forumPageToIndex(page), AwfulPagedItem.forumPageToIndex(page + 1))
+        return null
+    }
+
     @Throws(AwfulError::class)
     override fun handleStrippedResponse(document: Document, currentPage: Int?, totalPages: Int?): Void? {
         val thisPage = currentPage ?: page
@@ -68,5 +117,11 @@ class ThreadListRequest(context: Context, private val forumId: Int, private val
 
     companion object {
         val REQUEST_TAG = Any()
+
+        /**
+         * How many threads the site usually shows on a page. Some forums show more (up to
+         * [THREADS_PER_PAGE]), but trimming leaves gaps rather than cutting a page short.
+         */
+        private const val FULL_PAGE_THREADS = 40
     }
 }
@@ -1,9 +1,19 @@
 package com.ferg.awfulapp.task
 
+import android.content.ContentUris
 import android.content.Context
+import com.android.volley.Request.Priority
 import com.ferg.awfulapp.constants.Constants.*
+import com.ferg.awfulapp.task.AwfulRequest.CachedPage
+import com.ferg.awfulapp.thread.AwfulPagedItem
+import com.ferg.awfulapp.thread.AwfulPost
 import com.ferg.awfulapp.thread.AwfulThread
+import com.ferg.awfulapp.thread.ParsePriority
+import com.ferg.awfulapp.thread.StreamedPostParser
+import com.ferg.awfulapp.thread.postProcessingFingerprint
 import org.jsoup.nodes.Document
+import org.jsoup.nodes.Element
+import java.util.concurrent.CancellationException
 
 /**
  * A request to fetch and parse the data on a thread page, updating the database with the results.
@@ -16,13 +26,45 @@ import org.jsoup.nodes.Document
  * with that user's posts, depending on how many there are. This is only a problem when viewing the
  * cached data (since usually the page will be reloaded and rewritten when you view it) but it's
  * something to be aware of.
+ *
+ * The page is parsed in streaming mode - each post is handed off for parsing as soon as it's been
+ * read, and dropped from the page, so we never hold a full page of post elements at once.
+ *
+ * Full pages, and pages of locked or archived threads, are validated before they're parsed (see
+ * [AwfulRequest.cachedPage]) - if the page hasn't changed since its posts were stored, nothing is
+ * parsed or written. The last page of an open thread usually has new posts, so that's always parsed
+ * while it downloads.
+ *
+ * Set [readAhead] to fetch a page the user hasn't opened yet, so it's ready when they get to it.
+ * These requests go to the back of the queue, and are tagged with [READ_AHEAD_TAG] so they can be
+ * cancelled separately. Fetching a page moves the thread's last-read post on the site to the end of
+ * it, and there's no way to ask it not to, so only read ahead to pages the user has already read.
  */
-class ThreadPageRequest(context: Context, private val threadId: Int, private val page: Int, private val userId: Int = 0)
-    : AwfulStrippedRequest<Void?>(context, FUNCTION_THREAD) {
+class ThreadPageRequest @JvmOverloads constructor(
+    context: Context,
+    private val threadId: Int,
+    private val page: Int,
+    private val userId: Int = 0,
+    private val readAhead: Boolean = false
+) : AwfulStrippedRequest<Void?>(context, FUNCTION_THREAD) {
 
 
     override val requestTag: Any
-        get() = REQUEST_TAG
+        get() = if (readAhead) READ_AHEAD_TAG else REQUEST_TAG
+
+    override val parsePriority = if (readAhead) ParsePriority.BACKGROUND else ParsePriority.THREAD_PAGE
+
+    override val requestPriority = if (readAhead) Priority.LOW else Priority.NORMAL
+
+    override val streamedElementQuery = ".post"
+
+    // posts are stored by their position in the thread, and processed according to the user's settings
+    override val cachedPage: CachedPage
+        get() = CachedPage("thread/$threadId/$page", postProcessingFingerprint(preferences).toString(), threadId)
+
+    private val streamedPosts by lazy {
+        StreamedPostParser(contentResolver, threadId, page, preferences.postPerPage, preferences)
+    }
 
     init {
         with(parameters) {
@@ -38,15 +80,48 @@ class ThreadPageRequest(context: Context, private val threadId: Int, private val
         return null
     }
 
+    override fun onStreamedElement(element: Element) = streamedPosts.add(element)
+
+    // make sure the posts' DB insert is closed off, even if the page was never handled
+    override fun onParseEnded() {
+        try {
+            streamedPosts.finish()
+        } catch (e: CancellationException) {
+            // the request was cancelled, so the posts were discarded - whatever ended the parse gets reported instead
+        }
+    }
+
+    override fun hasCachedPage(): Boolean {
+        val postsPerPage = preferences.postPerPage
+        val firstIndex = AwfulPagedItem.pageToIndex(page, postsPerPage, 0)
+        val selection = "${AwfulPost.THREAD_ID}=? AND ${AwfulPost.POST_INDEX}>=? AND ${AwfulPost.POST_INDEX}<?"
+        val args = arrayOf(threadId.toString(), firstIndex.toString(), (firstIndex + postsPerPage).toString())
+        val storedPosts = contentResolver.query(AwfulPost.CONTENT_URI, arrayOf(AwfulPost.ID), selection, args, null)
+            .use { it?.count ?: 0 }
+        return storedPosts == postsPerPage || (storedPosts > 0 && isClosed())
+    }
+
+    /** Whether this thread is locked or archived, going by what we have stored */
+    private fun isClosed(): Boolean {
+        val uri = ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong())
+        return contentResolver.query(uri, arrayOf(AwfulThread.LOCKED, AwfulThread.ARCHIVED), null, null, null).use {
+            it != null && it.moveToFirst() && (it.getInt(0) > 0 || it.getInt(1) > 0)
+        }
+    }
+
+    // the posts we already have are still current
+    override fun handleUnchangedResponse(): Void? = null
+
     public override fun handleStrippedResponse(document: Document, currentPage: Int?, totalPages: Int?): Void? {
         // TODO: this is all kinda janky, best to use the passed data from the response, right? Instead of relying on 'page' from the request
         val lastPage = totalPages ?: page
-        AwfulThread.parseThreadPage(contentResolver, document, threadId, page, lastPage, preferences.postPerPage, preferences, userId)
+        AwfulThread.parseThreadPage(contentResolver, document, threadId, page, lastPage, preferences.postPerPage, preferences, userId, streamedPosts)
         return null
     }
 
 
     companion object {
         val REQUEST_TAG = Any()
+        val READ_AHEAD_TAG = Any()
     }
 }
@@ -100,10 +100,9 @@ public class AwfulForum extends AwfulPagedItem {
 	 * @param contentInterface used for database access
 	 */
 	public static void parseThreads(int forumId, int pageNumber, int lastPageNumber, Document page, ContentResolver contentInterface) {
-		// get the threads on a (normal) forum page, index them and store
-		List<ContentValues> threads = AwfulThread.parseForumThreads(page, forumId, forumPageToIndex(pageNumber));
+		// clear out the old page, then get the threads on a (normal) forum page, index them and store them as they're parsed
 		deletePageOfThreads(forumId, pageNumber, contentInterface);
-		insertThreads(threads, contentInterface);
+		AwfulThread.syncForumThreads(page, forumId, forumPageToIndex(pageNumber), contentInterface);
 
 		// update page count for forum
 		ForumRepository.getInstance(null).setPageCount(forumId, lastPageNumber);
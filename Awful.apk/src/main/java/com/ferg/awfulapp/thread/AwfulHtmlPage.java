@@ -3,6 +3,8 @@ package com.ferg.awfulapp.thread;
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.collection.ArrayMap;
@@ -146,6 +148,18 @@ public abstract class AwfulHtmlPage {
      * @return the generated content, ready for insertion into the template
      */
     public static String getThreadHtml(List<AwfulPost> aPosts, AwfulPreferences aPrefs, int page, int lastPage) {
+        return getThreadHtml(aPosts, null, aPrefs, page, lastPage);
+    }
+
+
+    /**
+     * Generates post content HTML for a list of posts, reading their bodies from the database as it goes.
+     *
+     * @param bodies   the stream to read each post's body from, or null to use the posts' own content
+     * @see #getThreadHtml(List, AwfulPreferences, int, int)
+     * @see PostBodyStream
+     */
+    public static String getThreadHtml(List<AwfulPost> aPosts, @Nullable PostBodyStream bodies, AwfulPreferences aPrefs, int page, int lastPage) {
         StringBuilder buffer = new StringBuilder(1024);
         buffer.append("<div class='content'>\n");
 
@@ -169,7 +183,7 @@ public abstract class AwfulHtmlPage {
         }
 
         // add the actual posts
-        buffer.append(getPostsHtml(aPosts, aPrefs));
+        buffer.append(getPostsHtml(aPosts, bodies, aPrefs));
 
         if (page == lastPage) {
             buffer.append("<div class='unread' ></div>\n");
@@ -187,7 +201,7 @@ public abstract class AwfulHtmlPage {
      *
      * @return a HTML string representing all the posts
      */
-    private static String getPostsHtml(List<AwfulPost> aPosts, AwfulPreferences aPrefs) {
+    private static String getPostsHtml(List<AwfulPost> aPosts, @Nullable PostBodyStream bodies, AwfulPreferences aPrefs) {
         StringBuilder buffer = new StringBuilder();
         Template postTemplate;
 
@@ -225,7 +239,7 @@ public abstract class AwfulHtmlPage {
             postData.put("avatarText", post.getAvatarText());
             postData.put("lastReadUrl", post.getLastReadUrl());
             postData.put("editable", post.isEditable() ? "editable" : null);
-            postData.put("postcontent", post.getContent());
+            postData.put("postcontent", bodies != null ? bodies.bodyFor(post) : post.getContent());
             postData.put("hideAvatar", aPrefs.isBlockedAvatar(avatar) ? "blockedAvatar" : null);
 
             try {
@@ -260,7 +274,9 @@ public abstract class AwfulHtmlPage {
                         templateReader = new FileReader(template);
                     }
                 } else {
-                    Toast.makeText(aPrefs.getContext(), "Can't access custom layout because Awful lacks storage permissions. Reverting to default layout.", Toast.LENGTH_LONG).show();
+                    // pages can be rendered in the background, so this has to go through the main thread
+                    new Handler(Looper.getMainLooper()).post(() ->
+                            Toast.makeText(aPrefs.getContext(), "Can't access custom layout because Awful lacks storage permissions. Reverting to default layout.", Toast.LENGTH_LONG).show());
                 }
             } else {
                 File template = new File(Environment.getExternalStorageDirectory() + "/awful/" + aPrefs.layout);
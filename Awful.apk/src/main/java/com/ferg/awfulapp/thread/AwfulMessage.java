@@ -39,6 +39,7 @@ import com.ferg.awfulapp.R;
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.provider.ColorProvider;
+import com.ferg.awfulapp.provider.ContentCompression;
 import com.ferg.awfulapp.util.AwfulError;
 
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -229,7 +230,7 @@ public class AwfulMessage extends AwfulPagedItem {
 		}
 		Elements content = data.getElementsByClass("postbody");
 		if(content.size() > 0){
-			message.put(CONTENT, content.first().html());
+			ContentCompression.put(message, CONTENT, content.first().html());
 		}else{
 			throw new AwfulError("Failed parse: content.");
 		}
@@ -33,10 +33,13 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.ferg.awfulapp.constants.Constants;
-import com.ferg.awfulapp.network.NetworkUtils;
+import com.ferg.awfulapp.network.VideoMetadataCache;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
+import com.ferg.awfulapp.provider.ContentCompression;
+import com.ferg.awfulapp.provider.PipelinedInsert;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONException;
@@ -48,11 +51,13 @@ import org.jsoup.select.Elements;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,13 +73,9 @@ public class AwfulPost {
 	private static final Pattern youtubeId_regex = Pattern.compile("/v/([\\w_-]+)&?");
 	private static final Pattern youtubeHDId_regex = Pattern.compile("/embed/([\\w_-]+)&?");
     private static final Pattern tiktokId_regex = Pattern.compile("([\\d]+)$");
-    private static final Pattern imgurId_regex = Pattern.compile("^(.*\\.imgur\\.com/)([\\w]+)(\\..*)$");
 	private static final Pattern vimeoId_regex = Pattern.compile("clip_id=(\\d+)&?");
     private static final Pattern userid_regex = Pattern.compile("userid=(\\d+)");
 
-    private static final List<String> HTTPS_SUPPORTED_DOMAINS =
-            Collections.unmodifiableList(Arrays.asList("imgur.com", "somethingawful.com", "giphy.com"));
-
     public static final String ID                    = "_id";
     public static final String POST_INDEX            = "post_index";
     public static final String THREAD_ID             = "thread_id";
@@ -95,6 +96,8 @@ public class AwfulPost {
 	public static final String AVATAR_TEXT 			 = "avatar_text";
     public static final String CONTENT               = "content";
     public static final String EDITED                = "edited";
+    // a fingerprint of the unprocessed content, so unchanged posts don't need processing again on a refresh
+    public static final String CONTENT_HASH          = "content_hash";
 
 	public static final String FORM_KEY = "form_key";
 	public static final String FORM_COOKIE = "form_cookie";
@@ -118,6 +121,9 @@ public class AwfulPost {
     private String mAvatarSecond = "";
     private String mAvatarText = "";
     private String mContent = "";
+    /** the stored content, if it's compressed and hasn't been needed yet - see {@link #getContent()} */
+    @Nullable
+    private byte[] mCompressedContent = null;
     private String mEdited = "";
 
     private boolean isIgnored = false;
@@ -137,7 +143,7 @@ public class AwfulPost {
         result.put("username", mUsername);
         result.put("avatar", mAvatar);
         result.put("avatar_second", mAvatarSecond);
-        result.put("content", mContent);
+        result.put("content", getContent());
         result.put("edited", mEdited);
         result.put("isIgnored", Boolean.toString(isIgnored()));
         result.put("previouslyRead", Boolean.toString(mPreviouslyRead));
@@ -231,11 +237,24 @@ public class AwfulPost {
     public void setAvatarSecond(String aAvatarSecond) { mAvatarSecond = aAvatarSecond; }
 
     public String getContent() {
+        // compressed content is only unpacked when something actually needs it, e.g. rendering the page
+        if (mCompressedContent != null) {
+            mContent = VideoMetadataCache.resolveLinks(ContentCompression.decompress(mCompressedContent));
+            mCompressedContent = null;
+        }
         return mContent;
     }
 
     public void setContent(String aContent) {
         mContent = aContent;
+        mCompressedContent = null;
+    }
+
+    /**
+     * Set the content from its compressed form in the database, see {@link ContentCompression}.
+     */
+    public void setCompressedContent(@NonNull byte[] compressedContent) {
+        mCompressedContent = compressedContent;
     }
 
     public static ArrayList<AwfulPost> fromCursor(Context aContext, Cursor aCursor) {
@@ -268,20 +287,28 @@ public class AwfulPost {
                 current.setId(aCursor.getString(idIndex));
                 current.setThreadId(aCursor.getInt(threadIdIndex));
                 current.setDate(aCursor.getString(dateIndex));
-                current.setRegDate(aCursor.getString(regdateIndex));
+                // the author details are joined from the users table, so they can be missing if the user was never written
+                current.setRegDate(Objects.toString(aCursor.getString(regdateIndex), ""));
                 current.setUserId(aCursor.getString(userIdIndex));
-                current.setUsername(aCursor.getString(usernameIndex));
+                current.setUsername(Objects.toString(aCursor.getString(usernameIndex), ""));
                 current.setIsIgnored(aCursor.getInt(isIgnoredIndex) == 1);
                 current.setPreviouslyRead(aCursor.getInt(previouslyReadIndex) > 0);
                 current.setLastReadUrl(aCursor.getInt(postIndexIndex)+"");
                 current.setEditable(aCursor.getInt(editableIndex) == 1);
                 current.setIsOp(aCursor.getInt(isOpIndex) == 1);
                 current.setIsPlat(aCursor.getInt(isPlatIndex) > 0);
-                current.setRole(aCursor.getString(roleIndex));
+                current.setRole(Objects.toString(aCursor.getString(roleIndex), ""));
                 current.setAvatar(aCursor.getString(avatarIndex));
                 current.setAvatarSecond(aCursor.getString(avatarSecondIndex));
                 current.setAvatarText(aCursor.getString(avatarTextIndex));
-                current.setContent(aCursor.getString(contentIndex));
+                // the content isn't there if only the metadata was loaded - see PostBodyStream
+                if (contentIndex == -1) {
+                    current.setContent("");
+                } else if (ContentCompression.isCompressed(aCursor, contentIndex)) {
+                    current.setCompressedContent(aCursor.getBlob(contentIndex));
+                } else {
+                    current.setContent(VideoMetadataCache.resolveLinks(aCursor.getString(contentIndex)));
+                }
                 current.setEdited(aCursor.getString(editedIndex));
 
                 result.add(current);
@@ -391,36 +418,19 @@ public class AwfulPost {
                     }
                 }
                 if (src != null && height != 0 && width != 0) {
-                    String link = null, image = null;
                     Matcher vimeo = vimeoId_regex.matcher(src);
+                    Element ln;
                     if (vimeo.find()) {
+                        // the real link gets looked up in the background, and swapped in when the post is displayed
                         String videoId = vimeo.group(1);
-                        Element vimeoXML;
-                        try {
-                            vimeoXML = NetworkUtils.get("http://vimeo.com/api/v2/video/" + videoId + ".xml");
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            continue;
-                        }
-                        if (vimeoXML.getElementsByTag("mobile_url").first() != null) {
-                            link = vimeoXML.getElementsByTag("mobile_url").first().text();
-                        } else {
-                            link = vimeoXML.getElementsByTag("url").first().text();
-                        }
-                        image = vimeoXML.getElementsByTag("thumbnail_large").first().text();
-                        src = link;
+                        ln = VideoMetadataCache.placeholderLink(videoId);
+                        VideoMetadataCache.request(videoId);
                     } else {
-                        node.empty();
-                        Element ln = new Element(Tag.valueOf("a"), "");
+                        ln = new Element(Tag.valueOf("a"), "");
                         ln.attr("href", src);
                         ln.text(src);
-                        node.replaceWith(ln);
-                        continue;
                     }
                     node.empty();
-                    Element ln = new Element(Tag.valueOf("a"), "");
-                    ln.attr("href", link);
-                    ln.text(link);
                     node.replaceWith(ln);
                 }
 
@@ -501,31 +511,45 @@ public class AwfulPost {
      * @return the number of posts found on the page
      */
     public static int syncPosts(ContentResolver content, Document aThread, int aThreadId, int unreadIndex, int opId, AwfulPreferences prefs, int startIndex){
-        List<ContentValues> result = AwfulPost.parsePosts(aThread, aThreadId, unreadIndex, opId, prefs, startIndex);
-        int resultCount = content.bulkInsert(CONTENT_URI, result.toArray(new ContentValues[result.size()]));
+        Map<Integer, Long> storedContentHashes = ForumParsingKt.loadContentHashes(content, aThreadId, startIndex, prefs.postPerPage);
+        List<Callable<ContentValues>> parseTasks = postParseTasks(aThread, aThreadId, unreadIndex, opId, prefs, startIndex, storedContentHashes);
+
+        long startTime = System.currentTimeMillis();
+        // parse posts on the parsing threads, then write them all to the DB
+        int resultCount = ForumParsingKt.parseInto(PipelinedInsert.open(content, CONTENT_URI), parseTasks);
+        float averageParseTime = (System.currentTimeMillis() - startTime) / (float) parseTasks.size();
         Timber.i("Inserted " + resultCount + " posts into DB, threadId:" + aThreadId + " unreadIndex: " + unreadIndex);
+        Timber.i("%d posts found\nAverage parse and store time: %.3fms", parseTasks.size(), averageParseTime);
         return resultCount;
     }
 
 
     public static List<ContentValues> parsePosts(Document aThread, int aThreadId, int unreadIndex, int opId, AwfulPreferences prefs, int startIndex){
-		int index = startIndex;
+        List<Callable<ContentValues>> parseTasks = postParseTasks(aThread, aThreadId, unreadIndex, opId, prefs, startIndex, Collections.emptyMap());
+
+        long startTime = System.currentTimeMillis();
+        // parse posts using multithreading if possible - some of the Jsoup calls are slow
+        // (post content is written with PostHtmlSerializer, since #html is very slow with Windows-1252 documents)
+        List<ContentValues> result = ForumParsingKt.parse(parseTasks);
+        float averageParseTime = (System.currentTimeMillis() - startTime) / (float) parseTasks.size();
+        Timber.i("%d posts found, %d posts parsed\nAverage parse time: %.3fms", parseTasks.size(), result.size(), averageParseTime);
+        return result;
+    }
+
+
+    private static List<Callable<ContentValues>> postParseTasks(Document aThread, int aThreadId, int unreadIndex, int opId, AwfulPreferences prefs, int startIndex,
+                                                                Map<Integer, Long> storedContentHashes){
+        int index = startIndex;
         String updateTime = new Timestamp(System.currentTimeMillis()).toString();
 
         Elements posts = aThread.getElementsByClass("post");
         List<Callable<ContentValues>> parseTasks = new ArrayList<>(posts.size());
+        Set<Integer> seenUsers = ConcurrentHashMap.newKeySet();
         for(Element postData : posts){
-            parseTasks.add(new PostParseTask(postData, updateTime, index, unreadIndex, aThreadId, opId, prefs));
+            parseTasks.add(new PostParseTask(postData, updateTime, index, unreadIndex, aThreadId, opId, prefs, storedContentHashes, seenUsers));
             index++;
         }
-
-        long startTime = System.currentTimeMillis();
-        // parse posts using multithreading if possible - some of the Jsoup calls (#html in particular) are very slow
-        // (#html should be a lot faster when jsoup updates to handle Windows-1252 encoding user their fast path for Entities#canEncode)
-        List<ContentValues> result = ForumParsingKt.parse(parseTasks);
-        float averageParseTime = (System.currentTimeMillis() - startTime) / (float) parseTasks.size();
-        Timber.i("%d posts found, %d posts parsed\nAverage parse time: %.3fms", posts.size(), result.size(), averageParseTime);
-        return result;
+        return parseTasks;
     }
 
 
@@ -547,11 +571,8 @@ public class AwfulPost {
         tryConvertToHttps(img);
         boolean isTimg = img.hasClass("timg");
         String originalUrl = img.attr("src");
+        PostUrlRewriter.HostRule hostRule = PostUrlRewriter.ruleFor(originalUrl);
 
-	// Fix postimg.org images
-	if (originalUrl.contains("postimg.org")) {
-		originalUrl = originalUrl.replace(".org/",".cc/");
-	}
         // check whether images can be converted to / wrapped in a link
         boolean alreadyLinked = img.parent() != null && img.parent().tagName().equalsIgnoreCase("a");
         boolean linkOk = !img.hasClass("nolink");
@@ -600,27 +621,16 @@ public class AwfulPost {
         // default to the 'thumbnail' url just being the full image
         String thumbUrl = originalUrl;
 
-        // thumbnail any imgur images according to user prefs, if set
-        if (!prefs.imgurThumbnails.equals("d") && thumbUrl.contains("i.imgur.com")) {
-            thumbUrl = imgurAsThumbnail(thumbUrl, prefs.imgurThumbnails);
+        // thumbnail any images according to user prefs, if set and the host supports it
+        if (hostRule != null && !prefs.imgurThumbnails.equals("d")) {
+            thumbUrl = hostRule.thumbnail(thumbUrl, prefs.imgurThumbnails);
         }
 
-        // handle gifs - different cases for different sites
+        // handle gifs - use a still image from the host if there is one, otherwise a generic placeholder
         if (prefs.disableGifs && StringUtils.containsIgnoreCase(thumbUrl, ".gif")) {
-            if (StringUtils.containsIgnoreCase(thumbUrl, "imgur.com")) {
-                thumbUrl = imgurAsThumbnail(thumbUrl, "h");
-            } else if (StringUtils.containsIgnoreCase(thumbUrl, "i.kinja-img.com")) {
-                thumbUrl = thumbUrl.replace(".gif", ".jpg");
-            } else if (StringUtils.containsIgnoreCase(thumbUrl, "giphy.com")) {
-                thumbUrl = thumbUrl.replace("://i.giphy.com", "://media.giphy.com/media");
-                if (thumbUrl.endsWith("giphy.gif")) {
-                    thumbUrl = thumbUrl.replace("giphy.gif", "200_s.gif");
-                } else {
-                    thumbUrl = thumbUrl.replace(".gif", "/200_s.gif");
-                }
-            } else if (StringUtils.containsIgnoreCase(thumbUrl, "giant.gfycat.com")) {
-                thumbUrl = thumbUrl.replace("giant.gfycat.com", "thumbs.gfycat.com");
-                thumbUrl = thumbUrl.replace(".gif", "-poster.jpg");
+            String stillUrl = hostRule == null ? null : hostRule.gifStill(thumbUrl);
+            if (stillUrl != null) {
+                thumbUrl = stillUrl;
             } else {
                 thumbUrl = "file:///android_asset/images/gif.png";
                 img.attr("width", "200px");
@@ -639,31 +649,6 @@ public class AwfulPost {
     }
 
 
-    /**
-     * Rewrite a Imgur image url as a thumbnailed version, if possible (e.g. not already a thumbnail).
-     *
-     * @param imgurUrl      the image url to rewrite
-     * @param thumbnailCode the type of thumbnail, usually a single character code
-     * @return the rewritten url, or the original if it couldn't be rewritten
-     */
-    @NonNull
-    private static String imgurAsThumbnail(@NonNull String imgurUrl, @NonNull String thumbnailCode) {
-
-        Matcher match =  imgurId_regex.matcher(imgurUrl);
-        if(match.find()) {
-            String imgurBase = match.group(1);
-            String imgurImageId = match.group(2);
-            String imgurImageEnd = match.group(3);
-
-            //check if already thumbnails
-            if (imgurImageId.length() != 6 && imgurImageId.length() != 8) {
-                imgurUrl = imgurBase + imgurImageId + thumbnailCode + imgurImageEnd;
-            }
-        }
-        return imgurUrl;
-    }
-
-
     /**
      * Rewrite an image element as a thumbnail, wrapping it in a link to the original image URL.
      * <p>
@@ -687,13 +672,13 @@ public class AwfulPost {
 
 
     /**
-     * Converts URLs to https versions, where appropriate.
+     * Converts URLs to https versions, and points them at a host's new domain, where appropriate.
+     * See {@link PostUrlRewriter} for the rules.
      * <p>
      * This mutates the element directly.
      */
     public static void tryConvertToHttps(@NonNull Element element) {
         String attr;
-        String url;
 
         // get the element's url attribute, give up if it doesn't have one
         if (element.hasAttr("href")) {
@@ -704,13 +689,10 @@ public class AwfulPost {
             return;
         }
 
-        // if the element's url is for a https-able domain, rewrite it
-        for (String domain : HTTPS_SUPPORTED_DOMAINS) {
-            url = element.attr(attr);
-            if (StringUtils.containsIgnoreCase(url, domain)) {
-                element.attr(attr, url.replace("http://", "https://"));
-                return;
-            }
+        String url = element.attr(attr);
+        String rewritten = PostUrlRewriter.canonical(url);
+        if (!rewritten.equals(url)) {
+            element.attr(attr, rewritten);
         }
     }
 
@@ -53,6 +53,7 @@ import com.ferg.awfulapp.network.NetworkUtils;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.provider.ColorProvider;
 import com.ferg.awfulapp.provider.DatabaseHelper;
+import com.ferg.awfulapp.provider.PipelinedInsert;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -127,46 +128,103 @@ public class AwfulThread extends AwfulPagedItem  {
     public int category;
 
 
+    /** the column indexes for the last cursor {@link #fromCursorRow(Cursor)} read, see {@link CursorColumns#of(Cursor)} */
+    @Nullable
+    private static volatile CursorColumns lastColumns;
+
     @Nullable
     public static AwfulThread fromCursorRow(@NonNull Cursor row) {
         if (row.isBeforeFirst() || row.isAfterLast()) {
             Timber.w("fromCursor: passed empty row");
             return null;
         }
+        CursorColumns columns = CursorColumns.of(row);
         AwfulThread thread = new AwfulThread();
 
-        thread.id = row.getInt(row.getColumnIndex(ID));
-        thread.index = row.getInt(row.getColumnIndex(INDEX));
-        thread.title = row.getString(row.getColumnIndex(TITLE));
+        thread.id = row.getInt(columns.id);
+        thread.index = row.getInt(columns.index);
+        thread.title = row.getString(columns.title);
 
-        thread.forumId = row.getInt(row.getColumnIndex(FORUM_ID));
+        thread.forumId = row.getInt(columns.forumId);
         // TODO: 03/06/2017 this column name is taken from the thread projection, but is it ever used?
 //        thread.forumTitle = row.getString(row.getColumnIndex(FORUM_TITLE));
 
-        thread.author = row.getString(row.getColumnIndex(AUTHOR));
-        thread.authorId = row.getInt(row.getColumnIndex(AUTHOR_ID));
-        thread.lastPoster = row.getString(row.getColumnIndex(LASTPOSTER));
-        thread.postCount = row.getInt(row.getColumnIndex(POSTCOUNT));
-        thread.unreadCount = row.getInt(row.getColumnIndex(UNREADCOUNT));
+        thread.author = row.getString(columns.author);
+        thread.authorId = row.getInt(columns.authorId);
+        thread.lastPoster = row.getString(columns.lastPoster);
+        thread.postCount = row.getInt(columns.postCount);
+        thread.unreadCount = row.getInt(columns.unreadCount);
 
-        thread.rating = row.getInt(row.getColumnIndex(RATING));
-        thread.bookmarkType = row.getInt(row.getColumnIndex(BOOKMARKED));
+        thread.rating = row.getInt(columns.rating);
+        thread.bookmarkType = row.getInt(columns.bookmarked);
 
-        thread.isLocked = row.getInt(row.getColumnIndex(LOCKED)) > 0;
-        thread.archived = row.getInt(row.getColumnIndex(ARCHIVED)) > 0;
-        thread.isSticky = row.getInt(row.getColumnIndex(STICKY)) > 0;
-        thread.canOpenClose = row.getInt(row.getColumnIndex(CAN_OPEN_CLOSE)) > 0;
-        thread.hasBeenViewed = row.getInt(row.getColumnIndex(HAS_VIEWED_THREAD)) == 1;
+        thread.isLocked = row.getInt(columns.locked) > 0;
+        thread.archived = row.getInt(columns.archived) > 0;
+        thread.isSticky = row.getInt(columns.sticky) > 0;
+        thread.canOpenClose = row.getInt(columns.canOpenClose) > 0;
+        thread.hasBeenViewed = row.getInt(columns.hasViewedThread) == 1;
 
-        thread.tagUrl = row.getString(row.getColumnIndex(TAG_URL));
-        thread.tagCacheFile = row.getString(row.getColumnIndex(TAG_CACHEFILE));
-        thread.tagExtra = row.getInt(row.getColumnIndex(TAG_EXTRA));
-        thread.category = row.getInt(row.getColumnIndex(CATEGORY));
+        thread.tagUrl = row.getString(columns.tagUrl);
+        thread.tagCacheFile = row.getString(columns.tagCacheFile);
+        thread.tagExtra = row.getInt(columns.tagExtra);
+        thread.category = row.getInt(columns.category);
 
         return thread;
     }
 
 
+    /**
+     * The indexes of the columns {@link #fromCursorRow(Cursor)} reads from a cursor.
+     * <p>
+     * That gets called for every thread list item that's bound, one row at a time, and looking a
+     * column up by name means a string search and a map lookup - twenty times a row. So the indexes
+     * are found once per cursor, and kept until a different cursor comes along.
+     */
+    private static final class CursorColumns {
+        @NonNull
+        private final Cursor cursor;
+        final int id, index, title, forumId, author, authorId, lastPoster, postCount, unreadCount, rating,
+                bookmarked, locked, archived, sticky, canOpenClose, hasViewedThread, tagUrl, tagCacheFile, tagExtra, category;
+
+        private CursorColumns(@NonNull Cursor cursor) {
+            this.cursor = cursor;
+            id = cursor.getColumnIndex(ID);
+            index = cursor.getColumnIndex(INDEX);
+            title = cursor.getColumnIndex(TITLE);
+            forumId = cursor.getColumnIndex(FORUM_ID);
+            author = cursor.getColumnIndex(AUTHOR);
+            authorId = cursor.getColumnIndex(AUTHOR_ID);
+            lastPoster = cursor.getColumnIndex(LASTPOSTER);
+            postCount = cursor.getColumnIndex(POSTCOUNT);
+            unreadCount = cursor.getColumnIndex(UNREADCOUNT);
+            rating = cursor.getColumnIndex(RATING);
+            bookmarked = cursor.getColumnIndex(BOOKMARKED);
+            locked = cursor.getColumnIndex(LOCKED);
+            archived = cursor.getColumnIndex(ARCHIVED);
+            sticky = cursor.getColumnIndex(STICKY);
+            canOpenClose = cursor.getColumnIndex(CAN_OPEN_CLOSE);
+            hasViewedThread = cursor.getColumnIndex(HAS_VIEWED_THREAD);
+            tagUrl = cursor.getColumnIndex(TAG_URL);
+            tagCacheFile = cursor.getColumnIndex(TAG_CACHEFILE);
+            tagExtra = cursor.getColumnIndex(TAG_EXTRA);
+            category = cursor.getColumnIndex(CATEGORY);
+        }
+
+        /**
+         * Get the column indexes for a cursor, reusing the last ones if they came from the same cursor.
+         */
+        @NonNull
+        static CursorColumns of(@NonNull Cursor cursor) {
+            CursorColumns columns = lastColumns;
+            if (columns == null || columns.cursor != cursor) {
+                columns = new CursorColumns(cursor);
+                lastColumns = columns;
+            }
+            return columns;
+        }
+    }
+
+
     public ContentValues toContentValues() {
         ContentValues cv = new ContentValues();
         cv.put(ID, id);
@@ -225,7 +283,36 @@ public class AwfulThread extends AwfulPagedItem  {
      */
     static List<ContentValues> parseForumThreads(Document forumPage, int forumId, int startIndex) {
         long startTime = System.currentTimeMillis();
-        String update_time = new Timestamp(startTime).toString();
+        List<ContentValues> result = ForumParsingKt.parse(forumParseTasks(forumPage, forumId, startIndex));
+
+        float averageParseTime = (System.currentTimeMillis() - startTime) / (float) result.size();
+        Timber.i("%d threads parsed\nAverage parse time: %.3fms", result.size(), averageParseTime);
+        return result;
+    }
+
+
+    /**
+     * Parse a list of threads in a forum in parallel, and store their metadata.
+     *
+     * @param forumPage  the page to parse
+     * @param forumId    the ID of the forum this page is from
+     * @param startIndex the threads' positions in the forum will start from this index
+     * @param resolver   used to store the threads
+     * @return the number of threads stored
+     */
+    static int syncForumThreads(Document forumPage, int forumId, int startIndex, ContentResolver resolver) {
+        long startTime = System.currentTimeMillis();
+        List<ForumParseTask> parseTasks = forumParseTasks(forumPage, forumId, startIndex);
+        int resultCount = ForumParsingKt.parseInto(PipelinedInsert.open(resolver, CONTENT_URI), parseTasks);
+
+        float averageParseTime = (System.currentTimeMillis() - startTime) / (float) parseTasks.size();
+        Timber.i("%d threads found, %d stored\nAverage parse and store time: %.3fms", parseTasks.size(), resultCount, averageParseTime);
+        return resultCount;
+    }
+
+
+    private static List<ForumParseTask> forumParseTasks(Document forumPage, int forumId, int startIndex) {
+        String update_time = new Timestamp(System.currentTimeMillis()).toString();
         Timber.v("Update time: %s", update_time);
         String username = AwfulPreferences.getInstance().username;
 
@@ -238,11 +325,7 @@ public class AwfulThread extends AwfulPagedItem  {
             parseTasks.add(new ForumParseTask(threadElement, forumId, startIndex, username, update_time));
             startIndex++;
         }
-        List<ContentValues> result = ForumParsingKt.parse(parseTasks);
-
-        float averageParseTime = (System.currentTimeMillis() - startTime) / (float) result.size();
-        Timber.i("%d threads parsed\nAverage parse time: %.3fms", result.size(), averageParseTime);
-        return result;
+        return parseTasks;
     }
 
 
@@ -266,6 +349,17 @@ public class AwfulThread extends AwfulPagedItem  {
      * @param filterUserId if this page is for a thread filtered by user, this should be set to the user's ID, otherwise 0
      */
     public static void parseThreadPage(ContentResolver resolver, Document page, int threadId, int pageNumber, int lastPageNumber, int postsPerPage, AwfulPreferences prefs, int filterUserId) {
+        parseThreadPage(resolver, page, threadId, pageNumber, lastPageNumber, postsPerPage, prefs, filterUserId, null);
+    }
+
+
+    /**
+     * Parse a page from a thread, as in {@link #parseThreadPage(ContentResolver, Document, int, int, int, int, AwfulPreferences, int)},
+     * where the posts have already been pulled out of the page while it was being read.
+     *
+     * @param streamedPosts the page's posts, or null if they're still in the page and need parsing
+     */
+    public static void parseThreadPage(ContentResolver resolver, Document page, int threadId, int pageNumber, int lastPageNumber, int postsPerPage, AwfulPreferences prefs, int filterUserId, @Nullable StreamedPostParser streamedPosts) {
         long startTime = System.currentTimeMillis();
         // TODO: 03/06/2017 see issue #503 on GitHub - filtering by user means the thread data gets overwritten by the pages from this new, shorter thread containing their posts
         final int BLANK_USER_ID = 0;
@@ -273,7 +367,7 @@ public class AwfulThread extends AwfulPagedItem  {
         final boolean filteringOnUserId = filterUserId > BLANK_USER_ID;
 
         // finally write new thread data to the database
-        ContentValues cv = new ThreadPageParseTask(resolver, page, threadId, pageNumber, lastPageNumber, postsPerPage, prefs).call();
+        ContentValues cv = new ThreadPageParseTask(resolver, page, threadId, pageNumber, lastPageNumber, postsPerPage, prefs, streamedPosts).call();
         // TODO: 04/06/2017 this should be handled in the database-management classes
         String update_time = new Timestamp(startTime).toString();
         cv.put(DatabaseHelper.UPDATED_TIMESTAMP, update_time);
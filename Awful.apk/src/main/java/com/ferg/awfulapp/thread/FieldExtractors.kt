@@ -0,0 +1,209 @@
+package com.ferg.awfulapp.thread
+
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.jsoup.select.NodeVisitor
+
+/**
+ * Extractors that find all the parts of a page element we care about in a single walk over it.
+ *
+ * Running a separate selector query for each field means parsing the query and walking the whole
+ * subtree again every time, and a post's subtree can be large. These visit each node once, and
+ * match on class names and tags directly. Matches follow the same rules as the queries they replace
+ * (first in document order, class names are case-insensitive) - the equivalent query is noted on
+ * each field.
+ *
+ * These only read the element, so take anything you need *before* making changes to it.
+ */
+
+private val CLASS_SEPARATOR = "\\s+".toRegex()
+
+/** The lower-case class names of an element, without building a Set like [Element.classNames] does */
+private fun Element.classTokens(): List<String> {
+    val classes = attr("class")
+    return if (classes.isBlank()) emptyList() else classes.trim().lowercase().split(CLASS_SEPARATOR)
+}
+
+
+/**
+ * The parts of a post that [PostParseTask] uses, found in one pass.
+ *
+ * @param post the Element wrapping a single post, see [PostParseTask]
+ */
+class PostFields(post: Element) : NodeVisitor {
+
+    /** `.author` */
+    var author: Element? = null; private set
+    /** `.registered` */
+    var registered: Element? = null; private set
+    /** `.title` */
+    var title: Element? = null; private set
+    /** the first two `img`s in [title] */
+    val titleImages: List<Element> get() = titleImageList
+    private val titleImageList = ArrayList<Element>(2)
+    /** `.postbody` */
+    var postBody: Element? = null; private set
+    /** FYAD's post content wrapper - `.complete_shit` in [postBody] */
+    var fyadPostBody: Element? = null; private set
+    /** `> .signature` in [postBody] */
+    var signature: Element? = null; private set
+    /** `.postdate` */
+    var postDate: Element? = null; private set
+    /** the ID from the first `userid-XXX` class on a `.userinfo` element */
+    var userInfoId: Int? = null; private set
+    /** `.profilelinks [href*='userid=']` */
+    var profileLink: Element? = null; private set
+    /** the first child of the first `.editedBy` element that has one */
+    var editedBy: Element? = null; private set
+    /** `.platinum` exists */
+    var isPlatinum = false; private set
+    /** `[class^=seen]` exists */
+    var markedSeen = false; private set
+    /** `[alt=Edit]` exists */
+    var hasEditButton = false; private set
+
+    // containers we're currently inside, while traversing
+    private var inTitle: Element? = null
+    private var inPostBody: Element? = null
+    private var inProfileLinks: Element? = null
+
+    init {
+        post.traverse(this)
+    }
+
+    override fun head(node: Node, depth: Int) {
+        if (node !is Element) return
+
+        // matches on this element's position, which can't include itself as the container
+        if (inTitle != null && titleImageList.size < 2 && node.normalName() == "img") titleImageList.add(node)
+        if (inProfileLinks != null && profileLink == null && node.attr("href").contains("userid=", ignoreCase = true)) {
+            profileLink = node
+        }
+        if (!hasEditButton && node.attr("alt").trim().equals("Edit", ignoreCase = true)) hasEditButton = true
+        if (!markedSeen && node.attr("class").lowercase().startsWith("seen")) markedSeen = true
+
+        for (className in node.classTokens()) {
+            when (className) {
+                "author" -> if (author == null) author = node
+                "registered" -> if (registered == null) registered = node
+                "title" -> if (title == null) {
+                    title = node
+                    inTitle = node
+                }
+                "postbody" -> if (postBody == null) {
+                    postBody = node
+                    inPostBody = node
+                }
+                "complete_shit" -> if (inPostBody != null && fyadPostBody == null) fyadPostBody = node
+                "signature" -> if (signature == null && postBody != null && node.parent() === postBody) signature = node
+                "postdate" -> if (postDate == null) postDate = node
+                "userinfo" -> if (userInfoId == null) {
+                    userInfoId = node.classNames()
+                        .map { it.substringAfter("userid-", "") }
+                        .firstOrNull(String::isNotEmpty)
+                        ?.toInt()
+                }
+                "profilelinks" -> if (inProfileLinks == null) inProfileLinks = node
+                "editedby" -> if (editedBy == null) editedBy = node.firstElementChild()
+                "platinum" -> isPlatinum = true
+            }
+        }
+    }
+
+    override fun tail(node: Node, depth: Int) {
+        if (node === inTitle) inTitle = null
+        if (node === inPostBody) inPostBody = null
+        if (node === inProfileLinks) inProfileLinks = null
+    }
+}
+
+
+/**
+ * The parts of a thread list entry that [ForumParseTask] uses, found in one pass.
+ *
+ * @param thread the Element wrapping a single thread entry, see [ForumParseTask]
+ */
+class ThreadRowFields(thread: Element) : NodeVisitor {
+
+    /** `.thread_title` */
+    var threadTitle: Element? = null; private set
+    /** `.author` */
+    var author: Element? = null; private set
+    /** `a[href*='userid']` in [author] */
+    var authorLink: Element? = null; private set
+    /** `.lastpost .author` */
+    var lastPostAuthor: Element? = null; private set
+    /** `.rating img` */
+    var ratingImage: Element? = null; private set
+    /** `.icon img` */
+    var iconImage: Element? = null; private set
+    /** `.icon2 img` */
+    var secondaryIconImage: Element? = null; private set
+    /** `.replies` */
+    var replies: Element? = null; private set
+    /** `.count` */
+    var unreadCount: Element? = null; private set
+    /** `.star` */
+    var star: Element? = null; private set
+    /** `.title_sticky` exists */
+    var isSticky = false; private set
+    /** `.x` exists */
+    var hasX = false; private set
+
+    // containers we're currently inside, while traversing
+    private var inAuthor: Element? = null
+    private var inLastPost: Element? = null
+    private var inRating: Element? = null
+    private var inIcon: Element? = null
+    private var inIcon2: Element? = null
+
+    init {
+        thread.traverse(this)
+    }
+
+    override fun head(node: Node, depth: Int) {
+        if (node !is Element) return
+
+        // matches on this element's position, which can't include itself as the container
+        when (node.normalName()) {
+            "a" -> if (inAuthor != null && authorLink == null && node.attr("href").contains("userid", ignoreCase = true)) {
+                authorLink = node
+            }
+            "img" -> {
+                if (inRating != null && ratingImage == null) ratingImage = node
+                if (inIcon != null && iconImage == null) iconImage = node
+                if (inIcon2 != null && secondaryIconImage == null) secondaryIconImage = node
+            }
+        }
+
+        for (className in node.classTokens()) {
+            when (className) {
+                "thread_title" -> if (threadTitle == null) threadTitle = node
+                "author" -> {
+                    if (author == null) {
+                        author = node
+                        inAuthor = node
+                    }
+                    if (inLastPost != null && lastPostAuthor == null) lastPostAuthor = node
+                }
+                "lastpost" -> if (inLastPost == null) inLastPost = node
+                "rating" -> if (inRating == null) inRating = node
+                "icon" -> if (inIcon == null) inIcon = node
+                "icon2" -> if (inIcon2 == null) inIcon2 = node
+                "replies" -> if (replies == null) replies = node
+                "count" -> if (unreadCount == null) unreadCount = node
+                "star" -> if (star == null) star = node
+                "title_sticky" -> isSticky = true
+                "x" -> hasX = true
+            }
+        }
+    }
+
+    override fun tail(node: Node, depth: Int) {
+        if (node === inAuthor) inAuthor = null
+        if (node === inLastPost) inLastPost = null
+        if (node === inRating) inRating = null
+        if (node === inIcon) inIcon = null
+        if (node === inIcon2) inIcon2 = null
+    }
+}
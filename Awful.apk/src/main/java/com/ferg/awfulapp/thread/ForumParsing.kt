@@ -3,17 +3,20 @@ package com.ferg.awfulapp.thread
 import android.content.ContentResolver
 import android.content.ContentUris
 import android.content.ContentValues
-import android.net.Uri
 import com.ferg.awfulapp.constants.Constants
 import com.ferg.awfulapp.network.NetworkUtils
 import com.ferg.awfulapp.preferences.AwfulPreferences
 import com.ferg.awfulapp.provider.AwfulProvider
+import com.ferg.awfulapp.provider.ContentCompression
 import com.ferg.awfulapp.provider.DatabaseHelper
+import com.ferg.awfulapp.provider.PipelinedInsert
 import com.ferg.awfulapp.thread.AwfulPost.*
 import com.ferg.awfulapp.thread.AwfulThread.*
+import com.ferg.awfulapp.users.User
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
 import timber.log.Timber
+import java.sql.Timestamp
 import java.util.concurrent.*
 import java.util.regex.Matcher
 import java.util.regex.Pattern
@@ -29,19 +32,26 @@ import java.util.regex.Pattern
  * in parallel if possible, and handles errors and fallback to running on the calling thread.
  */
 
-private val parseTaskExecutor: ExecutorService by lazy { Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) }
-
 @Throws(Exception::class)
 fun <T> parseSingleThreaded(parseTasks: Collection<Callable<T>>) = parseTasks.map(Callable<T>::call)
 
 @Throws(InterruptedException::class, ExecutionException::class)
 fun <T> parseMultiThreaded(parseTasks: Collection<Callable<T>>) =
-    parseTaskExecutor.invokeAll(parseTasks).map(Future<T>::get)
+    parseTasks.map { submitParseTask(it) }.map(Future<T>::get)
+
+/**
+ * Start running a single parse task on the parsing threads, without waiting for it to finish.
+ *
+ * The task is scheduled by [ParseScheduler], so it gets the priority of the request being handled
+ * on this thread (if any) and is cancelled along with it.
+ */
+fun <T> submitParseTask(parseTask: Callable<T>): Future<T> = ParseScheduler.submit(parseTask)
 
 /**
  * Run a set of parse tasks in parallel, retrying on the current thread if there's a failure.
  *
- * This function blocks until all results are available.
+ * This function blocks until all results are available. If the tasks are cancelled (see
+ * [ParseScheduler.cancelAll]) this throws a [CancellationException] instead of retrying.
  */
 fun <T> parse(parseTasks: Collection<Callable<T>>): List<T> {
     try {
@@ -60,6 +70,55 @@ fun <T> parse(parseTasks: Collection<Callable<T>>): List<T> {
     }
 }
 
+/**
+ * Run a set of parse tasks in parallel, handing each result to the [insert] as soon as it's ready.
+ * The insert is started right away, so its writer stores the rows while the rest are still parsing.
+ *
+ * Any task that fails on the parsing threads is retried on the current thread. This function blocks
+ * until every task has finished and the [insert] has been committed, and always finishes the insert.
+ * If the tasks are cancelled, the insert is aborted and this throws a [CancellationException].
+ *
+ * @return the number of rows written
+ */
+fun parseInto(insert: PipelinedInsert, parseTasks: Collection<Callable<ContentValues>>): Int {
+    insert.start()
+    awaitParsedInto(insert, parseTasks.map { task -> task to submitParseInto(insert, task) })
+    return insert.finish()
+}
+
+/** Start a parse task on the parsing threads, which adds its result to [insert] when it's done */
+private fun submitParseInto(insert: PipelinedInsert, parseTask: Callable<ContentValues>): Future<*> =
+    submitParseTask(Callable { parseTask.call().also(insert::add) })
+
+/**
+ * Wait for a set of tasks started with [submitParseInto], rerunning any that failed on the current thread.
+ * This doesn't finish the [insert], unless the tasks were cancelled - then it's aborted, and the
+ * [CancellationException] is rethrown.
+ */
+private fun awaitParsedInto(insert: PipelinedInsert, running: List<Pair<Callable<ContentValues>, Future<*>>>) {
+    try {
+        for ((task, future) in running) {
+            try {
+                future.get()
+            } catch (e: ExecutionException) {
+                Timber.w(e, "parseInto: parallel parse failed - attempting on this thread")
+                try {
+                    insert.add(task.call())
+                } catch (e: Exception) {
+                    Timber.w(e, "parseInto: single-thread parse failed")
+                }
+            }
+        }
+    } catch (e: InterruptedException) {
+        Timber.w(e, "parseInto: interrupted while parsing")
+        java.lang.Thread.currentThread().interrupt()
+    } catch (e: CancellationException) {
+        Timber.d("parseInto: parse cancelled, discarding results")
+        insert.abort()
+        throw e
+    }
+}
+
 
 /**
  * A task that parses data from a post on a thread page, and returns it as a [ContentValues],
@@ -77,18 +136,30 @@ fun <T> parse(parseTasks: Collection<Callable<T>>): List<T> {
  * @param[lastReadIndex]    the index of the last-read post, used to mark this post as seen or unseen
  * @param[threadId]         the ID of this post's thread
  * @param[opId]             the user ID of the person who created the thread
- * @returns the post data represented as a ContentValues (see [AwfulPost])
+ * @param[storedContentHashes] the [CONTENT_HASH]es of posts already in the DB, by post ID - see [loadContentHashes]
+ * @param[seenUsers]        the IDs of the users whose details have already been parsed from this page.
+ * Share one set between all the tasks for a page, so each poster's details are only parsed once.
+ * @returns the post data represented as a ContentValues (see [AwfulPost]). If the post's content
+ * hasn't changed since it was stored, the content isn't processed again and [CONTENT] is left out.
+ * The author's details (see [User.POST_COLUMNS]) are only included in the first of their posts
+ * on the page to be parsed - or in every post whose author's ID couldn't be parsed.
  */
-class PostParseTask(
+class PostParseTask @JvmOverloads constructor(
     private val postData: Element,
     private val updateTime: String,
     private val index: Int,
     private val lastReadIndex: Int,
     private val threadId: Int,
     private val opId: Int,
-    private val prefs: AwfulPreferences
+    private val prefs: AwfulPreferences,
+    private val storedContentHashes: Map<Int, Long> = emptyMap(),
+    private val seenUsers: MutableSet<Int> = ConcurrentHashMap.newKeySet()
 ) : Callable<ContentValues> {
 
+    /** whether this task claimed its author in [seenUsers], so a retry still includes their details */
+    @Volatile
+    private var claimedAuthor = false
+
     companion object {
         private val USER_ID_REGEX = Pattern.compile("userid=(\\d+)")
         private val POST_ID_GARBAGE = "\\D".toRegex()
@@ -97,13 +168,16 @@ class PostParseTask(
 
     @Throws(Exception::class)
     override fun call(): ContentValues {
+        // find everything we need in one pass, before we start changing the post
+        val fields = PostFields(postData)
         return ContentValues().apply {
             //timestamp for DB trimming after a week
             put(DatabaseHelper.UPDATED_TIMESTAMP, updateTime)
             put(THREAD_ID, threadId)
 
             //post id is formatted "post1234567", so we strip out the "post" prefix.
-            put(AwfulPost.ID, postData.id().replace(POST_ID_GARBAGE, "").toInt())
+            val postId = postData.id().replace(POST_ID_GARBAGE, "").toInt()
+            put(AwfulPost.ID, postId)
             //we calculate this beforehand, but now can pull this from the post (thanks cooch!)
             //wait actually no, FYAD doesn't support this. ~FYAD Privilege~
             put(
@@ -114,67 +188,42 @@ class PostParseTask(
             put(IS_IGNORED, postData.hasClass("ignored").sqlBool)
 
             // Check for "class=seenX", or just rely on unread index
-            val markedSeen = postData.selectFirst("[class^=seen]") != null
-            val postHasBeenRead = markedSeen || index <= lastReadIndex
+            val postHasBeenRead = fields.markedSeen || index <= lastReadIndex
             put(PREVIOUSLY_READ, postHasBeenRead.sqlBool)
 
-            put(USERNAME, textForClass("author"))
-            put(REGDATE, textForClass("registered"))
-            put(IS_PLAT, postData.hasDescendantWithClass("platinum").sqlBool)
-            put(ROLE, getRole())
-
-            // grab the custom title, and also avatar and alternate avatar if there are any
-            postData.selectFirst(".title")
-                ?.also { put(AVATAR_TEXT, it.text() ?: "") }
-                ?.select("img")
-                ?.take(2)
-                ?.forEachIndexed { index, image ->
-                    image.let {
-                        tryConvertToHttps(it)
-                        put(
-                            if (index == 0) { AVATAR } else { AVATAR_SECOND },
-                            it.attr("src")
-                        )
-                    }
-                }
+            // parse user ID - fall back to the profile link if necessary
+            val userId = fields.userInfoId ?: fields.profileLink?.let {
+                with(USER_ID_REGEX.matcher(it.attr("href"))) { if (find()) group(1).toInt() else null }
+            }
+            // the author's details are stored once per user, so only the first of their posts needs them -
+            // unless we don't know who they are, then they're stored with the post
+            val author = if (userId == null || claimedAuthor || userId !in seenUsers) parseAuthor(fields) else null
 
             // FYAD has its post contents inside the .complete_shit element, so we just grab that instead of the full .postbody
-            val postBody = postData.selectFirst(".postbody")
-            val fyadPostBody = postBody!!.selectFirst(".complete_shit")
-            (fyadPostBody ?: postBody).apply {
-                convertVideos(this, prefs.inlineYoutube, prefs.inlineTiktoks)
-                getElementsByTag("img").forEach { processPostImage(it, postHasBeenRead, prefs) }
-                getElementsByTag("a").forEach(::tryConvertToHttps)
-                if (this == fyadPostBody) {
+            val postBody = fields.postBody
+            val fyadPostBody = fields.fyadPostBody
+            val content = fyadPostBody ?: postBody!!
+            val fyadSignature = if (content == fyadPostBody) fields.signature else null
+            // if we've already stored this exact content, processed the same way, there's no need to do it all again
+            val contentHash = postContentHash(content, fyadSignature, postHasBeenRead, prefs)
+            put(CONTENT_HASH, contentHash)
+            if (storedContentHashes[postId] != contentHash) {
+                with(content) {
+                    convertVideos(this, prefs.inlineYoutube, prefs.inlineTiktoks)
+                    getElementsByTag("img").forEach { processPostImage(it, postHasBeenRead, prefs) }
+                    getElementsByTag("a").forEach(::tryConvertToHttps)
                     // FYAD sigs are currently a sibling div alongside .complete_shit, so we need to stick them at the end of the content
-                    postBody.selectFirst("> .signature")?.appendTo(this)
+                    fyadSignature?.appendTo(this)
                 }
-                put(CONTENT, html())
+                ContentCompression.put(this, CONTENT, PostHtmlSerializer.html(content))
             }
 
             // extract and clean up post timestamp
-            NetworkUtils.unencodeHtml(textForClass("postdate"))
+            NetworkUtils.unencodeHtml(fields.postDate.text)
                 .replace(POST_TIMESTAMP_GARBAGE, "").trim()
                 .let { put(DATE, it) }
 
 
-            // parse user ID - fall back to the profile link if necessary
-            var userId = postData.getElementsByClass("userinfo")
-                .flatMap(Element::classNames)
-                .map { it.substringAfter("userid-", "") }
-                .firstOrNull(String::isNotEmpty)
-                ?.toInt()
-
-            if (userId == null) {
-                postData.selectFirst(".profilelinks [href*='userid=']")?.let {
-                    with(USER_ID_REGEX.matcher(it.attr("href"))) {
-                        if (find()) {
-                            userId = group(1).toInt()
-                        }
-                    }
-                }
-            }
-
             if (userId != null) {
                 put(USER_ID, userId)
                 put(IS_OP, (opId == userId).sqlBool)
@@ -183,28 +232,137 @@ class PostParseTask(
                 Timber.w("Failed to parse UID!")
             }
 
-            postData.getElementsByClass("editedBy")
-                .mapNotNull { it.children().first() }
-                .firstOrNull()
-                ?.let { put(EDITED, "<i>${it.text()}</i>") }
+            fields.editedBy?.let { put(EDITED, "<i>${it.text()}</i>") }
+
+            put(EDITABLE, fields.hasEditButton.sqlBool)
+
+            // only claim the author once the post has parsed, so another of their posts can carry them if this one fails
+            if (author != null && userId == null) {
+                putAll(author)
+            } else if (author != null && (claimedAuthor || seenUsers.add(userId!!))) {
+                claimedAuthor = true
+                putAll(author)
+            }
+        }
+    }
 
-            put(EDITABLE, postData.getElementsByAttributeValue("alt", "Edit").isNotEmpty().sqlBool)
+    /** Parse the details of a post's author, see [User.POST_COLUMNS] */
+    private fun parseAuthor(fields: PostFields) = ContentValues().apply {
+        put(USERNAME, fields.author.text)
+        put(REGDATE, fields.registered.text)
+        put(IS_PLAT, fields.isPlatinum.sqlBool)
+        put(ROLE, fields.author?.classNames()?.find { it.startsWith("role-") }?.substring(5) ?: "")
+
+        // grab the custom title, and also avatar and alternate avatar if there are any
+        fields.title?.let { put(AVATAR_TEXT, it.text() ?: "") }
+        fields.titleImages.forEachIndexed { index, image ->
+            tryConvertToHttps(image)
+            put(
+                if (index == 0) { AVATAR } else { AVATAR_SECOND },
+                image.attr("src")
+            )
         }
     }
 
     private val Boolean.sqlBool: Int
         get() = if (this) 1 else 0
 
-    private fun textForClass(cssClass: String): String =
-        postData.selectFirst(".$cssClass")?.text() ?: ""
+    private val Element?.text: String
+        get() = this?.text() ?: ""
+}
+
 
-    private fun getRole(): String =
-        postData.selectFirst(".author")?.classNames()?.find { it.startsWith("role-") }?.substring(5) ?: ""
+/**
+ * Parses the posts from a thread page one at a time, while the rest of the page is still being read.
+ *
+ * Pass each post Element to [add] as soon as the parser has finished building it - it'll be detached
+ * from the page and handed off to a [PostParseTask] on the parsing threads, so the full page never
+ * needs to hold every post at once. Each parsed post goes straight into a [PipelinedInsert]. Call
+ * [finish] when the page is done, to start writing them, and wait for the last post to be parsed and
+ * committed - posts are queued until then, so the write transaction doesn't stay open while the rest
+ * of the page downloads.
+ *
+ * @param resolver      used to load the current read state for this thread
+ * @param threadId      the ID of the thread this page is from
+ * @param pageNumber    this page's number in the thread when it was fetched
+ * @param postsPerPage  the posts-per-page setting used while fetching this page
+ */
+class StreamedPostParser(
+    private val resolver: ContentResolver,
+    private val threadId: Int,
+    pageNumber: Int,
+    private val postsPerPage: Int,
+    private val prefs: AwfulPreferences
+) {
+    private val updateTime = Timestamp(System.currentTimeMillis()).toString()
+    private val firstIndex = AwfulPagedItem.pageToIndex(pageNumber, postsPerPage, 0)
+    private var nextIndex = firstIndex
+    private val running = mutableListOf<Pair<Callable<ContentValues>, Future<*>>>()
+    private var finished = false
+
+    // only hit the DB once we actually have a post to parse (error pages won't have any)
+    private val thread: AwfulThread by lazy { loadThread(resolver, threadId) }
+    private val storedContentHashes: Map<Int, Long> by lazy { loadContentHashes(resolver, threadId, firstIndex, postsPerPage) }
+    private val insert: PipelinedInsert by lazy { PipelinedInsert.open(resolver, AwfulPost.CONTENT_URI) }
+    private val seenUsers: MutableSet<Int> = ConcurrentHashMap.newKeySet()
+
+    /** Detach a complete post Element from its page and start parsing it */
+    fun add(post: Element) {
+        post.remove()
+        val task = PostParseTask(post, updateTime, nextIndex++, thread.firstUnreadIndex, threadId, thread.authorId, prefs, storedContentHashes, seenUsers)
+        running.add(task to submitParseInto(insert, task))
+    }
+
+    /**
+     * Wait for every added post to finish parsing and be written, retrying on the current thread
+     * if anything failed.
+     *
+     * @return the number of posts written to the DB
+     */
+    fun finish(): Int {
+        // nothing was added, so we never opened an insert
+        if (finished || running.isEmpty()) return 0
+        finished = true
+        insert.start()
+        awaitParsedInto(insert, running)
+        return insert.finish()
+    }
+}
+
+
+/**
+ * Load the current data for a thread from the DB, or a new [AwfulThread] if there isn't any.
+ */
+private fun loadThread(resolver: ContentResolver, threadId: Int): AwfulThread {
+    val uri = ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong())
+    return resolver.query(uri, AwfulProvider.ThreadProjection, null, null, null).use {
+        it?.apply { moveToFirst() }?.let(::fromCursorRow) ?: AwfulThread()
+    }
+}
 
-    private fun Element.hasDescendantWithClass(cssClass: String): Boolean =
-        this.selectFirst(".$cssClass") != null
+/**
+ * Load the [CONTENT_HASH]es of the posts already stored for a page of a thread, keyed by post ID.
+ * [PostParseTask] uses these to avoid reprocessing posts that haven't changed.
+ *
+ * @param firstIndex    the index of the first post on the page
+ * @param postsPerPage  the posts-per-page setting used while fetching the page
+ */
+fun loadContentHashes(resolver: ContentResolver, threadId: Int, firstIndex: Int, postsPerPage: Int): Map<Int, Long> {
+    val selection = "$THREAD_ID=? AND $POST_INDEX>=? AND $POST_INDEX<? AND $CONTENT_HASH IS NOT NULL"
+    val args = arrayOf(threadId.toString(), firstIndex.toString(), (firstIndex + postsPerPage).toString())
+    return resolver.query(AwfulPost.CONTENT_URI, arrayOf(AwfulPost.ID, CONTENT_HASH), selection, args, null).use { cursor ->
+        val hashes = HashMap<Int, Long>()
+        while (cursor != null && cursor.moveToNext()) {
+            hashes[cursor.getInt(0)] = cursor.getLong(1)
+        }
+        hashes
+    }
 }
 
+/** The index of the first post the user hasn't read in this thread, going by its current counts */
+private val AwfulThread.firstUnreadIndex: Int
+    get() = if (!hasBeenViewed) 0 else postCount - unreadCount
+
 
 /**
  * A task that parses the post preview HTML from a preview page.
@@ -242,36 +400,44 @@ class ForumParseTask(
 
     companion object {
         private val THREAD_URL_ID_REGEX = Pattern.compile("([^#]+)#(\\d+)$")
+        // the userid query parameter, and not e.g. otheruserid
+        private val USER_ID_REGEX = Pattern.compile("[?&]userid=(\\d+)")
+        private val THREAD_ID_GARBAGE = "\\D".toRegex()
     }
 
     override fun call(): ContentValues {
+        // find everything we need in one pass over the thread's entry
+        val fields = ThreadRowFields(threadElement)
         // start building thread data
         val awfulThread = AwfulThread()
         with(awfulThread) {
-            id = threadElement.id().replace("\\D".toRegex(), "").toInt()
+            id = threadElement.id().replace(THREAD_ID_GARBAGE, "").toInt()
             index = threadIndex
             forumId = this@ForumParseTask.forumId
 
-            threadElement.selectFirst(".thread_title")?.let { title = it.text() }
-            threadElement.selectFirst(".author")?.let {
+            fields.threadTitle?.let { title = it.text() }
+            fields.author?.let {
                 author = it.text()
-                it.selectFirst("a[href*='userid']")
-                    ?.attr("href")
-                    ?.let { Uri.parse(it).getQueryParameter("userid") }
-                    ?.let { authorId = it.toInt() }
+                fields.authorLink?.let { link ->
+                    with(USER_ID_REGEX.matcher(link.attr("href"))) {
+                        if (find()) {
+                            authorId = group(1).toInt()
+                        }
+                    }
+                }
             }
             canOpenClose = author == username
 
-            lastPoster = threadElement.selectFirst(".lastpost .author")!!.text()
+            lastPoster = fields.lastPostAuthor!!.text()
             isLocked = threadElement.hasClass("closed")
-            isSticky = threadElement.selectFirst(".title_sticky") != null
+            isSticky = fields.isSticky
 
             // optional thread rating
-            rating = threadElement.selectFirst(".rating img")
+            rating = fields.ratingImage
                 ?.let { AwfulRatings.getId(it.attr("src")) } ?: AwfulRatings.NO_RATING
 
             // main thread tag
-            threadElement.selectFirst(".icon img")?.let {
+            fields.iconImage?.let {
                 with(THREAD_URL_ID_REGEX.matcher(it.attr("src"))) {
                     if (find()) {
                         tagUrl = group(1)
@@ -288,21 +454,21 @@ class ForumParseTask(
             }
 
             // secondary thread tag (e.g. Ask/Tell type)
-            tagExtra = threadElement.selectFirst(".icon2 img")
+            tagExtra = fields.secondaryIconImage
                 ?.let { ExtraTags.getId(it.attr("src")) } ?: ExtraTags.NO_TAG
 
 
             // replies / postcount
             // this represents the number of replies, but the actual postcount includes OP
-            threadElement.selectFirst(".replies")?.let { postCount = it.text().toInt() + 1 }
+            fields.replies?.let { postCount = it.text().toInt() + 1 }
 
             // unread count / viewed status
-            unreadCount = threadElement.selectFirst(".count")?.text()?.toInt() ?: 0
+            unreadCount = fields.unreadCount?.text()?.toInt() ?: 0
             // If there are X's then the user has viewed the thread
-            hasBeenViewed = unreadCount > 0 || threadElement.selectFirst(".x") != null
+            hasBeenViewed = unreadCount > 0 || fields.hasX
 
             // Bookmarks can only be detected now by the presence of a "bmX" class - no star image
-            val star = threadElement.selectFirst(".star")
+            val star = fields.star
             bookmarkType = when {
                 star!!.hasClass("bm0") -> 1
                 star.hasClass("bm1") -> 2
@@ -336,16 +502,18 @@ class ForumParseTask(
  * @param threadId the ID of the thread this page is from
  * @param pageNumber this page's number in the thread when it was fetched
  * @param postsPerPage the posts-per-page setting used while fetching this page
+ * @param streamedPosts if the page's posts were already handed off while it was being parsed, this holds them
  * @returns new or updated data for this thread, represented as a ContentValues (see [AwfulThread])
  */
-class ThreadPageParseTask(
+class ThreadPageParseTask @JvmOverloads constructor(
         private val resolver: ContentResolver,
         private val page: Document,
         private val threadId: Int,
         private val pageNumber: Int,
         private val lastPageNumber: Int,
         private val postsPerPage: Int,
-        private val prefs: AwfulPreferences
+        private val prefs: AwfulPreferences,
+        private val streamedPosts: StreamedPostParser? = null
 ) : Callable<ContentValues> {
 
     companion object {
@@ -354,10 +522,7 @@ class ThreadPageParseTask(
 
     override fun call(): ContentValues {
         // try and load the current thread data from the DB, otherwise create a new AwfulThread
-        val uri = ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong())
-        val thread = resolver.query(uri, AwfulProvider.ThreadProjection, null, null, null).use {
-            it?.apply { moveToFirst() }?.let(::fromCursorRow) ?: AwfulThread()
-        }
+        val thread = loadThread(resolver, threadId)
 
         with(thread) {
             id = threadId
@@ -387,19 +552,23 @@ class ThreadPageParseTask(
 
             // now calculate some read/unread numbers based on what we can see on the page
             val firstPostOnPageIndex = AwfulPagedItem.pageToIndex(pageNumber, postsPerPage, 0)
-            val firstUnreadIndex = if (!hasBeenViewed) 0 else postCount - unreadCount
-
             // hand off the page for post parsing, and get back the number of posts it found
             // TODO: 02/06/2017 sort out the ignored posts issue, the post parser doesn't put them in the DB (if you have 'always hide' on in the settings) and it messes up the numbers
-            val postsOnThisPage = syncPosts(
-                resolver,
-                page,
-                threadId,
-                firstUnreadIndex,
-                authorId,
-                prefs,
-                firstPostOnPageIndex
-            )
+            val postsOnThisPage = if (streamedPosts != null) {
+                streamedPosts.finish().also {
+                    Timber.i("Inserted %d streamed posts into DB, threadId: %d unreadIndex: %d", it, threadId, firstUnreadIndex)
+                }
+            } else {
+                syncPosts(
+                    resolver,
+                    page,
+                    threadId,
+                    firstUnreadIndex,
+                    authorId,
+                    prefs,
+                    firstPostOnPageIndex
+                )
+            }
             val postsOnPreviousPages = (pageNumber - 1) * postsPerPage
             val minimumPostsRead = postsOnPreviousPages + postsOnThisPage
             // only update the read count if it has grown (e.g. going back to an old page will give a lower count)
@@ -0,0 +1,226 @@
+package com.ferg.awfulapp.thread
+
+import timber.log.Timber
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * How urgently some parsing work needs doing. Tasks in a higher lane always run before any waiting
+ * tasks in a lower one, and tasks in the same lane run in the order they were submitted.
+ */
+enum class ParsePriority {
+    /** the thread page the user is looking at */
+    THREAD_PAGE,
+    /** thread lists, i.e. forum and bookmark pages */
+    THREAD_LIST,
+    /** anything else, like background syncs and forum updates */
+    BACKGROUND
+}
+
+
+/**
+ * Runs parse tasks on the dedicated parsing threads, by priority, and allows them to be cancelled.
+ *
+ * Work happens inside a *scope*, which is opened with [runInScope] on the thread that's handling a
+ * response (usually an [com.ferg.awfulapp.task.AwfulRequest]). Any tasks submitted from that thread
+ * while the scope is open get its priority, and are tied to its tag - calling [cancelAll] with that
+ * tag (which [com.ferg.awfulapp.network.NetworkUtils.cancelRequests] does) cancels every task that
+ * hasn't finished, and any submitted afterwards. Tasks submitted outside a scope run as [ParsePriority.BACKGROUND].
+ *
+ * Call [stats] to get the current queue depths and task latencies for each lane.
+ */
+object ParseScheduler {
+
+    private val threadCount = Runtime.getRuntime().availableProcessors()
+    private val sequence = AtomicLong()
+    private val currentScope = ThreadLocal<Scope?>()
+    private val openScopes: MutableSet<Scope> = ConcurrentHashMap.newKeySet()
+    private val laneMetrics = ParsePriority.values().associateWith { LaneMetrics() }
+
+    private val executor: ThreadPoolExecutor by lazy {
+        val threadNumber = AtomicInteger()
+        // unbounded queue, so the core threads are all we ever get
+        ThreadPoolExecutor(
+            threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+            PriorityBlockingQueue<Runnable>()
+        ) { runnable -> java.lang.Thread(runnable, "parser-${threadNumber.incrementAndGet()}") }
+    }
+
+
+    /**
+     * Run [block] on this thread with a scope open, so any tasks it submits get the given
+     * [priority] and can be cancelled through [tag].
+     */
+    fun <T> runInScope(tag: Any?, priority: ParsePriority, block: () -> T): T {
+        val scope = Scope(tag, priority)
+        val outerScope = currentScope.get()
+        currentScope.set(scope)
+        openScopes.add(scope)
+        try {
+            return block()
+        } finally {
+            openScopes.remove(scope)
+            currentScope.set(outerScope)
+        }
+    }
+
+
+    /**
+     * Start running a parse task, in the current thread's scope if there is one.
+     *
+     * If the scope has been cancelled, this returns a Future that's already cancelled.
+     */
+    fun <T> submit(task: Callable<T>): Future<T> {
+        val scope = currentScope.get()
+        val priority = scope?.priority ?: ParsePriority.BACKGROUND
+        val scheduled = ScheduledTask(task, priority, scope)
+        if (scope?.add(scheduled) == false) {
+            scheduled.cancel(false)
+        } else {
+            scheduled.enqueue()
+        }
+        return scheduled
+    }
+
+
+    /**
+     * Cancel all the unfinished tasks in every open scope with this [tag], interrupting any that are
+     * running. Anything else submitted in those scopes will be cancelled immediately.
+     */
+    fun cancelAll(tag: Any) {
+        openScopes.filter { it.tag == tag }.forEach(Scope::cancel)
+    }
+
+
+    /**
+     * Get the current metrics for each priority lane.
+     */
+    fun stats(): List<LaneStats> = laneMetrics.map { (priority, metrics) -> metrics.snapshot(priority) }
+
+
+    /**
+     * A snapshot of the work done in one priority lane.
+     *
+     * @param queued the number of tasks currently waiting to run
+     * @param completed the number of tasks that have finished running (including failures)
+     * @param cancelled the number of tasks that were cancelled before they finished
+     * @param averageWaitMillis the mean time a task spends in the queue before it starts
+     * @param averageRunMillis the mean time a task takes to run
+     */
+    data class LaneStats(
+        val priority: ParsePriority,
+        val queued: Int,
+        val completed: Long,
+        val cancelled: Long,
+        val averageWaitMillis: Double,
+        val averageRunMillis: Double
+    ) {
+        override fun toString() = "%s: %d queued, %d completed, %d cancelled, wait %.2fms, run %.2fms"
+            .format(priority, queued, completed, cancelled, averageWaitMillis, averageRunMillis)
+    }
+
+
+    private class LaneMetrics {
+        val queued = AtomicInteger()
+        val started = AtomicLong()
+        val completed = AtomicLong()
+        val cancelled = AtomicLong()
+        val totalWaitNanos = AtomicLong()
+        val totalRunNanos = AtomicLong()
+
+        fun snapshot(priority: ParsePriority): LaneStats {
+            val started = started.get().coerceAtLeast(1)
+            val completed = completed.get()
+            return LaneStats(
+                priority, queued.get(), completed, cancelled.get(),
+                totalWaitNanos.get() / started / 1_000_000.0,
+                totalRunNanos.get() / completed.coerceAtLeast(1) / 1_000_000.0
+            )
+        }
+    }
+
+
+    /**
+     * The tasks submitted while handling a single response.
+     */
+    private class Scope(val tag: Any?, val priority: ParsePriority) {
+        private val tasks = mutableSetOf<ScheduledTask<*>>()
+        private var cancelled = false
+
+        /** Add a task to this scope, or return false if it's been cancelled */
+        @Synchronized
+        fun add(task: ScheduledTask<*>): Boolean = !cancelled && tasks.add(task)
+
+        @Synchronized
+        fun remove(task: ScheduledTask<*>) {
+            tasks.remove(task)
+        }
+
+        fun cancel() {
+            val toCancel = synchronized(this) {
+                cancelled = true
+                tasks.toList()
+            }
+            if (toCancel.isNotEmpty()) Timber.d("Cancelling ${toCancel.size} parse tasks for $tag")
+            toCancel.forEach { it.cancel(true) }
+        }
+    }
+
+
+    /**
+     * A parse task that orders itself in the queue by priority, then submission order.
+     */
+    private class ScheduledTask<T>(
+        task: Callable<T>,
+        private val priority: ParsePriority,
+        private val scope: Scope?
+    ) : FutureTask<T>(task), Comparable<ScheduledTask<*>> {
+
+        private val order = sequence.getAndIncrement()
+        private val submitTime = System.nanoTime()
+        @Volatile private var startTime = 0L
+        // cleared when this task is queued, and set again when it leaves by starting or being cancelled - whichever happens first
+        private val dequeued = AtomicBoolean(true)
+        private val metrics get() = laneMetrics.getValue(priority)
+
+        /** Put this task in the executor's queue */
+        fun enqueue() {
+            dequeued.set(false)
+            metrics.queued.incrementAndGet()
+            executor.execute(this)
+        }
+
+        override fun run() {
+            // cancelled tasks stay in the queue until their turn comes, but they've already been counted
+            if (!dequeued.compareAndSet(false, true)) return
+            startTime = System.nanoTime()
+            with(metrics) {
+                queued.decrementAndGet()
+                started.incrementAndGet()
+                totalWaitNanos.addAndGet(startTime - submitTime)
+            }
+            super.run()
+        }
+
+        override fun cancel(mayInterruptIfRunning: Boolean): Boolean {
+            val cancelled = super.cancel(mayInterruptIfRunning)
+            if (cancelled && dequeued.compareAndSet(false, true)) metrics.queued.decrementAndGet()
+            return cancelled
+        }
+
+        override fun done() {
+            scope?.remove(this)
+            if (isCancelled) {
+                metrics.cancelled.incrementAndGet()
+            } else {
+                metrics.completed.incrementAndGet()
+                metrics.totalRunNanos.addAndGet(System.nanoTime() - startTime)
+            }
+        }
+
+        override fun compareTo(other: ScheduledTask<*>): Int =
+            compareValuesBy(this, other, { it.priority }, { it.order })
+    }
+}
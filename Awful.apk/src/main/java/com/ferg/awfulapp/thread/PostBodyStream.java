@@ -0,0 +1,93 @@
+package com.ferg.awfulapp.thread;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ferg.awfulapp.network.VideoMetadataCache;
+import com.ferg.awfulapp.provider.AwfulProvider;
+import com.ferg.awfulapp.provider.ContentCompression;
+
+import java.io.Closeable;
+
+import timber.log.Timber;
+
+/**
+ * Reads the bodies for a page of posts from the database, one at a time and in order.
+ * <p>
+ * A page's bodies can be huge (think quote chains) and loading them with the rest of each post's
+ * data means holding every one of them in memory, and can overflow the cursor's window. Instead,
+ * load the page with {@link AwfulProvider#PostMetadataProjection}, and pass one of these to
+ * {@link AwfulHtmlPage#getThreadHtml} - it asks for each post's body as it renders that post, so
+ * only one is held outside the HTML at a time.
+ * <p>
+ * Bodies have to be requested in the same order the posts were loaded (by their position in the
+ * thread). Always {@link #close()} this when you're done. This queries and decompresses as it goes,
+ * so keep it off the main thread - {@link ThreadPageLoader} does the whole thing in the background.
+ */
+public class PostBodyStream implements Closeable {
+
+    private static final String[] PROJECTION = {AwfulPost.ID, AwfulPost.CONTENT};
+    private static final String SELECTION = AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?";
+    private static final String SORT_ORDER = AwfulPost.POST_INDEX + " ASC";
+
+    @Nullable
+    private final Cursor cursor;
+    private final int idIndex;
+    private final int contentIndex;
+
+
+    private PostBodyStream(@Nullable Cursor cursor) {
+        this.cursor = cursor;
+        idIndex = cursor == null ? -1 : cursor.getColumnIndex(AwfulPost.ID);
+        contentIndex = cursor == null ? -1 : cursor.getColumnIndex(AwfulPost.CONTENT);
+    }
+
+
+    /**
+     * Open a stream of the bodies for a range of posts in a thread.
+     *
+     * @param firstIndex the position of the first post in the range
+     * @param endIndex   the position after the last post in the range
+     */
+    @NonNull
+    public static PostBodyStream open(@NonNull ContentResolver resolver, int threadId, int firstIndex, int endIndex) {
+        Cursor cursor = resolver.query(AwfulPost.CONTENT_URI, PROJECTION, SELECTION,
+                AwfulProvider.int2StrArray(threadId, firstIndex, endIndex), SORT_ORDER);
+        return new PostBodyStream(cursor);
+    }
+
+
+    /**
+     * Read the next post's body. This skips over any posts that weren't asked for, e.g. ones added
+     * to the database since the page was loaded.
+     *
+     * @return the post's body, or an empty string if it isn't stored
+     */
+    @NonNull
+    public String bodyFor(@NonNull AwfulPost post) {
+        if (cursor == null) {
+            return "";
+        }
+        int start = cursor.getPosition();
+        while (cursor.moveToNext()) {
+            if (post.getId().equals(cursor.getString(idIndex))) {
+                String body = VideoMetadataCache.resolveLinks(ContentCompression.getString(cursor, contentIndex));
+                return body == null ? "" : body;
+            }
+        }
+        // it's been deleted since the page was loaded - the next post might still be here though
+        Timber.w("No stored body for post %s", post.getId());
+        cursor.moveToPosition(start);
+        return "";
+    }
+
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+}
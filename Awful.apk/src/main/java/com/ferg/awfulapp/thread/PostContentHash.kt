@@ -0,0 +1,122 @@
+package com.ferg.awfulapp.thread
+
+import com.ferg.awfulapp.preferences.AwfulPreferences
+import org.jsoup.nodes.DataNode
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.jsoup.nodes.TextNode
+import org.jsoup.select.NodeTraversor
+import org.jsoup.select.NodeVisitor
+
+/**
+ * Bump this whenever the way post content is processed changes, so posts stored by the old code
+ * get reprocessed.
+ */
+private const val PROCESSING_VERSION = 1
+
+private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL
+private const val FNV_PRIME = 0x100000001b3L
+
+/**
+ * Fingerprint a post's content *before* it's processed, so a refreshed page can skip reprocessing
+ * posts that haven't changed since they were stored (see [PostParseTask]).
+ *
+ * The hash covers everything that affects the processed content - the content's elements,
+ * attributes and text, whether the post has been read (old images can be hidden), and the
+ * preferences used while processing. It walks the tree without building any strings, so it's much
+ * cheaper than the processing and serialising it lets us skip.
+ *
+ * @param content           the post's unprocessed content element
+ * @param signature         a signature that gets moved into the content while processing, if any
+ * @param postHasBeenRead   whether the post is being stored as read
+ */
+internal fun postContentHash(content: Element, signature: Element?, postHasBeenRead: Boolean, prefs: AwfulPreferences): Long {
+    val hash = ContentHasher()
+    with(hash) {
+        add(PROCESSING_VERSION)
+        add(postHasBeenRead)
+        addProcessingPrefs(prefs)
+    }
+    NodeTraversor.traverse(hash, content)
+    signature?.let { NodeTraversor.traverse(hash, it) }
+    return hash.value
+}
+
+
+/**
+ * Fingerprint the way posts are currently processed - the [PROCESSING_VERSION] and the preferences
+ * it uses - so a stored page can be checked against the settings it was processed with.
+ */
+internal fun postProcessingFingerprint(prefs: AwfulPreferences): Long =
+    ContentHasher().apply {
+        add(PROCESSING_VERSION)
+        addProcessingPrefs(prefs)
+    }.value
+
+
+private fun ContentHasher.addProcessingPrefs(prefs: AwfulPreferences) {
+    add(prefs.showSmilies)
+    add(prefs.hideOldImages)
+    add(prefs.canLoadImages())
+    add(prefs.imgurThumbnails)
+    add(prefs.disableGifs)
+    add(prefs.disableTimgs)
+    add(prefs.inlineYoutube)
+    add(prefs.inlineTiktoks)
+}
+
+
+/**
+ * A 64-bit FNV-1a hash over a tree of nodes. Strings are length-prefixed, so different splits of
+ * the same characters (e.g. across text nodes) hash differently.
+ */
+private class ContentHasher : NodeVisitor {
+
+    var value = FNV_OFFSET_BASIS
+        private set
+
+    override fun head(node: Node, depth: Int) {
+        when (node) {
+            is Element -> {
+                add('<'.code)
+                add(node.normalName())
+                for (attribute in node.attributes()) {
+                    add(attribute.key)
+                    add(attribute.value)
+                }
+            }
+            is TextNode -> add(node.wholeText)
+            is DataNode -> add(node.wholeData)
+            // comments etc. don't make it into the displayed content
+        }
+    }
+
+    override fun tail(node: Node, depth: Int) {
+        if (node is Element) add('>'.code)
+    }
+
+    fun add(string: String?) {
+        if (string == null) {
+            add(-1)
+            return
+        }
+        add(string.length)
+        for (c in string) {
+            addByte(c.code and 0xFF)
+            addByte(c.code ushr 8)
+        }
+    }
+
+    fun add(flag: Boolean) = addByte(if (flag) 1 else 0)
+
+    fun add(number: Int) {
+        addByte(number and 0xFF)
+        addByte((number ushr 8) and 0xFF)
+        addByte((number ushr 16) and 0xFF)
+        addByte(number ushr 24)
+    }
+
+    private fun addByte(byte: Int) {
+        value = (value xor byte.toLong()) * FNV_PRIME
+    }
+}
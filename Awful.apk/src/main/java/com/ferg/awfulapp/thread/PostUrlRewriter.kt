@@ -0,0 +1,156 @@
+package com.ferg.awfulapp.thread
+
+/**
+ * Rewrites the image and link URLs in posts, using a table of rules for each host.
+ *
+ * Every image and link in a post gets checked, and image-heavy pages can have hundreds of them, so
+ * instead of searching each URL for every domain we handle, this pulls out the host once and looks
+ * up its [HostRule]. A rule applies to its domain and any subdomains, unless a subdomain has a rule
+ * of its own - so `i.imgur.com` gets the `i.imgur.com` rule, and `m.imgur.com` gets the `imgur.com` one.
+ *
+ * To handle a new host, add a rule to [rules].
+ */
+object PostUrlRewriter {
+
+    private val imgurId_regex = "^(.*\\.imgur\\.com/)(\\w+)(\\..*)$".toRegex()
+
+    /**
+     * The rules for each host, keyed by lower-case domain.
+     */
+    private val rules: Map<String, HostRule> = mapOf(
+        "somethingawful.com" to HostRule(https = true),
+        "imgur.com" to HostRule(https = true, stillForGif = { imgurAsThumbnail(it, "h") }),
+        "i.imgur.com" to HostRule(https = true, imgurThumbnails = true, stillForGif = { imgurAsThumbnail(it, "h") }),
+        "giphy.com" to HostRule(https = true, stillForGif = ::giphyStill),
+        "postimg.org" to HostRule(movedTo = "postimg.cc"),
+        "i.kinja-img.com" to HostRule(stillForGif = { it.replace(".gif", ".jpg") }),
+        "giant.gfycat.com" to HostRule(stillForGif = { it.replace("giant.gfycat.com", "thumbs.gfycat.com").replace(".gif", "-poster.jpg") })
+    )
+
+
+    /**
+     * What to do with URLs on a host.
+     *
+     * @param https             the host supports https, so http URLs can be upgraded
+     * @param movedTo           the domain the host has moved to, if URLs need to point there instead
+     * @param imgurThumbnails   the host can serve Imgur-style thumbnails, see [thumbnail]
+     * @param stillForGif       produces the URL of a still image for a gif on this host, see [gifStill]
+     */
+    class HostRule(
+        private val https: Boolean = false,
+        private val movedTo: String? = null,
+        private val imgurThumbnails: Boolean = false,
+        private val stillForGif: ((String) -> String)? = null
+    ) {
+
+        /** Rewrite a URL for this host as https, and with its current domain, if necessary */
+        internal fun canonical(url: String, host: HostRange, matchedDomain: String): String {
+            val upgradeScheme = https && url.startsWith("http://", ignoreCase = true)
+            if (!upgradeScheme && movedTo == null) return url
+            return buildString(url.length + 1) {
+                if (upgradeScheme) append("https") else append(url, 0, host.schemeEnd)
+                append(url, host.schemeEnd, host.start)
+                if (movedTo == null) {
+                    append(url, host.start, host.end)
+                } else {
+                    // replace the domain this rule matched, keeping any subdomains
+                    append(url, host.start, host.end - matchedDomain.length)
+                    append(movedTo)
+                }
+                append(url, host.end, url.length)
+            }
+        }
+
+        /**
+         * Get a thumbnail version of an image URL, if this host provides them.
+         *
+         * @param thumbnailCode the type of thumbnail, usually a single character code
+         */
+        fun thumbnail(url: String, thumbnailCode: String): String =
+            if (imgurThumbnails) imgurAsThumbnail(url, thumbnailCode) else url
+
+        /** Get the URL of a still image for a gif, or null if this host doesn't provide one */
+        fun gifStill(url: String): String? = stillForGif?.invoke(url)
+    }
+
+
+    /**
+     * Where the parts of a URL are. [schemeEnd] is the index of the `:` after the scheme, and the
+     * host runs from [start] (inclusive) to [end] (exclusive).
+     */
+    internal class HostRange(val schemeEnd: Int, val start: Int, val end: Int)
+
+
+    /**
+     * Find the rule for a URL's host, if it has one.
+     */
+    @JvmStatic
+    fun ruleFor(url: String): HostRule? {
+        val host = hostRange(url) ?: return null
+        return findRule(url, host)?.second
+    }
+
+
+    /**
+     * Rewrite a URL as https and with its current domain, if its host has a rule for that.
+     *
+     * @return the rewritten URL, or the original if there's nothing to change
+     */
+    @JvmStatic
+    fun canonical(url: String): String {
+        val host = hostRange(url) ?: return url
+        val (domain, rule) = findRule(url, host) ?: return url
+        return rule.canonical(url, host, domain)
+    }
+
+
+    /**
+     * Look up the most specific rule for a URL's host, trying the whole host and then each parent
+     * domain in turn. Returns the matching domain and its rule.
+     */
+    private fun findRule(url: String, host: HostRange): Pair<String, HostRule>? {
+        var domain = url.substring(host.start, host.end).lowercase()
+        while (true) {
+            rules[domain]?.let { return domain to it }
+            val nextLabel = domain.indexOf('.')
+            if (nextLabel < 0) return null
+            domain = domain.substring(nextLabel + 1)
+        }
+    }
+
+
+    private fun hostRange(url: String): HostRange? {
+        val schemeEnd = url.indexOf("://")
+        if (schemeEnd <= 0) return null
+        val start = schemeEnd + 3
+        var end = start
+        while (end < url.length && url[end] != '/' && url[end] != ':' && url[end] != '?' && url[end] != '#') end++
+        return if (end > start) HostRange(schemeEnd, start, end) else null
+    }
+
+
+    /**
+     * Rewrite a Imgur image url as a thumbnailed version, if possible (e.g. not already a thumbnail).
+     *
+     * @return the rewritten url, or the original if it couldn't be rewritten
+     */
+    private fun imgurAsThumbnail(imgurUrl: String, thumbnailCode: String): String {
+        val (imgurBase, imgurImageId, imgurImageEnd) = imgurId_regex.find(imgurUrl)?.destructured ?: return imgurUrl
+        //check if already thumbnails
+        return if (imgurImageId.length != 6 && imgurImageId.length != 8) {
+            imgurBase + imgurImageId + thumbnailCode + imgurImageEnd
+        } else {
+            imgurUrl
+        }
+    }
+
+
+    private fun giphyStill(url: String): String {
+        val mediaUrl = url.replace("://i.giphy.com", "://media.giphy.com/media")
+        return if (mediaUrl.endsWith("giphy.gif")) {
+            mediaUrl.replace("giphy.gif", "200_s.gif")
+        } else {
+            mediaUrl.replace(".gif", "/200_s.gif")
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.ferg.awfulapp.thread;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.loader.content.AsyncTaskLoader;
+
+import com.ferg.awfulapp.preferences.AwfulPreferences;
+import com.ferg.awfulapp.provider.AwfulProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a page of a thread's posts from the database and renders their HTML, off the main thread.
+ * <p>
+ * The posts are loaded without their bodies, which are streamed in as each post is rendered (see
+ * {@link PostBodyStream}). Both reads are made against the same snapshot of the database, so the
+ * bodies can't be out of step with the posts if the page gets written in between. Like a
+ * CursorLoader, this reloads whenever the stored posts change.
+ */
+public class ThreadPageLoader extends AsyncTaskLoader<ThreadPageLoader.Page> {
+
+    private static final String SELECTION = AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?";
+    private static final String SORT_ORDER = AwfulPost.POST_INDEX + " ASC";
+
+    private final int threadId;
+    private final int pageNumber;
+    private final int lastPage;
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private boolean observing = false;
+    @Nullable
+    private Page loaded = null;
+
+
+    /**
+     * @param lastPage the last page of the thread, which gets extra content after its posts
+     */
+    public ThreadPageLoader(@NonNull Context context, int threadId, int pageNumber, int lastPage) {
+        super(context);
+        this.threadId = threadId;
+        this.pageNumber = pageNumber;
+        this.lastPage = lastPage;
+    }
+
+
+    @Override
+    public Page loadInBackground() {
+        Context context = getContext();
+        AwfulPreferences prefs = AwfulPreferences.getInstance(context);
+        int index = AwfulPagedItem.pageToIndex(pageNumber, prefs.postPerPage, 0);
+        String[] args = AwfulProvider.int2StrArray(threadId, index, index + prefs.postPerPage);
+        return AwfulProvider.readConsistently(context, () -> {
+            ContentResolver resolver = context.getContentResolver();
+            List<AwfulPost> posts;
+            try (Cursor cursor = resolver.query(AwfulPost.CONTENT_URI, AwfulProvider.PostMetadataProjection, SELECTION, args, SORT_ORDER)) {
+                posts = cursor == null ? new ArrayList<>() : AwfulPost.fromCursor(context, cursor);
+            }
+            try (PostBodyStream bodies = PostBodyStream.open(resolver, threadId, index, index + prefs.postPerPage)) {
+                return new Page(posts.size(), AwfulHtmlPage.getThreadHtml(posts, bodies, prefs, pageNumber, lastPage));
+            }
+        });
+    }
+
+
+    @Override
+    public void deliverResult(@Nullable Page page) {
+        if (isReset()) {
+            return;
+        }
+        loaded = page;
+        if (isStarted()) {
+            super.deliverResult(page);
+        }
+    }
+
+
+    @Override
+    protected void onStartLoading() {
+        if (!observing) {
+            getContext().getContentResolver().registerContentObserver(AwfulPost.CONTENT_URI, true, observer);
+            observing = true;
+        }
+        if (loaded != null) {
+            deliverResult(loaded);
+        }
+        if (takeContentChanged() || loaded == null) {
+            forceLoad();
+        }
+    }
+
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (observing) {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            observing = false;
+        }
+        loaded = null;
+    }
+
+
+    /**
+     * A rendered page of posts.
+     */
+    public static class Page {
+        /** the number of posts on the page */
+        public final int postCount;
+        /** the posts' HTML, ready for the thread's WebView */
+        @NonNull
+        public final String html;
+
+        Page(int postCount, @NonNull String html) {
+            this.postCount = postCount;
+            this.html = html;
+        }
+    }
+}
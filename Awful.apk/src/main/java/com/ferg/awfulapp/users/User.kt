@@ -1,6 +1,31 @@
 package com.ferg.awfulapp.users
 
+import com.ferg.awfulapp.thread.AwfulPost
+
 /**
  * Created by baka kaba on 28/07/2017.
  */
-data class User(val id: Int, val username: String)
\ No newline at end of file
+data class User(val id: Int, val username: String) {
+
+    companion object {
+        /**
+         * The columns in a post's data that belong to its author rather than the post itself.
+         *
+         * These are stored once per user in the users table, keyed by their user ID (in its
+         * [AwfulPost.ID] column), instead of being repeated on every one of their posts. They're
+         * joined back onto the posts when they're read, so they still appear in the post columns.
+         * If a post's author ID can't be parsed there's nothing to key them on, so they're stored
+         * on the post itself.
+         */
+        @JvmField
+        val POST_COLUMNS = arrayOf(
+            AwfulPost.USERNAME,
+            AwfulPost.REGDATE,
+            AwfulPost.ROLE,
+            AwfulPost.IS_PLAT,
+            AwfulPost.AVATAR,
+            AwfulPost.AVATAR_SECOND,
+            AwfulPost.AVATAR_TEXT
+        )
+    }
+}
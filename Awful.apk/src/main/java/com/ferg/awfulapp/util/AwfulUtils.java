@@ -1,13 +1,10 @@
 package com.ferg.awfulapp.util;
 
-import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Point;
-import android.net.Uri;
 import android.os.Build;
 import androidx.annotation.NonNull;
 import android.util.DisplayMetrics;
-import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
 
@@ -27,10 +24,6 @@ import com.ToxicBakery.viewpager.transforms.ZoomOutSlideTransformer;
 import com.ToxicBakery.viewpager.transforms.ZoomOutTransformer;
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
-import com.ferg.awfulapp.provider.DatabaseHelper;
-import com.ferg.awfulapp.thread.AwfulEmote;
-import com.ferg.awfulapp.thread.AwfulPost;
-import com.ferg.awfulapp.thread.AwfulThread;
 
 import java.util.HashMap;
 
@@ -112,14 +105,6 @@ public class AwfulUtils {
         }
     }
 
-    public static void trimDbEntries(ContentResolver cr) {
-        int rowCount = 0;
-        for (Uri uri : new Uri[]{AwfulThread.CONTENT_URI, AwfulThread.CONTENT_URI_UCP, AwfulPost.CONTENT_URI, AwfulEmote.CONTENT_URI}) {
-            rowCount += cr.delete(uri, DatabaseHelper.UPDATED_TIMESTAMP + " < datetime('now','-7 days')", null);
-        }
-        Log.i("AwfulTrimDB", "Trimming DB older than 7 days, culled: " + rowCount);
-    }
-
     public static ABaseTransformer getViewPagerTransformer() {
         HashMap<String, ABaseTransformer> transformerMap = new HashMap<>();
         transformerMap.put("Disabled", null);
@@ -192,4 +192,14 @@ public class AwfulWebView extends WebView {
         refreshPageContents();
     }
 
+
+    /**
+     * How far down its content the view has been scrolled, from 0 (at the top) to 1 (at the bottom).
+     * Content that fits in the view without scrolling counts as scrolled to the bottom.
+     */
+    public float getScrollProgress() {
+        int scrollableHeight = computeVerticalScrollRange() - computeVerticalScrollExtent();
+        return scrollableHeight <= 0 ? 1f : (float) computeVerticalScrollOffset() / scrollableHeight;
+    }
+
 }
@@ -0,0 +1,158 @@
+package com.ferg.awfulapp.network;
+
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpResponse;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import okhttp3.OkHttpClient;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Checks Volley requests made through the OkHttp stack against a local server, and that they
+ * share connections.
+ */
+public class OkHttpStackTest {
+
+    private static final String HOST = "127.0.0.1";
+
+    private HttpServer server;
+    private String baseUrl;
+    private final ConnectionStats stats = new ConnectionStats();
+    private OkHttpStack stack;
+
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // echoes the method, content type and body back
+        server.createContext("/echo", exchange -> {
+            byte[] requestBody = readAll(exchange.getRequestBody());
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] reply = (exchange.getRequestMethod() + " " + contentType + " " + new String(requestBody, StandardCharsets.UTF_8))
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("X-Test", "one");
+            exchange.getResponseHeaders().add("X-Test", "two");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, reply.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(reply);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://" + HOST + ":" + server.getAddress().getPort();
+        stack = new OkHttpStack(new OkHttpClient.Builder().eventListener(stats).build());
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+
+    @Test
+    public void requests_reuseConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = stack.executeRequest(new TestRequest(Request.Method.GET, null), Collections.emptyMap());
+            try (InputStream content = response.getContent()) {
+                assertThat(new String(readAll(content), StandardCharsets.UTF_8), is("GET null "));
+            }
+        }
+
+        assertThat(stats.getRequests(HOST), is(3));
+        assertThat(stats.getConnections(HOST), is(1));
+    }
+
+
+    @Test
+    public void post_sendsBodyAndContentType() throws Exception {
+        HttpResponse response = stack.executeRequest(new TestRequest(Request.Method.POST, "a=1"), Collections.emptyMap());
+
+        try (InputStream content = response.getContent()) {
+            assertThat(new String(readAll(content), StandardCharsets.UTF_8), is("POST text/plain; charset=utf-8 a=1"));
+        }
+    }
+
+
+    @Test
+    public void head_hasNoContent() throws Exception {
+        HttpResponse response = stack.executeRequest(new TestRequest(Request.Method.HEAD, null), Collections.emptyMap());
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.getContent(), is(nullValue()));
+    }
+
+
+    @Test
+    public void repeatedHeaders_areAllKept() throws Exception {
+        HttpResponse response = stack.executeRequest(new TestRequest(Request.Method.HEAD, null), Collections.emptyMap());
+
+        int count = 0;
+        for (Header header : response.getHeaders()) {
+            if (header.getName().equalsIgnoreCase("X-Test")) count++;
+        }
+        assertThat(count, is(2));
+    }
+
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+
+    private class TestRequest extends Request<Void> {
+        private final String body;
+
+        TestRequest(int method, String body) {
+            super(method, baseUrl + "/echo", null);
+            this.body = body;
+        }
+
+        @Override
+        public byte[] getBody() {
+            return body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return "text/plain; charset=utf-8";
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+        }
+    }
+}
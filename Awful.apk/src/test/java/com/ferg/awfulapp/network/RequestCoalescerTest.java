@@ -0,0 +1,201 @@
+package com.ferg.awfulapp.network;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Checks identical requests share a single result, and that anything that can't safely share one
+ * is left to be made on its own.
+ */
+public class RequestCoalescerTest {
+
+    private static final String URL = "https://forums.somethingawful.com/usercp.php";
+
+    private final RecordingDelivery delivery = new RecordingDelivery();
+    private final RequestCoalescer coalescer = new RequestCoalescer(delivery);
+
+
+    @Test
+    public void duplicateRequests_shareOneResult() {
+        TestRequest first = new TestRequest(Request.Method.GET, URL);
+        TestRequest second = new TestRequest(Request.Method.GET, URL);
+        TestRequest third = new TestRequest(Request.Method.GET, URL);
+
+        assertThat(coalescer.join(first), is(false));
+        assertThat(coalescer.join(second), is(true));
+        assertThat(coalescer.join(third), is(true));
+        Response<String> response = Response.success("parsed once", null);
+        coalescer.postResponse(first, response);
+
+        assertThat(delivery.delivered(first), is(response));
+        assertThat(delivery.delivered(second), is(response));
+        assertThat(delivery.delivered(third), is(response));
+        assertThat(coalescer.getCoalesced(), is(2));
+    }
+
+
+    @Test
+    public void errors_areSharedToo() {
+        TestRequest first = new TestRequest(Request.Method.HEAD, URL);
+        TestRequest second = new TestRequest(Request.Method.HEAD, URL);
+        coalescer.join(first);
+        coalescer.join(second);
+
+        VolleyError error = new VolleyError("failed");
+        coalescer.postError(first, error);
+
+        assertThat(delivery.delivered(second).error, is(error));
+    }
+
+
+    @Test
+    public void differentRequests_areNotCoalesced() {
+        assertThat(coalescer.join(new TestRequest(Request.Method.GET, URL)), is(false));
+        assertThat(coalescer.join(new TestRequest(Request.Method.HEAD, URL)), is(false));
+        assertThat(coalescer.join(new TestRequest(Request.Method.GET, URL + "?page=2")), is(false));
+        assertThat(coalescer.join(new KeyedRequest(URL, "someone else")), is(false));
+        // these change things on the site, so every one gets made
+        assertThat(coalescer.join(new TestRequest(Request.Method.POST, URL)), is(false));
+        assertThat(coalescer.join(new TestRequest(Request.Method.POST, URL)), is(false));
+        // and these have opted out
+        assertThat(coalescer.join(new KeyedRequest(URL, null)), is(false));
+        assertThat(coalescer.join(new KeyedRequest(URL, null)), is(false));
+
+        assertThat(coalescer.getCoalesced(), is(0));
+    }
+
+
+    @Test
+    public void laterRequests_startAfresh() {
+        TestRequest first = new TestRequest(Request.Method.GET, URL);
+        coalescer.join(first);
+        coalescer.postResponse(first, Response.success("old", null));
+
+        // the first result has already gone out, so this one needs its own
+        assertThat(coalescer.join(new TestRequest(Request.Method.GET, URL)), is(false));
+    }
+
+
+    @Test
+    public void cancelledRequest_handsOverToAFollower() {
+        TestRequest first = new TestRequest(Request.Method.GET, URL);
+        TestRequest second = new TestRequest(Request.Method.GET, URL);
+        TestRequest third = new TestRequest(Request.Method.GET, URL);
+        coalescer.join(first);
+        coalescer.join(second);
+        coalescer.join(third);
+
+        first.cancel();
+        coalescer.postError(first, new VolleyError("cancelled part way"));
+        assertThat(delivery.delivered(second), is(nullValue()));
+
+        // the next request gets made instead, and the rest wait on that
+        assertThat(coalescer.onRequestFinished(first), is(second));
+        Response<String> response = Response.success("refetched", null);
+        coalescer.postResponse(second, response);
+        assertThat(delivery.delivered(third), is(response));
+    }
+
+
+    @Test
+    public void cancelledFollowers_areDropped() {
+        Object tag = new Object();
+        TestRequest first = new TestRequest(Request.Method.GET, URL);
+        TestRequest second = new TestRequest(Request.Method.GET, URL);
+        second.setTag(tag);
+        coalescer.join(first);
+        coalescer.join(second);
+
+        coalescer.cancelAll(tag);
+        first.cancel();
+
+        assertThat(second.isCanceled(), is(true));
+        assertThat(coalescer.onRequestFinished(first), is(nullValue()));
+        assertThat(coalescer.join(new TestRequest(Request.Method.GET, URL)), is(false));
+    }
+
+
+    @Test
+    public void newRequest_replacesCancelledOne() {
+        TestRequest first = new TestRequest(Request.Method.GET, URL);
+        TestRequest second = new TestRequest(Request.Method.GET, URL);
+        coalescer.join(first);
+        first.cancel();
+
+        assertThat(coalescer.join(second), is(false));
+        // the cancelled request finishing doesn't affect the one that replaced it
+        assertThat(coalescer.onRequestFinished(first), is(nullValue()));
+        assertThat(coalescer.join(new TestRequest(Request.Method.GET, URL)), is(true));
+    }
+
+
+    private static class RecordingDelivery implements ResponseDelivery {
+        private final List<Request<?>> requests = new ArrayList<>();
+        private final List<Response<?>> responses = new ArrayList<>();
+
+        Response<?> delivered(Request<?> request) {
+            int index = requests.indexOf(request);
+            return index == -1 ? null : responses.get(index);
+        }
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            requests.add(request);
+            responses.add(response);
+        }
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+            postResponse(request, response);
+        }
+
+        @Override
+        public void postError(Request<?> request, VolleyError error) {
+            postResponse(request, Response.error(error));
+        }
+    }
+
+
+    private static class TestRequest extends Request<String> {
+
+        TestRequest(int method, String url) {
+            super(method, url, null);
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+
+
+    private static class KeyedRequest extends TestRequest implements RequestCoalescer.CoalescingRequest {
+        private final String key;
+
+        KeyedRequest(String url, String key) {
+            super(Request.Method.GET, url);
+            this.key = key;
+        }
+
+        @Override
+        public String getCoalescingKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.ferg.awfulapp.network;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.HurlStack;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Checks streaming requests get to read their responses while they're still arriving, using a local
+ * server that sends a page in two halves and won't send the second until the first has been read.
+ */
+public class StreamingHttpStackTest {
+
+    private static final String FIRST_HALF = "<html><body><div class=\"post\">first half</div>\n";
+    private static final String SECOND_HALF = "<div class=\"post\">second half</div></body></html>";
+    private static final byte[] PAGE = (FIRST_HALF + SECOND_HALF).getBytes(StandardCharsets.US_ASCII);
+
+    private HttpServer server;
+    private String url;
+    private final CountDownLatch firstHalfRead = new CountDownLatch(1);
+    private volatile boolean serverWaitedForReader = false;
+    private volatile int status = 200;
+
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/page", exchange -> {
+            // no length, so the response is chunked and the halves go out separately
+            exchange.sendResponseHeaders(status, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(FIRST_HALF.getBytes(StandardCharsets.US_ASCII));
+                body.flush();
+                try {
+                    serverWaitedForReader = firstHalfRead.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                body.write(SECOND_HALF.getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+
+    @Test
+    public void streamingRequest_readsResponseWhileItArrives() throws Exception {
+        PageRequest request = new PageRequest(url, true);
+        HttpResponse response = new StreamingHttpStack(new HurlStack()).executeRequest(request, Collections.emptyMap());
+
+        assertThat(serverWaitedForReader, is(true));
+        assertThat(request.read, is(PAGE));
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.getContent(), is(nullValue()));
+    }
+
+
+    @Test
+    public void otherRequests_passThrough() throws Exception {
+        // nobody reads the first half early, so let the server send everything
+        firstHalfRead.countDown();
+        PageRequest request = new PageRequest(url, false);
+        HttpResponse response = new StreamingHttpStack(new HurlStack()).executeRequest(request, Collections.emptyMap());
+
+        assertThat(request.read, is(nullValue()));
+        assertThat(response.getContent(), is(notNullValue()));
+        try (InputStream content = response.getContent()) {
+            assertThat(readAll(content, null), is(PAGE));
+        }
+    }
+
+
+    @Test
+    public void errorResponses_areNotStreamed() throws Exception {
+        status = 503;
+        firstHalfRead.countDown();
+        PageRequest request = new PageRequest(url, true);
+        HttpResponse response = new StreamingHttpStack(new HurlStack()).executeRequest(request, Collections.emptyMap());
+
+        assertThat(request.read, is(nullValue()));
+        assertThat(response.getStatusCode(), is(503));
+    }
+
+
+    /**
+     * Read everything from [input], counting down [firstHalfRead] once the first half has arrived.
+     */
+    private static byte[] readAll(InputStream input, CountDownLatch firstHalfRead) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            if (firstHalfRead != null && output.size() >= FIRST_HALF.length()) {
+                firstHalfRead.countDown();
+            }
+        }
+        return output.toByteArray();
+    }
+
+
+    private class PageRequest extends Request<Void> implements StreamingHttpStack.StreamingRequest {
+        private final boolean streams;
+        volatile byte[] read = null;
+
+        PageRequest(String url, boolean streams) {
+            super(Method.GET, url, null);
+            this.streams = streams;
+            setRetryPolicy(new DefaultRetryPolicy(10000, 0, 1f));
+        }
+
+        @Override
+        public boolean streamsResponse() {
+            return streams;
+        }
+
+        @Override
+        public void readResponse(@NonNull InputStream content) throws IOException {
+            read = readAll(content, firstHalfRead);
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.ferg.awfulapp.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.StringContains.containsString;
+
+/**
+ * Checks video links are looked up once, stored, and given to posts from the store after that.
+ */
+public class VideoMetadataCacheTest {
+
+    private static final String VIDEO_ID = "123456";
+    private static final String VIDEO_URL = "https://vimeo.com/m/123456";
+
+    private final FakeStore store = new FakeStore();
+    private final Map<String, String> metadata = new HashMap<>();
+    private final List<String> lookups = new ArrayList<>();
+    private final List<String> notified = new ArrayList<>();
+    private final VideoMetadataCache.Listener listener = (videoId, url) -> notified.add(videoId + " " + url);
+
+
+    @Before
+    public void setUp() {
+        metadata.put(VIDEO_ID, VIDEO_URL);
+        init();
+        VideoMetadataCache.addListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        VideoMetadataCache.removeListener(listener);
+    }
+
+    /** (re)start the cache on the same store, running lookups as soon as they're requested */
+    private void init() {
+        VideoMetadataCache.init(store, videoId -> {
+            lookups.add(videoId);
+            return metadata.get(videoId);
+        }, Runnable::run);
+    }
+
+
+    @Test
+    public void miss_looksUpAndStoresTheLink() {
+        assertThat(VideoMetadataCache.vimeoLink(VIDEO_ID), is(nullValue()));
+
+        VideoMetadataCache.request(VIDEO_ID);
+
+        assertThat(lookups.size(), is(1));
+        assertThat(store.links.get(VIDEO_ID), is(VIDEO_URL));
+        assertThat(notified.get(0), is(VIDEO_ID + " " + VIDEO_URL));
+        assertThat(VideoMetadataCache.vimeoLink(VIDEO_ID), is(VIDEO_URL));
+    }
+
+
+    @Test
+    public void hit_isntLookedUpAgain() {
+        VideoMetadataCache.request(VIDEO_ID);
+        VideoMetadataCache.request(VIDEO_ID);
+
+        String placeholder = VideoMetadataCache.placeholderLink(VIDEO_ID).outerHtml();
+        String resolved = VideoMetadataCache.resolveLinks("<p>" + placeholder + "</p>");
+
+        assertThat(lookups.size(), is(1));
+        assertThat(resolved, containsString("href=\"" + VIDEO_URL + "\""));
+    }
+
+
+    @Test
+    public void storedLinks_outliveTheMemoryCache() {
+        VideoMetadataCache.request(VIDEO_ID);
+        init();
+        String placeholder = "<a href=\"https://vimeo.com/" + VIDEO_ID + "\" data-vimeo-id=\"" + VIDEO_ID + "\">https://vimeo.com/" + VIDEO_ID + "</a>";
+
+        assertThat(VideoMetadataCache.resolveLinks(placeholder), containsString("href=\"" + VIDEO_URL + "\""));
+        assertThat(lookups.size(), is(1));
+        assertThat(store.finds, is(1));
+    }
+
+
+    @Test
+    public void unresolvedPlaceholders_areRequested() {
+        String placeholder = VideoMetadataCache.placeholderLink(VIDEO_ID).outerHtml();
+
+        assertThat(VideoMetadataCache.resolveLinks(placeholder), is(placeholder));
+        assertThat(lookups.size(), is(1));
+        assertThat(VideoMetadataCache.vimeoLink(VIDEO_ID), is(VIDEO_URL));
+    }
+
+
+    @Test
+    public void nonWebLinks_areDropped() {
+        metadata.put(VIDEO_ID, "javascript:alert(1)");
+
+        VideoMetadataCache.request(VIDEO_ID);
+
+        assertThat(store.links.isEmpty(), is(true));
+        assertThat(notified.isEmpty(), is(true));
+        assertThat(VideoMetadataCache.vimeoLink(VIDEO_ID), is(nullValue()));
+    }
+
+
+    private static class FakeStore implements VideoMetadataCache.Store {
+        final Map<String, String> links = new HashMap<>();
+        int finds = 0;
+
+        @Override
+        public String find(String videoId) {
+            String link = links.get(videoId);
+            if (link != null) {
+                finds++;
+            }
+            return link;
+        }
+
+        @Override
+        public void save(String videoId, String url) {
+            links.put(videoId, url);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.ferg.awfulapp.provider;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks bodies survive compression, and that the dictionary actually helps with post markup.
+ */
+public class ContentCompressionTest {
+
+    private static final String POST =
+            "<!-- google_ad_section_start -->\n" +
+            "<div class=\"bbc-block\">\n <h4>quote:</h4>\n <blockquote>\n  " +
+            "<a href=\"https://forums.somethingawful.com/showthread.php?goto=post&amp;postid=512345678\" class=\"quote_link\">Someone</a> posted:</a>\n  <br>\n  " +
+            "I can't believe this thread is still going <img src=\"https://fi.somethingawful.com/images/smilies/emot-laffo.gif\" alt=\"\" class=\"img\" border=\"0\" title=\":laffo:\">" +
+            "\n </blockquote>\n</div>\n" +
+            "<br>\nYeah well, it is. <img src=\"https://i.imgur.com/abcdefgl.jpg\" alt=\"\" class=\"img\" border=\"0\"><br>\n<br>\n" +
+            "Caf\u00e9 \u2014 \u201csmart quotes\u201d \ud83d\ude00 and &amp; an ampersand<br>\n" +
+            "<p class=\"editedby\"><span>Poster fucked around with this message at 12:34 on Jan 1, 2024</span></p>\n" +
+            "<!-- google_ad_section_end -->";
+
+
+    @Test
+    public void roundTrip() {
+        assertRoundTrip(POST);
+        assertRoundTrip("");
+        assertRoundTrip("x");
+        StringBuilder longPost = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            longPost.append(POST).append(i);
+        }
+        assertRoundTrip(longPost.toString());
+    }
+
+
+    @Test
+    public void dictionaryShrinksPosts() {
+        byte[] raw = POST.getBytes(StandardCharsets.UTF_8);
+        int compressed = ContentCompression.compress(POST).length;
+        assertThat(compressed, lessThan(raw.length / 2));
+        assertThat(compressed, lessThan(deflatedWithoutDictionary(raw)));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decompress_rejectsUnknownFormat() {
+        byte[] compressed = ContentCompression.compress(POST);
+        compressed[0] = 99;
+        ContentCompression.decompress(compressed);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decompress_rejectsTruncatedData() {
+        byte[] compressed = ContentCompression.compress(POST);
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        ContentCompression.decompress(truncated);
+    }
+
+
+    private static void assertRoundTrip(String content) {
+        assertThat(ContentCompression.decompress(ContentCompression.compress(content)), is(content));
+    }
+
+
+    private static int deflatedWithoutDictionary(byte[] raw) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.size();
+    }
+}
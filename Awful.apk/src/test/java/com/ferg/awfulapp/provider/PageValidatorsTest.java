@@ -0,0 +1,187 @@
+package com.ferg.awfulapp.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Runs the page validator queries, and the cache's thread eviction and listing refreshes, against
+ * the app's schema in an in-memory SQLite database.
+ */
+public class PageValidatorsTest {
+
+    private static final byte[] HASH = {1, 2, 3, 4};
+
+    private Connection db;
+
+
+    @Before
+    public void createSchema() throws SQLException {
+        db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = db.createStatement()) {
+            for (String table : new String[]{
+                    DatabaseHelper.CREATE_POST_TABLE, DatabaseHelper.CREATE_THREAD_CACHE_TABLE,
+                    DatabaseHelper.CREATE_POST_SEARCH_TABLE, DatabaseHelper.CREATE_PAGE_VALIDATORS_TABLE,
+                    DatabaseHelper.CREATE_THREAD_TABLE, DatabaseHelper.CREATE_UCP_TABLE}) {
+                statement.execute(table);
+            }
+        }
+    }
+
+
+    @After
+    public void closeDatabase() throws SQLException {
+        db.close();
+    }
+
+
+    @Test
+    public void savedValidators_areFound() throws SQLException {
+        save("thread/10/1", "url-a", 10, "\"abc\"", "Sun, 18 Oct 2026 12:00:00 GMT", HASH);
+        save("forum/5/1", "url-b", 0, null, null, null);
+
+        PageValidators thread = find("thread/10/1", "url-a");
+        assertThat(thread.etag, is("\"abc\""));
+        assertThat(thread.lastModified, is("Sun, 18 Oct 2026 12:00:00 GMT"));
+        assertThat(thread.contentHash, is(HASH));
+        assertThat(thread.hasHeaders(), is(true));
+
+        PageValidators forum = find("forum/5/1", "url-b");
+        assertThat(forum.contentHash, is(nullValue()));
+        assertThat(forum.hasHeaders(), is(false));
+        assertThat(threadIdOf("forum/5/1"), is(nullValue()));
+    }
+
+
+    @Test
+    public void validators_onlyMatchTheirSignature() throws SQLException {
+        save("thread/10/1", "url-a", 10, "\"abc\"", null, HASH);
+        assertThat(find("thread/10/1", "url-b"), is(nullValue()));
+
+        // the same page written by a different request replaces them
+        save("thread/10/1", "url-b", 10, null, null, HASH);
+        assertThat(find("thread/10/1", "url-a"), is(nullValue()));
+        assertThat(find("thread/10/1", "url-b"), is(notNullValue()));
+    }
+
+
+    @Test
+    public void evictingAThread_dropsItsValidators() throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            statement.execute("INSERT INTO posts (_id, thread_id, post_index) VALUES (1, 10, 1), (2, 10, 41), (3, 20, 1)");
+            statement.execute("INSERT INTO thread_cache (_id, last_read) VALUES (10, 0), (20, 0)");
+        }
+        save("thread/10/1", "url-a", 10, null, null, HASH);
+        save("thread/10/2", "url-b", 10, null, null, HASH);
+        save("thread/20/1", "url-c", 20, null, null, HASH);
+        save("forum/5/1", "url-d", 0, null, null, HASH);
+
+        for (String sql : CacheManager.EVICT_THREAD) {
+            try (PreparedStatement statement = db.prepareStatement(sql)) {
+                statement.setLong(1, 10);
+                statement.execute();
+            }
+        }
+
+        assertThat(find("thread/10/1", "url-a"), is(nullValue()));
+        assertThat(find("thread/10/2", "url-b"), is(nullValue()));
+        assertThat(find("thread/20/1", "url-c"), is(notNullValue()));
+        assertThat(find("forum/5/1", "url-d"), is(notNullValue()));
+        assertThat(count("SELECT COUNT(*) FROM posts WHERE thread_id=10"), is(0));
+        assertThat(count("SELECT COUNT(*) FROM posts WHERE thread_id=20"), is(1));
+    }
+
+
+    @Test
+    public void unchangedListings_onlyRefreshTheirOwnPage() throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            statement.execute("INSERT INTO threads (_id, forum_id, thread_index, timestamp_row_update) VALUES" +
+                    " (1, 5, 1, 'old'), (2, 5, 2, 'old'), (3, 5, 81, 'old'), (4, 6, 1, 'old'), (5, 7, 1, 'old')");
+            statement.execute("INSERT INTO ucp_thread (_id, thread_index, timestamp_row_update) VALUES (5, 1, 'old'), (4, 81, 'old')");
+        }
+
+        refresh(CacheManager.REFRESH_FORUM_PAGE, "new", 5, 1, 81);
+        assertThat(count("SELECT COUNT(*) FROM threads WHERE timestamp_row_update='new'"), is(2));
+        assertThat(count("SELECT COUNT(*) FROM threads WHERE timestamp_row_update='new' AND _id IN (1, 2)"), is(2));
+
+        for (String sql : CacheManager.REFRESH_BOOKMARKS_PAGE) {
+            refresh(sql, "newer", 1, 81);
+        }
+        assertThat(count("SELECT COUNT(*) FROM ucp_thread WHERE timestamp_row_update='newer' AND _id=5"), is(1));
+        assertThat(count("SELECT COUNT(*) FROM ucp_thread WHERE timestamp_row_update='old' AND _id=4"), is(1));
+        assertThat(count("SELECT COUNT(*) FROM threads WHERE timestamp_row_update='newer'"), is(1));
+        assertThat(count("SELECT COUNT(*) FROM threads WHERE timestamp_row_update='newer' AND _id=5"), is(1));
+    }
+
+
+    private void refresh(String sql, Object... args) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            statement.execute();
+        }
+    }
+
+
+    /**
+     * Store some validators the way {@link PageValidators#save} does.
+     */
+    private void save(String key, String signature, int threadId, String etag, String lastModified, byte[] hash) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(PageValidators.SAVE_STATEMENT)) {
+            statement.setString(1, key);
+            statement.setString(2, signature);
+            statement.setObject(3, threadId > 0 ? threadId : null);
+            statement.setString(4, etag);
+            statement.setString(5, lastModified);
+            statement.setBytes(6, hash);
+            statement.setString(7, "2026-10-18 12:00:00.0");
+            statement.execute();
+        }
+    }
+
+
+    /**
+     * Read some validators the way {@link PageValidators#find} does.
+     */
+    private PageValidators find(String key, String signature) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(PageValidators.FIND_QUERY)) {
+            statement.setString(1, key);
+            statement.setString(2, signature);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? new PageValidators(results.getString(1), results.getString(2), results.getBytes(3)) : null;
+            }
+        }
+    }
+
+
+    private Integer threadIdOf(String key) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement("SELECT " + PageValidators.THREAD_ID +
+                " FROM " + DatabaseHelper.TABLE_PAGE_VALIDATORS + " WHERE " + PageValidators.KEY + "=?")) {
+            statement.setString(1, key);
+            try (ResultSet results = statement.executeQuery()) {
+                results.next();
+                return (Integer) results.getObject(1);
+            }
+        }
+    }
+
+
+    private int count(String sql) throws SQLException {
+        try (Statement statement = db.createStatement(); ResultSet results = statement.executeQuery(sql)) {
+            return results.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.ferg.awfulapp.provider;
+
+import com.ferg.awfulapp.thread.AwfulEmote;
+import com.ferg.awfulapp.thread.AwfulForum;
+import com.ferg.awfulapp.thread.AwfulMessage;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_DRAFTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FORUM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PAGE_VALIDATORS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_CACHE;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_USERS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_VIDEO_LINKS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+
+/**
+ * Builds the app's schema in an in-memory SQLite database, and checks the queries the app runs
+ * through {@link AwfulProvider} use an index instead of scanning a whole table.
+ * <p>
+ * The queries here are written out the way the provider's query builder and the database end up
+ * running them, so if you add or change a query somewhere, update it here too. Queries that read a
+ * whole table anyway (like the emote list, and searching it) aren't checked.
+ */
+public class QueryPlanTest {
+
+    private static final String POST_JOIN = TABLE_POSTS + " LEFT OUTER JOIN " + TABLE_USERS +
+            " ON " + TABLE_POSTS + "." + AwfulPost.USER_ID + "=" + TABLE_USERS + "." + AwfulPost.ID;
+    private static final String THREAD_JOIN = TABLE_THREADS + " LEFT OUTER JOIN " + TABLE_FORUM +
+            " ON " + TABLE_THREADS + "." + AwfulThread.FORUM_ID + "=" + TABLE_FORUM + "." + AwfulForum.ID;
+    private static final String UCP_JOIN = TABLE_UCP_THREADS + ", " + TABLE_THREADS +
+            " ON " + TABLE_UCP_THREADS + "." + AwfulThread.ID + "=" + TABLE_THREADS + "." + AwfulThread.ID;
+    private static final String PM_JOIN = TABLE_PM + " LEFT OUTER JOIN " + TABLE_DRAFTS +
+            " ON " + TABLE_PM + "." + AwfulMessage.ID + "=" + TABLE_DRAFTS + "." + AwfulMessage.ID;
+    private static final String OLD_ROWS = UPDATED_TIMESTAMP + " < datetime('now','-7 days')";
+
+    private Connection db;
+
+
+    @Before
+    public void createSchema() throws SQLException {
+        db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = db.createStatement()) {
+            for (String table : new String[]{
+                    DatabaseHelper.CREATE_FORUM_TABLE, DatabaseHelper.CREATE_THREAD_TABLE, DatabaseHelper.CREATE_UCP_TABLE,
+                    DatabaseHelper.CREATE_POST_TABLE, DatabaseHelper.CREATE_EMOTE_TABLE, DatabaseHelper.CREATE_PM_TABLE,
+                    DatabaseHelper.CREATE_DRAFT_TABLE, DatabaseHelper.CREATE_THREAD_DRAFT_TABLE, DatabaseHelper.CREATE_THREAD_CACHE_TABLE,
+                    DatabaseHelper.CREATE_USER_TABLE, DatabaseHelper.CREATE_PAGE_VALIDATORS_TABLE,
+                    DatabaseHelper.CREATE_VIDEO_LINKS_TABLE}) {
+                statement.execute(table);
+            }
+            for (String index : DatabaseHelper.CREATE_INDEXES) {
+                statement.execute(index);
+            }
+        }
+    }
+
+
+    @After
+    public void closeDatabase() throws SQLException {
+        db.close();
+    }
+
+
+    @Test
+    public void postQueries_useIndexes() throws SQLException {
+        // a page of posts and their authors, without their bodies (ThreadDisplayFragment)
+        assertNoFullScans("SELECT * FROM " + POST_JOIN +
+                " WHERE " + AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?" +
+                " ORDER BY " + AwfulPost.POST_INDEX + " ASC");
+        // the bodies for a page, read while it's rendered (PostBodyStream)
+        assertNoFullScans("SELECT " + AwfulPost.ID + ", " + AwfulPost.CONTENT + " FROM " + TABLE_POSTS +
+                " WHERE " + AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?" +
+                " ORDER BY " + AwfulPost.POST_INDEX + " ASC");
+        // the stored content hashes for a page (ForumParsing)
+        assertNoFullScans("SELECT " + AwfulPost.ID + ", " + AwfulPost.CONTENT_HASH + " FROM " + TABLE_POSTS +
+                " WHERE " + AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?" +
+                " AND " + AwfulPost.CONTENT_HASH + " IS NOT NULL");
+        // writing posts in a bulk insert, and clearing out old ones (BulkRowWriter)
+        assertNoFullScans("UPDATE " + TABLE_POSTS + " SET " + AwfulPost.DATE + "=? WHERE " + AwfulPost.ID + "=?");
+        assertNoFullScans("UPDATE " + TABLE_USERS + " SET " + AwfulPost.USERNAME + "=? WHERE " + AwfulPost.ID + "=?");
+        assertNoFullScans("DELETE FROM " + TABLE_POSTS +
+                " WHERE " + AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<=?" +
+                " AND " + AwfulPost.ID + " NOT IN (1,2,3)");
+        // marking posts read or unread (MarkLastReadRequest, MarkUnreadRequest)
+        assertNoFullScans("UPDATE " + TABLE_POSTS + " SET " + AwfulPost.PREVIOUSLY_READ + "=?" +
+                " WHERE " + AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + " >?");
+        assertNoFullScans("UPDATE " + TABLE_POSTS + " SET " + AwfulPost.PREVIOUSLY_READ + "=? WHERE " + AwfulPost.THREAD_ID + "=?");
+    }
+
+
+    @Test
+    public void threadQueries_useIndexes() throws SQLException {
+        // a page of threads in a forum, in either order (ForumDisplayFragment)
+        String forumPage = "SELECT *, " + AwfulThread.UNREADCOUNT + " > 0 AS " + AwfulThread.HAS_NEW_POSTS + " FROM " + THREAD_JOIN +
+                " WHERE " + AwfulThread.FORUM_ID + "=? AND " + AwfulThread.INDEX + ">=? AND " + AwfulThread.INDEX + "<?";
+        assertNoFullScans(forumPage + " ORDER BY " + AwfulThread.INDEX);
+        assertNoFullScans(forumPage + " ORDER BY " + AwfulThread.HAS_NEW_POSTS + " DESC, " + AwfulThread.INDEX);
+        // a single thread
+        assertNoFullScans("SELECT * FROM " + THREAD_JOIN + " WHERE " + TABLE_THREADS + "." + AwfulThread.ID + "=?");
+        assertNoFullScans("UPDATE " + TABLE_THREADS + " SET " + AwfulThread.UNREADCOUNT + "=? WHERE " + AwfulThread.ID + "=?");
+        assertNoFullScans("UPDATE " + TABLE_UCP_THREADS + " SET " + AwfulThread.INDEX + "=? WHERE " + AwfulThread.ID + "=?");
+        // clearing out a page before storing it again (AwfulForum)
+        assertNoFullScans("DELETE FROM " + TABLE_THREADS +
+                " WHERE " + AwfulThread.FORUM_ID + "=? AND " + AwfulThread.INDEX + ">=? AND " + AwfulThread.INDEX + "<?");
+    }
+
+
+    @Test
+    public void bookmarkQueries_useIndexes() throws SQLException {
+        String bookmarksPage = "SELECT * FROM " + UCP_JOIN +
+                " WHERE " + TABLE_UCP_THREADS + "." + AwfulThread.INDEX + ">=? AND " + TABLE_UCP_THREADS + "." + AwfulThread.INDEX + "<?";
+        assertNoFullScans(bookmarksPage + " ORDER BY " + AwfulThread.INDEX);
+        assertNoFullScans("DELETE FROM " + TABLE_UCP_THREADS + " WHERE " + AwfulThread.INDEX + ">=? AND " + AwfulThread.INDEX + "<?");
+        assertNoFullScans("DELETE FROM " + TABLE_UCP_THREADS + " WHERE " + AwfulThread.ID + "=?");
+    }
+
+
+    @Test
+    public void otherQueries_useIndexes() throws SQLException {
+        // replacing an emote, and looking up specific ones (EmoteFragment)
+        assertNoFullScans("DELETE FROM " + TABLE_EMOTES + " WHERE " + AwfulEmote.TEXT + "=?");
+        assertNoFullScans("UPDATE " + TABLE_EMOTES + " SET " + AwfulEmote.URL + "=? WHERE " + AwfulEmote.ID + "=?");
+        assertNoFullScans("SELECT * FROM " + TABLE_EMOTES +
+                " WHERE " + AwfulEmote.TEXT + "=? OR " + AwfulEmote.TEXT + "=? ORDER BY " + AwfulEmote.INDEX);
+        // a PM folder, and a single PM with its reply draft
+        assertNoFullScans("SELECT * FROM " + PM_JOIN + " WHERE " + AwfulMessage.FOLDER + "=? ORDER BY " + TABLE_PM + "." + AwfulMessage.ID + " DESC");
+        assertNoFullScans("SELECT * FROM " + PM_JOIN + " WHERE " + TABLE_PM + "." + AwfulMessage.ID + "=?");
+        // specific forums (ForumRepository)
+        assertNoFullScans("SELECT * FROM " + TABLE_FORUM + " WHERE " + AwfulForum.ID + " IN (?,?,?) ORDER BY " + AwfulForum.INDEX);
+        // the validators for a stored page (PageValidators)
+        assertNoFullScans(PageValidators.FIND_QUERY);
+        // a stored video link (VideoLinks)
+        assertNoFullScans("SELECT " + VideoLinks.URL + " FROM " + TABLE_VIDEO_LINKS + " WHERE " + VideoLinks.VIDEO_ID + "=?");
+    }
+
+
+    @Test
+    public void cacheManagement_usesIndexes() throws SQLException {
+        // the least recently read thread, and evicting it (finding never-read threads has to read a posts index
+        // anyway, but posts_thread_updated means it doesn't have to read the posts themselves)
+        assertNoFullScans("SELECT " + CacheManager.THREAD_ID + " FROM " + TABLE_THREAD_CACHE +
+                " WHERE " + CacheManager.LAST_READ + "<? ORDER BY " + CacheManager.LAST_READ + " LIMIT 1");
+        // (apart from clearing its posts out of the search index, which isn't part of the schema here)
+        for (String statement : Arrays.asList(CacheManager.EVICT_THREAD).subList(1, CacheManager.EVICT_THREAD.length)) {
+            assertNoFullScans(statement);
+        }
+        // clearing out old listings
+        assertNoFullScans("DELETE FROM " + TABLE_THREADS + " WHERE " + OLD_ROWS + " AND " + AwfulThread.ID +
+                " NOT IN (SELECT " + AwfulPost.THREAD_ID + " FROM " + TABLE_POSTS + ")");
+        for (String table : new String[]{TABLE_UCP_THREADS, TABLE_EMOTES, TABLE_VIDEO_LINKS}) {
+            assertNoFullScans("DELETE FROM " + table + " WHERE " + OLD_ROWS);
+        }
+        assertNoFullScans("DELETE FROM " + TABLE_PAGE_VALIDATORS + " WHERE " + OLD_ROWS + " AND " + PageValidators.THREAD_ID + " IS NULL");
+        // keeping unchanged listings from being cleared out
+        assertNoFullScans(CacheManager.REFRESH_FORUM_PAGE);
+        for (String statement : CacheManager.REFRESH_BOOKMARKS_PAGE) {
+            assertNoFullScans(statement);
+        }
+    }
+
+
+    /**
+     * Check the plan for a query doesn't include any full table scans.
+     */
+    private void assertNoFullScans(String sql) throws SQLException {
+        List<String> scans = new ArrayList<>();
+        try (PreparedStatement statement = db.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet plan = statement.executeQuery()) {
+            while (plan.next()) {
+                String step = plan.getString("detail");
+                // a search uses an index, a scan reads every row (or every entry of an index)
+                if (step.startsWith("SCAN ") && !step.startsWith("SCAN CONSTANT ROW")) {
+                    scans.add(step);
+                }
+            }
+        }
+        assertThat("full scans in: " + sql, scans, empty());
+    }
+}
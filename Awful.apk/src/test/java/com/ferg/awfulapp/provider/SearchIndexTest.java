@@ -0,0 +1,256 @@
+package com.ferg.awfulapp.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POST_SEARCH;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Runs the search queries against the app's schema in an in-memory SQLite database, and checks
+ * how queries are built and results ranked.
+ */
+public class SearchIndexTest {
+
+    private static final String QUOTE = "<div class=\"bbc-block\"><h4>quote:</h4><blockquote>I love kittens</blockquote></div>";
+    private static final String CODE = "<div class=\"bbc-block code\"><h5>code:</h5><pre>kittens.pet()</pre></div>";
+
+    private Connection db;
+
+
+    @Before
+    public void createSchema() throws SQLException {
+        db = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = db.createStatement()) {
+            for (String table : new String[]{
+                    DatabaseHelper.CREATE_FORUM_TABLE, DatabaseHelper.CREATE_THREAD_TABLE, DatabaseHelper.CREATE_POST_TABLE,
+                    DatabaseHelper.CREATE_USER_TABLE, DatabaseHelper.CREATE_PM_TABLE, DatabaseHelper.CREATE_POST_SEARCH_TABLE, DatabaseHelper.CREATE_PM_SEARCH_TABLE}) {
+                statement.execute(table);
+            }
+            statement.execute("INSERT INTO forum (_id, title) VALUES (5, 'General Bullshit')");
+            statement.execute("INSERT INTO threads (_id, forum_id, title) VALUES (10, 5, 'Cat thread')");
+        }
+        addPost(1, 1, "alice", "Kittens are great, all kittens, every one of the <b>kittens</b>");
+        addPost(2, 2, "bob", QUOTE + "Me too, but this post is mostly about something else entirely, and it goes on " +
+                "for quite a while about dogs and other animals that aren't kittens at all");
+        addPost(3, 3, "carol", QUOTE + "Agreed");
+        addPost(4, 41, "dave", CODE + "does this work?");
+        addPm(7, "erin", "Kittens for sale", "Do you want one? 1 < 2");
+    }
+
+
+    @After
+    public void closeDatabase() throws SQLException {
+        db.close();
+    }
+
+
+    @Test
+    public void plainText_dropsMarkupAndQuotes() {
+        assertThat(SearchIndex.plainText("<b>Hello</b> <i>there</i>"), is("Hello there"));
+        assertThat(SearchIndex.plainText(QUOTE + "Agreed"), is("Agreed"));
+        assertThat(SearchIndex.plainText(CODE), containsString("kittens.pet()"));
+        assertThat(SearchIndex.plainText(ContentCompression.compress("<p>squished</p>")), is("squished"));
+        assertThat(SearchIndex.plainText(null), is(""));
+    }
+
+
+    @Test
+    public void toMatchQuery_quotesEverything() {
+        assertThat(SearchIndex.toMatchQuery("cats dogs"), is("\"cats\" \"dogs\""));
+        assertThat(SearchIndex.toMatchQuery("\"cute cats\" dog*"), is("\"cute cats\" \"dog*\""));
+        assertThat(SearchIndex.toMatchQuery(" username:\"Some Guy\" cats "), is("username:Some username:Guy \"cats\""));
+        assertThat(SearchIndex.toMatchQuery("username:someguy"), is("username:someguy"));
+        // syntax the user didn't mean as syntax
+        assertThat(SearchIndex.toMatchQuery("cats OR -dogs"), is("\"cats\" \"OR\" \"-dogs\""));
+        assertThat(SearchIndex.toMatchQuery("\"unclosed quote"), is("\"unclosed quote\""));
+        // the site's other filters don't apply to the cache
+        assertThat(SearchIndex.toMatchQuery("userid:1234 threadid:5678 intitle:\"cats\" cats"), is("\"cats\""));
+        assertThat(SearchIndex.toMatchQuery("  - * \"\" "), is(nullValue()));
+    }
+
+
+    @Test
+    public void postSearch_ranksBestMatchFirst() throws SQLException {
+        Map<Long, Double> results = searchPosts("kittens");
+        // quoted kittens don't count, but the ones in code do
+        assertThat(results.keySet(), contains(1L, 4L, 2L));
+        // one mention in a short post beats one in a long post
+        assertThat(results.get(4L), greaterThan(results.get(2L)));
+        assertThat(searchPosts("username:\"bob\" kittens").keySet(), contains(2L));
+        assertThat(searchPosts("kitt*").keySet(), contains(1L, 4L, 2L));
+    }
+
+
+    @Test
+    public void postSearch_ranksEveryMatch() throws SQLException {
+        // enough weak matches to fill the results several times over, all found before the best one
+        for (int i = 0; i < 600; i++) {
+            addPost(100 + i, 100 + i, "spammer" + i, "kittens " + String.join(" ", Collections.nCopies(50, "filler")));
+        }
+        addPost(1000, 1000, "fan", "kittens kittens kittens");
+
+        Map<Long, Double> results = searchPosts("kittens");
+        assertThat(results.size(), is(604));
+        assertThat(results.keySet().iterator().next(), is(1000L));
+    }
+
+
+    @Test
+    public void postSearch_filtersByForum() throws SQLException {
+        assertThat(searchPosts("kittens", Collections.singleton(5)).keySet(), contains(1L, 4L, 2L));
+        assertThat(searchPosts("kittens", Collections.singleton(6)).keySet(), is(empty()));
+    }
+
+
+    @Test
+    public void postSearch_returnsPostDetails() throws SQLException {
+        // only the chosen matches get loaded
+        String query = SearchIndex.POST_SEARCH_QUERY + SearchIndex.rowsIn(TABLE_POST_SEARCH, Arrays.asList(1L, 3L));
+        try (PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setString(1, SearchIndex.toMatchQuery("kittens"));
+            try (ResultSet result = statement.executeQuery()) {
+                assertThat(result.next(), is(true));
+                assertThat(result.getLong(1), is(1L));
+                assertThat(SearchIndex.highlight(result.getString(2)), containsString("<b>kittens</b>"));
+                assertThat(result.getString(3), is("alice"));
+                assertThat(result.getInt(5), is(10));
+                assertThat(result.getInt(6), is(1));
+                assertThat(result.getString(7), is("Cat thread"));
+                assertThat(result.getInt(8), is(5));
+                assertThat(result.getString(9), is("General Bullshit"));
+                assertThat(result.next(), is(false));
+            }
+        }
+    }
+
+
+    @Test
+    public void postSearch_showsAuthorsWithoutAnId() throws SQLException {
+        // if the author's ID couldn't be parsed, their details are stored on the post
+        try (Statement statement = db.createStatement()) {
+            statement.execute("INSERT INTO posts (_id, thread_id, post_index, username, content) VALUES (5, 10, 5, 'frank', 'puppies')");
+            statement.execute("INSERT INTO " + TABLE_POST_SEARCH + " (rowid, username, body) VALUES (5, 'frank', 'puppies')");
+        }
+        String query = SearchIndex.POST_SEARCH_QUERY + SearchIndex.rowsIn(TABLE_POST_SEARCH, Arrays.asList(1L, 5L));
+        try (PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setString(1, SearchIndex.toMatchQuery("puppies"));
+            try (ResultSet result = statement.executeQuery()) {
+                assertThat(result.next(), is(true));
+                assertThat(result.getLong(1), is(5L));
+                assertThat(result.getString(3), is("frank"));
+            }
+        }
+    }
+
+
+    @Test
+    public void pmSearch_escapesSnippet() throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(SearchIndex.PM_MATCH_QUERY)) {
+            statement.setString(1, SearchIndex.toMatchQuery("want"));
+            try (ResultSet result = statement.executeQuery()) {
+                assertThat(result.next(), is(true));
+                assertThat(result.getLong(1), is(7L));
+                assertThat(SearchIndex.rank(SearchIndex.matchInfo(result.getBytes(2)), SearchIndex.PM_WEIGHTS), greaterThan(0.0));
+            }
+        }
+        String query = SearchIndex.PM_SEARCH_QUERY + SearchIndex.rowsIn(TABLE_PM_SEARCH, Collections.singletonList(7L));
+        try (PreparedStatement statement = db.prepareStatement(query)) {
+            statement.setString(1, SearchIndex.toMatchQuery("want"));
+            try (ResultSet result = statement.executeQuery()) {
+                assertThat(result.next(), is(true));
+                assertThat(result.getLong(1), is(7L));
+                String snippet = SearchIndex.highlight(result.getString(2));
+                assertThat(snippet, containsString("<b>want</b>"));
+                assertThat(snippet, containsString("1 &lt; 2"));
+                assertThat(snippet, not(containsString("1 < 2")));
+                assertThat(result.getString(3), is("erin"));
+                assertThat(result.getString(5), is("Kittens for sale"));
+            }
+        }
+    }
+
+
+    /**
+     * Search the posts, returning each match's ID and score, best first.
+     */
+    private Map<Long, Double> searchPosts(String query) throws SQLException {
+        return searchPosts(query, Collections.emptySet());
+    }
+
+    private Map<Long, Double> searchPosts(String query, Set<Integer> forumIds) throws SQLException {
+        Map<Long, Double> scores = new LinkedHashMap<>();
+        try (PreparedStatement statement = db.prepareStatement(SearchIndex.POST_MATCH_QUERY + SearchIndex.forumFilter(forumIds))) {
+            statement.setString(1, SearchIndex.toMatchQuery(query));
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    scores.put(result.getLong(1), SearchIndex.rank(SearchIndex.matchInfo(result.getBytes(2)), SearchIndex.POST_WEIGHTS));
+                }
+            }
+        }
+        Map<Long, Double> ranked = new LinkedHashMap<>();
+        scores.entrySet().stream()
+                .sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
+                .forEach(entry -> ranked.put(entry.getKey(), entry.getValue()));
+        return ranked;
+    }
+
+
+    private void addPost(long id, int index, String username, String content) throws SQLException {
+        // every post has a different author here, so they can share IDs
+        try (PreparedStatement post = db.prepareStatement("INSERT INTO posts (_id, thread_id, post_index, user_id, content) VALUES (?, 10, ?, ?, ?)");
+             PreparedStatement user = db.prepareStatement("INSERT INTO users (_id, username) VALUES (?, ?)");
+             PreparedStatement search = db.prepareStatement("INSERT INTO " + TABLE_POST_SEARCH + " (rowid, username, body) VALUES (?, ?, ?)")) {
+            post.setLong(1, id);
+            post.setInt(2, index);
+            post.setLong(3, id);
+            post.setString(4, content);
+            post.execute();
+            user.setLong(1, id);
+            user.setString(2, username);
+            user.execute();
+            search.setLong(1, id);
+            search.setString(2, username);
+            search.setString(3, SearchIndex.plainText(content));
+            search.execute();
+        }
+    }
+
+
+    private void addPm(long id, String author, String title, String content) throws SQLException {
+        try (PreparedStatement pm = db.prepareStatement("INSERT INTO private_messages (_id, author, title, content) VALUES (?, ?, ?, ?)");
+             PreparedStatement search = db.prepareStatement("INSERT INTO " + TABLE_PM_SEARCH + " (rowid, username, title, body) VALUES (?, ?, ?, ?)")) {
+            pm.setLong(1, id);
+            pm.setString(2, author);
+            pm.setString(3, title);
+            pm.setString(4, content);
+            pm.execute();
+            search.setLong(1, id);
+            search.setString(2, author);
+            search.setString(3, title);
+            search.setString(4, SearchIndex.plainText(content));
+            search.execute();
+        }
+    }
+}
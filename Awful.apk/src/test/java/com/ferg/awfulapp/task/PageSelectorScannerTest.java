@@ -0,0 +1,112 @@
+package com.ferg.awfulapp.task;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Checks the byte scanner finds and strips the same page selector blocks the old regex did, and
+ * that stripping a page line by line as it's read does the same.
+ */
+public class PageSelectorScannerTest {
+
+    private static final Charset CHARSET = Charset.forName("windows-1252");
+
+    private static final String SELECTOR =
+            "<select data-url=\"showthread.php?threadid=123&amp;perpage=40\">" +
+            "<option value=\"1\">1</option><option value=\"2\" selected>2</option><option value=\"3\"> 3 </option></select>";
+
+    private static final String PAGE =
+            "<html><body><div class=\"pages top\">" + SELECTOR + "</div>\n" +
+            "<p>caf\u00e9 \u2026 posts</p>\n" +
+            "<div class=\"pages bottom\">" + SELECTOR + "</div></body></html>";
+
+
+    @Test
+    public void scan_readsPageNumbers() {
+        PageSelectorScanner scanner = new PageSelectorScanner(PAGE.getBytes(CHARSET));
+
+        assertThat(scanner.getBlockCount(), is(2));
+        assertThat(scanner.getSelectedPage(), is(2));
+        assertThat(scanner.getLastPage(), is(3));
+    }
+
+
+    @Test
+    public void strippedStream_matchesRegexReplace() throws IOException {
+        PageSelectorScanner scanner = new PageSelectorScanner(PAGE.getBytes(CHARSET));
+        String expected = PAGE.replaceAll("<select data-url=\"\\S*\\.php.*</select>", "");
+
+        assertThat(new String(readAll(scanner.strippedStream()), CHARSET), is(expected));
+    }
+
+
+    @Test
+    public void scan_ignoresNonPageSelectors() throws IOException {
+        String page = "<form><select data-url=\"nowhere\"><option value=\"1\" selected>1</option></select></form>";
+        PageSelectorScanner scanner = new PageSelectorScanner(page.getBytes(CHARSET));
+
+        assertThat(scanner.getBlockCount(), is(0));
+        assertThat(scanner.getSelectedPage(), is(nullValue()));
+        assertThat(scanner.getLastPage(), is(nullValue()));
+        assertThat(new String(readAll(scanner.strippedStream()), CHARSET), is(page));
+    }
+
+
+    @Test
+    public void stripper_matchesScannerOnSlowStream() throws IOException {
+        byte[] page = PAGE.getBytes(CHARSET);
+        PageSelectorScanner scanner = new PageSelectorScanner(page);
+        PageSelectorStripper stripper = new PageSelectorStripper(new TrickleStream(page));
+
+        assertThat(readAll(stripper), is(readAll(scanner.strippedStream())));
+        assertThat(stripper.getBlockCount(), is(2));
+        assertThat(stripper.getSelectedPage(), is(2));
+        assertThat(stripper.getLastPage(), is(3));
+    }
+
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+
+    /**
+     * Hands out a few bytes at a time, like a slow connection.
+     */
+    private static class TrickleStream extends InputStream {
+        private final byte[] data;
+        private int pos = 0;
+
+        TrickleStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) return -1;
+            int count = Math.min(Math.min(len, 5), data.length - pos);
+            System.arraycopy(data, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+}
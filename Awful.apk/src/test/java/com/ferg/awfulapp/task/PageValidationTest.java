@@ -0,0 +1,180 @@
+package com.ferg.awfulapp.task;
+
+import com.ferg.awfulapp.provider.PageValidators;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Checks which responses for a stored page get skipped, and which validators are kept for next time.
+ */
+public class PageValidationTest {
+
+    private static final AwfulRequest.CachedPage PAGE = new AwfulRequest.CachedPage("thread/1234/2", "", 1234);
+    private static final String SIGNATURE = "https://forums.somethingawful.com/showthread.php?threadid=1234&pagenumber=2 ";
+    private static final byte[] BODY = "<html>a page of posts</html>".getBytes(StandardCharsets.UTF_8);
+
+    private final FakeStore store = new FakeStore();
+
+
+    private PageValidation validation(boolean isStored) {
+        return new PageValidation(PAGE, SIGNATURE, store, () -> isStored);
+    }
+
+    private static Map<String, String> headers(String... namesAndValues) {
+        // Volley's response headers ignore case
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return headers;
+    }
+
+
+    @Test
+    public void storedHeaders_makeTheRequestConditional() {
+        store.put(SIGNATURE, new PageValidators("\"abc\"", "Sat, 17 Oct 2026 12:00:00 GMT", sha1(BODY)));
+        PageValidation validation = validation(true);
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        validation.addHeaders(requestHeaders);
+
+        assertThat(requestHeaders.get("If-None-Match"), is("\"abc\""));
+        assertThat(requestHeaders.get("If-Modified-Since"), is("Sat, 17 Oct 2026 12:00:00 GMT"));
+        // the site will tell us if it's changed, so the response doesn't need buffering to check its hash
+        assertThat(validation.getStoredHash(), is(nullValue()));
+    }
+
+
+    @Test
+    public void notModified_isUnchanged_andKeepsTheStoredValidators() {
+        store.put(SIGNATURE, new PageValidators("\"abc\"", null, sha1(BODY)));
+        PageValidation validation = validation(true);
+        validation.addHeaders(new HashMap<>());
+
+        assertThat(validation.isUnchanged(true, new byte[0]), is(true));
+        validation.save(true, headers("Date", "Sun, 18 Oct 2026 12:00:00 GMT"));
+
+        PageValidators saved = store.saved.get(SIGNATURE);
+        assertThat(saved.etag, is("\"abc\""));
+        assertThat(saved.contentHash, is(sha1(BODY)));
+        assertThat(store.savedThreadId, is(1234));
+    }
+
+
+    @Test
+    public void notModified_takesNewValidators() {
+        store.put(SIGNATURE, new PageValidators("\"abc\"", null, sha1(BODY)));
+        PageValidation validation = validation(true);
+
+        assertThat(validation.isUnchanged(true, new byte[0]), is(true));
+        validation.save(true, headers("etag", "\"def\""));
+
+        assertThat(store.saved.get(SIGNATURE).etag, is("\"def\""));
+    }
+
+
+    @Test
+    public void sameHash_isUnchanged() {
+        store.put(SIGNATURE, new PageValidators(null, null, sha1(BODY)));
+        PageValidation validation = validation(true);
+
+        assertThat(validation.getStoredHash(), is(sha1(BODY)));
+        assertThat(validation.isUnchanged(false, BODY.clone()), is(true));
+    }
+
+
+    @Test
+    public void differentHash_isHandled_andStoresTheNewHash() {
+        store.put(SIGNATURE, new PageValidators(null, null, sha1(BODY)));
+        PageValidation validation = validation(true);
+        byte[] newBody = "<html>a different page of posts</html>".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(validation.isUnchanged(false, newBody), is(false));
+        validation.save(false, headers());
+
+        assertThat(store.saved.get(SIGNATURE).contentHash, is(sha1(newBody)));
+    }
+
+
+    @Test
+    public void evictedPage_isntValidated() {
+        store.put(SIGNATURE, new PageValidators("\"abc\"", null, sha1(BODY)));
+        PageValidation validation = validation(false);
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        validation.addHeaders(requestHeaders);
+
+        assertThat(requestHeaders.isEmpty(), is(true));
+        assertThat(validation.isUnchanged(false, BODY), is(false));
+        assertThat(store.finds, is(0));
+    }
+
+
+    @Test
+    public void differentSignature_isntValidated() {
+        store.put(SIGNATURE + "with different settings", new PageValidators(null, null, sha1(BODY)));
+        PageValidation validation = validation(true);
+
+        assertThat(validation.getStoredHash(), is(nullValue()));
+        assertThat(validation.isUnchanged(false, BODY), is(false));
+    }
+
+
+    @Test
+    public void validators_areOnlyLookedUpOnce() {
+        store.put(SIGNATURE, new PageValidators("\"abc\"", null, null));
+        PageValidation validation = validation(true);
+
+        // a retried request builds its headers again
+        validation.addHeaders(new HashMap<>());
+        validation.addHeaders(new HashMap<>());
+        validation.isUnchanged(false, BODY);
+
+        assertThat(store.finds, is(1));
+    }
+
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+
+    /** Stores validators for {@link #PAGE}, by signature */
+    private static class FakeStore implements PageValidation.Store {
+        final Map<String, PageValidators> stored = new HashMap<>();
+        final Map<String, PageValidators> saved = new HashMap<>();
+        int savedThreadId = 0;
+        int finds = 0;
+
+        void put(String signature, PageValidators validators) {
+            stored.put(signature, validators);
+        }
+
+        @Override
+        public PageValidators find(String key, String signature) {
+            finds++;
+            return key.equals(PAGE.getKey()) ? stored.get(signature) : null;
+        }
+
+        @Override
+        public void save(String key, String signature, int threadId, PageValidators validators) {
+            saved.put(signature, validators);
+            savedThreadId = threadId;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.ferg.awfulapp.thread;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+/**
+ * Checks the single-pass extractors find the same elements as the selector queries they replaced.
+ */
+public class FieldExtractorsTest {
+
+    private static final String POST =
+            "<table class=\"post\" id=\"post123\" data-idx=\"41\"><tbody><tr class=\"seen1\">" +
+            "<td class=\"userinfo userid-4567\">" +
+            "<dl><dt class=\"author role-mod platinum\">Someone</dt><dd class=\"registered\">Jan 1, 2004</dd>" +
+            "<dd class=\"title\"><img src=\"http://i.somethingawful.com/avatar.gif\"><br>custom title<img src=\"second.png\"><img src=\"third.png\"></dd></dl>" +
+            "</td>" +
+            "<td class=\"postbody\">" +
+            "<div class=\"complete_shit\"><p>hello <img src=\"pic.jpg\" alt=\"\"></p></div>" +
+            "<div class=\"signature\">sig</div>" +
+            "<p class=\"editedby\"><span>Someone fucked around with this message at 10:00</span></p>" +
+            "</td></tr><tr>" +
+            "<td class=\"postdate\">#? Jan 2, 2020 12:00</td>" +
+            "<td class=\"postlinks\"><ul class=\"profilelinks\"><li><a href=\"member.php?action=getinfo&amp;userid=4567\">Profile</a></li></ul>" +
+            "<ul class=\"postbuttons\"><li><a href=\"editpost.php?postid=123\"><img alt=\"Edit\" src=\"edit.gif\"></a></li></ul></td>" +
+            "</tr></tbody></table>";
+
+    private static final String THREAD_ROW =
+            "<tr class=\"thread closed\" id=\"thread3743815\">" +
+            "<td class=\"star bm2\"></td>" +
+            "<td class=\"icon\"><a href=\"#\"><img src=\"https://fi.somethingawful.com/forums/posticons/tag.gif#123\"></a></td>" +
+            "<td class=\"icon2\"><img src=\"https://fi.somethingawful.com/ama.gif\"></td>" +
+            "<td class=\"title title_sticky\"><div class=\"info\"><a class=\"thread_title\" href=\"#\">A thread</a></div>" +
+            "<div class=\"lastseen\"><a class=\"x\" href=\"#\">X</a><a class=\"count\" href=\"#\"><b>12</b></a></div></td>" +
+            "<td class=\"author\"><a href=\"member.php?action=getinfo&amp;userid=99\">Poster</a></td>" +
+            "<td class=\"replies\">345</td>" +
+            "<td class=\"rating\"><img src=\"https://fi.somethingawful.com/5stars.gif\"></td>" +
+            "<td class=\"lastpost\"><div class=\"date\">12:00</div><a class=\"author\" href=\"#\">Last Poster</a></td>" +
+            "</tr>";
+
+
+    @Test
+    public void postFields_matchSelectors() {
+        Element post = Jsoup.parse(POST).selectFirst(".post");
+        PostFields fields = new PostFields(post);
+
+        assertThat(fields.getAuthor(), is(sameInstance(post.selectFirst(".author"))));
+        assertThat(fields.getRegistered(), is(sameInstance(post.selectFirst(".registered"))));
+        assertThat(fields.getTitle(), is(sameInstance(post.selectFirst(".title"))));
+        assertThat(fields.getTitleImages(), is(post.selectFirst(".title").select("img").subList(0, 2)));
+        Element postBody = post.selectFirst(".postbody");
+        assertThat(fields.getPostBody(), is(sameInstance(postBody)));
+        assertThat(fields.getFyadPostBody(), is(sameInstance(postBody.selectFirst(".complete_shit"))));
+        assertThat(fields.getSignature(), is(sameInstance(postBody.selectFirst("> .signature"))));
+        assertThat(fields.getPostDate(), is(sameInstance(post.selectFirst(".postdate"))));
+        assertThat(fields.getUserInfoId(), is(4567));
+        assertThat(fields.getProfileLink(), is(sameInstance(post.selectFirst(".profilelinks [href*='userid=']"))));
+        assertThat(fields.getEditedBy(), is(sameInstance(post.getElementsByClass("editedBy").first().children().first())));
+        assertThat(fields.isPlatinum(), is(true));
+        assertThat(fields.getMarkedSeen(), is(post.selectFirst("[class^=seen]") != null));
+        assertThat(fields.getHasEditButton(), is(!post.getElementsByAttributeValue("alt", "Edit").isEmpty()));
+    }
+
+
+    @Test
+    public void postFields_missingParts() {
+        Element post = Jsoup.parse("<table class=\"post\" id=\"post1\"><tr><td class=\"postbody\">hi</td></tr></table>").selectFirst(".post");
+        PostFields fields = new PostFields(post);
+
+        assertThat(fields.getAuthor(), is(nullValue()));
+        assertThat(fields.getFyadPostBody(), is(nullValue()));
+        assertThat(fields.getUserInfoId(), is(nullValue()));
+        assertThat(fields.getEditedBy(), is(nullValue()));
+        assertThat(fields.getTitleImages().isEmpty(), is(true));
+        assertThat(fields.getMarkedSeen(), is(false));
+        assertThat(fields.getHasEditButton(), is(false));
+    }
+
+
+    @Test
+    public void threadRowFields_matchSelectors() {
+        Element thread = Jsoup.parse("<table id=\"forum\">" + THREAD_ROW + "</table>").selectFirst(".thread");
+        ThreadRowFields fields = new ThreadRowFields(thread);
+
+        assertThat(fields.getThreadTitle(), is(sameInstance(thread.selectFirst(".thread_title"))));
+        assertThat(fields.getAuthor(), is(sameInstance(thread.selectFirst(".author"))));
+        assertThat(fields.getAuthorLink(), is(sameInstance(thread.selectFirst(".author").selectFirst("a[href*='userid']"))));
+        assertThat(fields.getLastPostAuthor(), is(sameInstance(thread.selectFirst(".lastpost .author"))));
+        assertThat(fields.getRatingImage(), is(sameInstance(thread.selectFirst(".rating img"))));
+        assertThat(fields.getIconImage(), is(sameInstance(thread.selectFirst(".icon img"))));
+        assertThat(fields.getSecondaryIconImage(), is(sameInstance(thread.selectFirst(".icon2 img"))));
+        assertThat(fields.getReplies(), is(sameInstance(thread.selectFirst(".replies"))));
+        assertThat(fields.getUnreadCount(), is(sameInstance(thread.selectFirst(".count"))));
+        assertThat(fields.getStar(), is(sameInstance(thread.selectFirst(".star"))));
+        assertThat(fields.isSticky(), is(true));
+        assertThat(fields.getHasX(), is(true));
+    }
+}
@@ -0,0 +1,84 @@
+package com.ferg.awfulapp.thread;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the serializer writes the same HTML as jsoup does for a UTF-8 document.
+ */
+public class PostHtmlSerializerTest {
+
+    private static final String POST_BODY =
+            "<td class=\"postbody\">\n" +
+            "\t\t\t\n<!-- google_ad_section_start -->\n" +
+            "Some text   with  spacing&nbsp;and &amp; escapes &lt;b&gt; \"quotes\" 'apostrophes'<br>\n" +
+            "caf\u00E9 \u2014 \u201Csmart\u201D \u4E2D\u6587 \uD83D\uDE00 \u0007<br>\n" +
+            "<div class=\"bbc-block\"><h4>quote:</h4><blockquote>\n<a href=\"showthread.php?goto=post&amp;postid=1\" class=\"quote_link\">Someone posted:</a>\n" +
+            "<p>nested <b>bold <i>italic</i></b> text</p></blockquote></div>\n" +
+            "<img src=\"https://i.imgur.com/abc.jpg\" alt=\"&quot;a&lt;b&gt;\" class=\"img\" border=\"0\">" +
+            "<input type=\"checkbox\" checked disabled=\"disabled\" data-x=\"\">\n" +
+            "<div class=\"bbc-block code\"><h5>code:</h5><pre>  keep\n    this   spacing &amp; <b>that</b>\n</pre></div>" +
+            "<ul><li>one</li><li> two <span>three</span></li></ul>" +
+            "<span class=\"bbc-spoiler\">spoiler <!-- inline comment --> text</span>\n" +
+            "<script>var x = 1 < 2 && \"a\";</script>" +
+            "<p class=\"editedby\"><span>edited</span></p>\n" +
+            "</td>";
+
+
+    @Test
+    public void matchesJsoupOutput() {
+        assertMatches(POST_BODY);
+    }
+
+
+    @Test
+    public void matchesJsoupOutput_edgeCases() {
+        assertMatches("<td class=\"postbody\"></td>");
+        assertMatches("<td class=\"postbody\">   </td>");
+        assertMatches("<td class=\"postbody\">just text</td>");
+        assertMatches("<td class=\"postbody\"><br><br>text<br></td>");
+        assertMatches("<td class=\"postbody\"><div>  a  </div>  <div>b</div> trailing  </td>");
+        assertMatches("<td class=\"postbody\">text <a href=\"x\">link</a> <img src=\"y\"> more</td>");
+        assertMatches("<td class=\"postbody\"><span>first</span><p>para</p>\n<span>after</span></td>");
+        assertMatches("<td class=\"postbody\"><foo-bar></foo-bar><custom attr=\"1\"/></td>");
+    }
+
+
+    /**
+     * Parse the content as the app does (from windows-1252 bytes) and compare our output with
+     * jsoup's, once the document is switched to UTF-8 output.
+     */
+    private static void assertMatches(String postBody) {
+        Charset windows1252 = Charset.forName("windows-1252");
+        // keep anything windows-1252 can't represent as an entity, like the site does
+        String page = "<html><body><table><tr>" + postBody + "</tr></table></body></html>";
+        StringBuilder encoded = new StringBuilder();
+        page.codePoints().forEach(codePoint -> {
+            String character = new String(Character.toChars(codePoint));
+            if (windows1252.newEncoder().canEncode(character)) {
+                encoded.append(character);
+            } else {
+                encoded.append("&#").append(codePoint).append(';');
+            }
+        });
+        Document document;
+        try {
+            document = Jsoup.parse(new ByteArrayInputStream(encoded.toString().getBytes(windows1252)), "windows-1252", "https://forums.somethingawful.com/");
+        } catch (java.io.IOException e) {
+            throw new AssertionError(e);
+        }
+        Element content = document.selectFirst(".postbody");
+
+        String serialized = PostHtmlSerializer.html(content);
+        document.outputSettings().charset("UTF-8");
+        assertThat(serialized, is(content.html()));
+    }
+}
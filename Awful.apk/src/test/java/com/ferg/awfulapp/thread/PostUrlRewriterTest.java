@@ -0,0 +1,63 @@
+package com.ferg.awfulapp.thread;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+/**
+ * Checks the host rules rewrite URLs the same way the old domain checks did.
+ */
+public class PostUrlRewriterTest {
+
+    @Test
+    public void canonical_upgradesHttpsHosts() {
+        assertThat(PostUrlRewriter.canonical("http://i.imgur.com/abcdefg.jpg"), is("https://i.imgur.com/abcdefg.jpg"));
+        assertThat(PostUrlRewriter.canonical("HTTP://forums.somethingawful.com/showthread.php?threadid=1"), is("https://forums.somethingawful.com/showthread.php?threadid=1"));
+        assertThat(PostUrlRewriter.canonical("http://media.giphy.com:80/media/x/giphy.gif"), is("https://media.giphy.com:80/media/x/giphy.gif"));
+        // only the host counts, not the rest of the URL
+        assertThat(PostUrlRewriter.canonical("http://example.com/imgur.com/a.jpg"), is("http://example.com/imgur.com/a.jpg"));
+        assertThat(PostUrlRewriter.canonical("http://notimgur.com/a.jpg"), is("http://notimgur.com/a.jpg"));
+    }
+
+
+    @Test
+    public void canonical_movesHosts() {
+        assertThat(PostUrlRewriter.canonical("https://i.postimg.org/abc/pic.png"), is("https://i.postimg.cc/abc/pic.png"));
+        assertThat(PostUrlRewriter.canonical("https://i.postimg.cc/abc/pic.png"), is("https://i.postimg.cc/abc/pic.png"));
+    }
+
+
+    @Test
+    public void canonical_leavesOtherUrls() {
+        assertThat(PostUrlRewriter.canonical("showthread.php?goto=lastpost"), is("showthread.php?goto=lastpost"));
+        assertThat(PostUrlRewriter.canonical("file:///android_asset/images/gif.png"), is("file:///android_asset/images/gif.png"));
+        assertThat(PostUrlRewriter.ruleFor("https://example.com/a.gif"), is(nullValue()));
+    }
+
+
+    @Test
+    public void thumbnail_onlyForImgurImages() {
+        assertThat(PostUrlRewriter.ruleFor("https://i.imgur.com/abcdefg.jpg").thumbnail("https://i.imgur.com/abcdefg.jpg", "l"), is("https://i.imgur.com/abcdefgl.jpg"));
+        // already a thumbnail
+        assertThat(PostUrlRewriter.ruleFor("https://i.imgur.com/abcdefgl.jpg").thumbnail("https://i.imgur.com/abcdefgl.jpg", "l"), is("https://i.imgur.com/abcdefgl.jpg"));
+        assertThat(PostUrlRewriter.ruleFor("https://imgur.com/abcdefg.jpg").thumbnail("https://imgur.com/abcdefg.jpg", "l"), is("https://imgur.com/abcdefg.jpg"));
+    }
+
+
+    @Test
+    public void gifStill_perHost() {
+        assertThat(gifStill("https://i.imgur.com/abcdefg.gif"), is("https://i.imgur.com/abcdefgh.gif"));
+        assertThat(gifStill("https://i.kinja-img.com/gawker-media/image/upload/abc.gif"), is("https://i.kinja-img.com/gawker-media/image/upload/abc.jpg"));
+        assertThat(gifStill("https://i.giphy.com/abc.gif"), is("https://media.giphy.com/media/abc/200_s.gif"));
+        assertThat(gifStill("https://media.giphy.com/media/abc/giphy.gif"), is("https://media.giphy.com/media/abc/200_s.gif"));
+        assertThat(gifStill("https://giant.gfycat.com/SomeGif.gif"), is("https://thumbs.gfycat.com/SomeGif-poster.jpg"));
+        assertThat(gifStill("https://forums.somethingawful.com/a.gif"), is(nullValue()));
+    }
+
+
+    private static String gifStill(String url) {
+        return PostUrlRewriter.ruleFor(url).gifStill(url);
+    }
+}
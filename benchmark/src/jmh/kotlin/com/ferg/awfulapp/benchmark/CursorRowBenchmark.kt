@@ -0,0 +1,209 @@
+package com.ferg.awfulapp.benchmark
+
+import android.content.ContentResolver
+import android.database.CharArrayBuffer
+import android.database.ContentObserver
+import android.database.Cursor
+import android.database.DataSetObserver
+import android.net.Uri
+import android.os.Bundle
+import com.ferg.awfulapp.thread.AwfulForum
+import com.ferg.awfulapp.thread.AwfulThread
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+private const val THREADS = 40
+private const val FORUMS = 150
+
+/**
+ * Reading rows out of a cursor, per row - looking up every column's index for every row (which
+ * [AwfulThread.fromCursorRow] and the forum list used to do) against looking them up once per cursor.
+ *
+ * Android's cursors don't work on the JVM, so this reads from an in-memory cursor that finds column
+ * indexes the way SQLiteCursor does. THREADS is a page of the thread list, FORUMS roughly the whole
+ * forum tree.
+ */
+@State(Scope.Thread)
+open class CursorRowBenchmark {
+
+    private lateinit var threads: Cursor
+    private lateinit var forums: Cursor
+
+    @Setup
+    fun createCursors() {
+        threads = ArrayCursor(
+            arrayOf(
+                AwfulThread.ID, AwfulThread.INDEX, AwfulThread.FORUM_ID, AwfulThread.TITLE, AwfulThread.AUTHOR,
+                AwfulThread.AUTHOR_ID, AwfulThread.LASTPOSTER, AwfulThread.POSTCOUNT, AwfulThread.UNREADCOUNT,
+                AwfulThread.RATING, AwfulThread.BOOKMARKED, AwfulThread.LOCKED, AwfulThread.ARCHIVED,
+                AwfulThread.STICKY, AwfulThread.CAN_OPEN_CLOSE, AwfulThread.HAS_VIEWED_THREAD, AwfulThread.TAG_URL,
+                AwfulThread.TAG_CACHEFILE, AwfulThread.TAG_EXTRA, AwfulThread.CATEGORY, AwfulThread.FORUM_TITLE
+            ),
+            List(THREADS) { i ->
+                arrayOf(
+                    3_900_000 + i, i, 44, "Thread number $i: a title of a fairly typical length", "author$i",
+                    100_000 + i, "poster$i", 40 * i + 3, i % 7, i % 5, i % 3, 0, 0, if (i < 2) 1 else 0, 0, 1,
+                    "https://fi.somethingawful.com/forums/posticons/icon$i.gif", "icon$i.gif", 0, 0, "Games"
+                )
+            }
+        )
+        forums = ArrayCursor(
+            arrayOf(AwfulForum.ID, AwfulForum.PARENT_ID, AwfulForum.INDEX, AwfulForum.TITLE, AwfulForum.SUBTEXT, AwfulForum.TAG_URL),
+            List(FORUMS) { i ->
+                arrayOf(i + 1, i / 10, i, "Forum $i", "What forum $i is about, in a sentence or so", "https://fi.somethingawful.com/forumicons/$i.gif")
+            }
+        )
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREADS)
+    fun threadsLookupEveryRow(blackhole: Blackhole) {
+        threads.moveToPosition(-1)
+        while (threads.moveToNext()) blackhole.consume(threadLookingUpColumns(threads))
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREADS)
+    fun threadsOncePerCursor(blackhole: Blackhole) {
+        threads.moveToPosition(-1)
+        while (threads.moveToNext()) blackhole.consume(AwfulThread.fromCursorRow(threads))
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FORUMS)
+    fun forumsLookupEveryRow(blackhole: Blackhole) {
+        forums.moveToPosition(-1)
+        while (forums.moveToNext()) {
+            blackhole.consume(forums.getInt(forums.getColumnIndex(AwfulForum.ID)))
+            blackhole.consume(forums.getInt(forums.getColumnIndex(AwfulForum.PARENT_ID)))
+            blackhole.consume(forums.getString(forums.getColumnIndex(AwfulForum.TITLE)))
+            blackhole.consume(forums.getString(forums.getColumnIndex(AwfulForum.SUBTEXT)))
+            blackhole.consume(forums.getString(forums.getColumnIndex(AwfulForum.TAG_URL)))
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FORUMS)
+    fun forumsOncePerCursor(blackhole: Blackhole) {
+        // the same as ForumRepository#loadForumData
+        forums.moveToPosition(-1)
+        val idIndex = forums.getColumnIndex(AwfulForum.ID)
+        val parentIdIndex = forums.getColumnIndex(AwfulForum.PARENT_ID)
+        val titleIndex = forums.getColumnIndex(AwfulForum.TITLE)
+        val subtextIndex = forums.getColumnIndex(AwfulForum.SUBTEXT)
+        val tagUrlIndex = forums.getColumnIndex(AwfulForum.TAG_URL)
+        while (forums.moveToNext()) {
+            blackhole.consume(forums.getInt(idIndex))
+            blackhole.consume(forums.getInt(parentIdIndex))
+            blackhole.consume(forums.getString(titleIndex))
+            blackhole.consume(forums.getString(subtextIndex))
+            blackhole.consume(forums.getString(tagUrlIndex))
+        }
+    }
+
+
+    /** The old [AwfulThread.fromCursorRow], before it kept its column indexes. */
+    private fun threadLookingUpColumns(row: Cursor) = AwfulThread().apply {
+        id = row.getInt(row.getColumnIndex(AwfulThread.ID))
+        index = row.getInt(row.getColumnIndex(AwfulThread.INDEX))
+        title = row.getString(row.getColumnIndex(AwfulThread.TITLE))
+        forumId = row.getInt(row.getColumnIndex(AwfulThread.FORUM_ID))
+        author = row.getString(row.getColumnIndex(AwfulThread.AUTHOR))
+        authorId = row.getInt(row.getColumnIndex(AwfulThread.AUTHOR_ID))
+        lastPoster = row.getString(row.getColumnIndex(AwfulThread.LASTPOSTER))
+        postCount = row.getInt(row.getColumnIndex(AwfulThread.POSTCOUNT))
+        unreadCount = row.getInt(row.getColumnIndex(AwfulThread.UNREADCOUNT))
+        rating = row.getInt(row.getColumnIndex(AwfulThread.RATING))
+        bookmarkType = row.getInt(row.getColumnIndex(AwfulThread.BOOKMARKED))
+        isLocked = row.getInt(row.getColumnIndex(AwfulThread.LOCKED)) > 0
+        archived = row.getInt(row.getColumnIndex(AwfulThread.ARCHIVED)) > 0
+        isSticky = row.getInt(row.getColumnIndex(AwfulThread.STICKY)) > 0
+        canOpenClose = row.getInt(row.getColumnIndex(AwfulThread.CAN_OPEN_CLOSE)) > 0
+        hasBeenViewed = row.getInt(row.getColumnIndex(AwfulThread.HAS_VIEWED_THREAD)) == 1
+        tagUrl = row.getString(row.getColumnIndex(AwfulThread.TAG_URL))
+        tagCacheFile = row.getString(row.getColumnIndex(AwfulThread.TAG_CACHEFILE))
+        tagExtra = row.getInt(row.getColumnIndex(AwfulThread.TAG_EXTRA))
+        category = row.getInt(row.getColumnIndex(AwfulThread.CATEGORY))
+    }
+}
+
+
+/**
+ * A read-only cursor over some rows held in memory. Like SQLiteCursor, [getColumnIndex] ignores
+ * anything up to a '.' in the name and then looks it up in a map.
+ */
+private class ArrayCursor(private val columns: Array<String>, private val rows: List<Array<out Any?>>) : Cursor {
+
+    private val columnIndexes = columns.withIndex().associateTo(HashMap()) { (i, name) -> name to i }
+    private var position = -1
+    private var closed = false
+
+    private fun value(column: Int) = rows[position][column]
+
+    override fun getCount() = rows.size
+    override fun getPosition() = position
+    override fun move(offset: Int) = moveToPosition(position + offset)
+    override fun moveToPosition(position: Int): Boolean {
+        this.position = position.coerceIn(-1, rows.size)
+        return this.position in rows.indices
+    }
+    override fun moveToFirst() = moveToPosition(0)
+    override fun moveToLast() = moveToPosition(rows.size - 1)
+    override fun moveToNext() = moveToPosition(position + 1)
+    override fun moveToPrevious() = moveToPosition(position - 1)
+    override fun isFirst() = rows.isNotEmpty() && position == 0
+    override fun isLast() = rows.isNotEmpty() && position == rows.size - 1
+    override fun isBeforeFirst() = rows.isEmpty() || position == -1
+    override fun isAfterLast() = rows.isEmpty() || position == rows.size
+
+    override fun getColumnIndex(columnName: String): Int {
+        val name = columnName.substring(columnName.lastIndexOf('.') + 1)
+        return columnIndexes[name] ?: -1
+    }
+    override fun getColumnIndexOrThrow(columnName: String) =
+        getColumnIndex(columnName).also { require(it >= 0) { "column '$columnName' does not exist" } }
+    override fun getColumnName(columnIndex: Int) = columns[columnIndex]
+    override fun getColumnNames() = columns.copyOf()
+    override fun getColumnCount() = columns.size
+
+    override fun getBlob(columnIndex: Int) = value(columnIndex) as ByteArray?
+    override fun getString(columnIndex: Int) = value(columnIndex)?.toString()
+    override fun copyStringToBuffer(columnIndex: Int, buffer: CharArrayBuffer) = throw UnsupportedOperationException()
+    override fun getShort(columnIndex: Int) = getLong(columnIndex).toShort()
+    override fun getInt(columnIndex: Int) = getLong(columnIndex).toInt()
+    override fun getLong(columnIndex: Int) = (value(columnIndex) as Number?)?.toLong() ?: 0L
+    override fun getFloat(columnIndex: Int) = getDouble(columnIndex).toFloat()
+    override fun getDouble(columnIndex: Int) = (value(columnIndex) as Number?)?.toDouble() ?: 0.0
+    override fun getType(columnIndex: Int) = when (value(columnIndex)) {
+        null -> Cursor.FIELD_TYPE_NULL
+        is Int, is Long -> Cursor.FIELD_TYPE_INTEGER
+        is Number -> Cursor.FIELD_TYPE_FLOAT
+        is ByteArray -> Cursor.FIELD_TYPE_BLOB
+        else -> Cursor.FIELD_TYPE_STRING
+    }
+    override fun isNull(columnIndex: Int) = value(columnIndex) == null
+
+    @Deprecated("Deprecated in Java")
+    override fun deactivate() {}
+    @Deprecated("Deprecated in Java")
+    override fun requery() = !closed
+    override fun close() {
+        closed = true
+    }
+    override fun isClosed() = closed
+
+    override fun registerContentObserver(observer: ContentObserver) {}
+    override fun unregisterContentObserver(observer: ContentObserver) {}
+    override fun registerDataSetObserver(observer: DataSetObserver) {}
+    override fun unregisterDataSetObserver(observer: DataSetObserver) {}
+    override fun setNotificationUri(cr: ContentResolver, uri: Uri) {}
+    override fun getNotificationUri(): Uri? = null
+    override fun getWantsAllOnMoveCalls() = false
+    override fun setExtras(extras: Bundle) {}
+    override fun getExtras(): Bundle = Bundle.EMPTY
+    override fun respond(extras: Bundle): Bundle = Bundle.EMPTY
+}
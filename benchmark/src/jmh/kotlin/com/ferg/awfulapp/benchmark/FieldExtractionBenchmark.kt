@@ -0,0 +1,83 @@
+package com.ferg.awfulapp.benchmark
+
+import com.ferg.awfulapp.thread.PostFields
+import com.ferg.awfulapp.thread.ThreadRowFields
+import org.jsoup.nodes.Element
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Finding the parts of each post or thread row the parse tasks use - one selector query per field
+ * (how PostParseTask and ForumParseTask used to work) against the single-pass [PostFields] and
+ * [ThreadRowFields] extractors.
+ *
+ * Neither approach changes the page, so it's parsed once per trial.
+ */
+@State(Scope.Thread)
+open class FieldExtractionBenchmark {
+
+    @Param("THREAD", "FYAD", "FORUM", "BOOKMARKS")
+    lateinit var fixture: Fixture
+
+    private lateinit var elements: List<Element>
+    private var isThreadPage = false
+
+    @Setup
+    fun loadPage() {
+        isThreadPage = fixture == Fixture.THREAD || fixture == Fixture.FYAD
+        val page = fixture.parse()
+        elements = if (isThreadPage) page.getElementsByClass("post") else page.select("#forum .thread").filter { it.id().isNotEmpty() }
+    }
+
+    @Benchmark
+    fun selectorQueries(blackhole: Blackhole) {
+        if (isThreadPage) elements.forEach { postQueries(it, blackhole) } else elements.forEach { threadRowQueries(it, blackhole) }
+    }
+
+    @Benchmark
+    fun singlePass(blackhole: Blackhole) {
+        if (isThreadPage) elements.forEach { blackhole.consume(PostFields(it)) } else elements.forEach { blackhole.consume(ThreadRowFields(it)) }
+    }
+
+
+    /** The lookups PostParseTask used to run, one traversal each */
+    private fun postQueries(post: Element, blackhole: Blackhole) {
+        with(blackhole) {
+            consume(post.selectFirst("[class^=seen]"))
+            consume(post.selectFirst(".author"))
+            consume(post.selectFirst(".registered"))
+            consume(post.selectFirst(".platinum"))
+            consume(post.selectFirst(".author"))
+            consume(post.selectFirst(".title")?.select("img")?.take(2))
+            val postBody = post.selectFirst(".postbody")
+            consume(postBody?.selectFirst(".complete_shit"))
+            consume(postBody?.selectFirst("> .signature"))
+            consume(post.selectFirst(".postdate"))
+            consume(post.getElementsByClass("userinfo").flatMap(Element::classNames))
+            consume(post.selectFirst(".profilelinks [href*='userid=']"))
+            consume(post.getElementsByClass("editedBy").mapNotNull { it.children().first() }.firstOrNull())
+            consume(post.getElementsByAttributeValue("alt", "Edit"))
+        }
+    }
+
+    /** The lookups ForumParseTask used to run, one traversal each */
+    private fun threadRowQueries(thread: Element, blackhole: Blackhole) {
+        with(blackhole) {
+            consume(thread.selectFirst(".thread_title"))
+            consume(thread.selectFirst(".author")?.selectFirst("a[href*='userid']"))
+            consume(thread.selectFirst(".lastpost .author"))
+            consume(thread.selectFirst(".title_sticky"))
+            consume(thread.selectFirst(".rating img"))
+            consume(thread.selectFirst(".icon img"))
+            consume(thread.selectFirst(".icon2 img"))
+            consume(thread.selectFirst(".replies"))
+            consume(thread.selectFirst(".count"))
+            consume(thread.selectFirst(".x"))
+            consume(thread.selectFirst(".star"))
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ferg.awfulapp.benchmark
+
+import android.content.ContentResolver
+import android.content.ContextWrapper
+import com.ferg.awfulapp.constants.Constants.BASE_URL
+import com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING
+import com.ferg.awfulapp.preferences.AwfulPreferences
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Document
+import sun.misc.Unsafe
+import java.io.ByteArrayInputStream
+
+/**
+ * Recorded forum pages, used as input for the benchmarks.
+ *
+ * These live in src/jmh/resources/fixtures, and aren't checked in since they're full of the
+ * recording user's details. Save them from a logged-in browser session as raw HTML (no "complete
+ * page" saving, we want the bytes the site sent) using the file names here.
+ */
+enum class Fixture(val fileName: String) {
+    /** a normal 40-post thread page, ideally image-heavy */
+    THREAD("thread.html"),
+    /** a thread page from FYAD, which has its own post structure */
+    FYAD("fyad.html"),
+    /** a page from a forum's thread list */
+    FORUM("forum.html"),
+    /** the user control panel, i.e. bookmarks */
+    BOOKMARKS("bookmarks.html"),
+    PM_LIST("pm_list.html"),
+    SEARCH_RESULTS("search_results.html"),
+    LEPERS_COLONY("lepers_colony.html"),
+    /** a post preview, from the reply page */
+    POST_PREVIEW("post_preview.html"),
+    /** the full smilies list (misc.php?action=showsmilies) */
+    SMILIES("smilies.html");
+
+    val bytes: ByteArray by lazy {
+        Fixture::class.java.getResourceAsStream("/fixtures/$fileName")?.use { it.readBytes() }
+            ?: throw IllegalStateException("Missing fixture $fileName - record one into benchmark/src/jmh/resources/fixtures")
+    }
+
+    /** Parse a fresh copy of this page, the same way a plain AwfulRequest does */
+    fun parse(): Document = Jsoup.parse(ByteArrayInputStream(bytes), SITE_HTML_ENCODING, BASE_URL)
+}
+
+
+/**
+ * Builds an [AwfulPreferences] without going through its constructor, which needs a real Context
+ * and SharedPreferences. Values are the app defaults that affect parsing.
+ */
+fun benchmarkPreferences(): AwfulPreferences {
+    val unsafe = Unsafe::class.java.getDeclaredField("theUnsafe")
+        .apply { isAccessible = true }
+        .get(null) as Unsafe
+    return (unsafe.allocateInstance(AwfulPreferences::class.java) as AwfulPreferences).apply {
+        // canLoadImages() looks up the connectivity service - this stub returns null, which is fine with no3gImages off
+        AwfulPreferences::class.java.getDeclaredField("mContext")
+            .apply { isAccessible = true }
+            .set(this, ContextWrapper(null))
+        username = "Username"
+        postPerPage = 40
+        imagesEnabled = true
+        no3gImages = false
+        showSmilies = true
+        hideOldImages = false
+        imgurThumbnails = "d"
+        disableGifs = true
+        disableTimgs = false
+        inlineYoutube = true
+        inlineTiktoks = true
+    }
+}
+
+
+/**
+ * A resolver for tasks that touch the database. With the mockable android.jar every call returns
+ * an empty default (null cursors, 0 rows written) so we only measure the parsing work. The same goes
+ * for ContentValues - put() does nothing, so the values a task produces are always empty.
+ */
+fun benchmarkResolver(): ContentResolver = object : ContentResolver(null) {}
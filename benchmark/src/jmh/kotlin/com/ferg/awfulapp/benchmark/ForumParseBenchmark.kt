@@ -0,0 +1,49 @@
+package com.ferg.awfulapp.benchmark
+
+import com.ferg.awfulapp.constants.Constants
+import com.ferg.awfulapp.thread.ForumParseTask
+import org.jsoup.nodes.Element
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.sql.Timestamp
+
+/**
+ * Thread list parsing, for a normal forum page and the bookmarks page.
+ *
+ * [ForumParseTask] only reads its element, so the page is parsed once per trial.
+ */
+@State(Scope.Thread)
+open class ForumParseBenchmark {
+
+    @Param("FORUM", "BOOKMARKS")
+    lateinit var fixture: Fixture
+
+    private val prefs = benchmarkPreferences()
+    private val updateTime = Timestamp(System.currentTimeMillis()).toString()
+
+    private lateinit var threads: List<Element>
+    private var forumId = 0
+
+    @Setup
+    fun loadPage() {
+        // same selection as AwfulThread#parseForumThreads, skipping the table header
+        threads = fixture.parse().select("#forum .thread").filter { it.id().isNotEmpty() }
+        forumId = if (fixture == Fixture.BOOKMARKS) Constants.USERCP_ID else FORUM_ID
+    }
+
+    /** Every thread row on the page through [ForumParseTask], on the benchmark thread */
+    @Benchmark
+    fun forumParseTask(blackhole: Blackhole) {
+        threads.forEachIndexed { index, thread ->
+            blackhole.consume(ForumParseTask(thread, forumId, index, prefs.username, updateTime).call())
+        }
+    }
+
+    companion object {
+        private const val FORUM_ID = 273
+    }
+}
@@ -0,0 +1,32 @@
+package com.ferg.awfulapp.benchmark
+
+import com.ferg.awfulapp.thread.AwfulEmote
+import com.ferg.awfulapp.thread.PostPreviewParseTask
+import org.jsoup.nodes.Document
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * The smaller parsers - post previews and the smilies list. Neither modifies its page, so each
+ * page is parsed once per trial.
+ */
+@State(Scope.Thread)
+open class MiscParseBenchmark {
+
+    private lateinit var previewPage: Document
+    private lateinit var smiliesPage: Document
+
+    @Setup
+    fun loadPages() {
+        previewPage = Fixture.POST_PREVIEW.parse()
+        smiliesPage = Fixture.SMILIES.parse()
+    }
+
+    @Benchmark
+    fun postPreviewParseTask(): String = PostPreviewParseTask(previewPage).call()
+
+    @Benchmark
+    fun parseEmotes(): Any = AwfulEmote.parseEmotes(smiliesPage)
+}
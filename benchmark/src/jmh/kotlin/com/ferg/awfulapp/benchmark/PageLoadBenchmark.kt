@@ -0,0 +1,36 @@
+package com.ferg.awfulapp.benchmark
+
+import com.ferg.awfulapp.constants.Constants.BASE_URL
+import com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING
+import com.ferg.awfulapp.task.PageSelectorScanner
+import com.ferg.awfulapp.task.PageSelectorStripper
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Document
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.io.ByteArrayInputStream
+
+/**
+ * Turning a response into a Document, before any of the data gets pulled out - a plain jsoup parse
+ * (as in AwfulRequest) vs stripping the page selectors first, from the whole page or line by line
+ * as it's read (as in AwfulStrippedRequest, which streams its responses).
+ */
+@State(Scope.Thread)
+open class PageLoadBenchmark {
+
+    @Param("THREAD", "FYAD", "FORUM", "BOOKMARKS", "PM_LIST", "SEARCH_RESULTS", "LEPERS_COLONY")
+    lateinit var fixture: Fixture
+
+    @Benchmark
+    fun jsoupParse(): Document = fixture.parse()
+
+    @Benchmark
+    fun strippedParse(): Document =
+        Jsoup.parse(PageSelectorScanner(fixture.bytes).strippedStream(), SITE_HTML_ENCODING, BASE_URL)
+
+    @Benchmark
+    fun streamStrippedParse(): Document =
+        Jsoup.parse(PageSelectorStripper(ByteArrayInputStream(fixture.bytes)), SITE_HTML_ENCODING, BASE_URL)
+}
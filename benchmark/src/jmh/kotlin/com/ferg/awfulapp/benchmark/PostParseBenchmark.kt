@@ -0,0 +1,61 @@
+package com.ferg.awfulapp.benchmark
+
+import com.ferg.awfulapp.thread.PostParseTask
+import com.ferg.awfulapp.thread.ThreadPageParseTask
+import org.jsoup.nodes.Document
+import org.jsoup.select.Elements
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.sql.Timestamp
+
+/**
+ * Thread page parsing - the individual post parser, and the full page task that drives it.
+ *
+ * Post parsing rewrites the post elements, so every invocation gets a freshly parsed page. Each
+ * invocation handles a whole page, so the per-invocation setup overhead is small in comparison.
+ */
+@State(Scope.Thread)
+open class PostParseBenchmark {
+
+    @Param("THREAD", "FYAD")
+    lateinit var fixture: Fixture
+
+    private val prefs = benchmarkPreferences()
+    private val resolver = benchmarkResolver()
+    private val updateTime = Timestamp(System.currentTimeMillis()).toString()
+
+    private lateinit var page: Document
+    private lateinit var posts: Elements
+
+    @Setup(Level.Invocation)
+    fun loadPage() {
+        page = fixture.parse()
+        posts = page.getElementsByClass("post")
+    }
+
+    /** Every post on the page through [PostParseTask], on the benchmark thread */
+    @Benchmark
+    fun postParseTask(blackhole: Blackhole) {
+        posts.forEachIndexed { index, post ->
+            blackhole.consume(PostParseTask(post, updateTime, index, LAST_READ_INDEX, THREAD_ID, OP_ID, prefs).call())
+        }
+    }
+
+    /** The full [ThreadPageParseTask], which hands the posts to the parsing threads */
+    @Benchmark
+    fun threadPageParseTask(blackhole: Blackhole) {
+        blackhole.consume(ThreadPageParseTask(resolver, page, THREAD_ID, 1, 1, prefs.postPerPage, prefs).call())
+    }
+
+    companion object {
+        private const val THREAD_ID = 3743815
+        private const val OP_ID = 1
+        // half the page has been read, so both the old and new image handling get exercised
+        private const val LAST_READ_INDEX = 20
+    }
+}
@@ -0,0 +1,41 @@
+package com.ferg.awfulapp.benchmark
+
+import com.ferg.awfulapp.thread.PostHtmlSerializer
+import org.jsoup.nodes.Element
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Writing out post content - jsoup's [Element.html] (which PostParseTask used to call, and which
+ * runs every non-ASCII character through the page's windows-1252 encoder) against [PostHtmlSerializer].
+ *
+ * Neither changes the page, so it's parsed once per trial. THREAD should be an image-heavy page.
+ */
+@State(Scope.Thread)
+open class PostSerializationBenchmark {
+
+    @Param("THREAD", "FYAD")
+    lateinit var fixture: Fixture
+
+    private lateinit var postBodies: List<Element>
+
+    @Setup
+    fun loadPage() {
+        postBodies = fixture.parse().getElementsByClass("postbody")
+            .map { it.selectFirst(".complete_shit") ?: it }
+    }
+
+    @Benchmark
+    fun jsoupHtml(blackhole: Blackhole) {
+        postBodies.forEach { blackhole.consume(it.html()) }
+    }
+
+    @Benchmark
+    fun postHtmlSerializer(blackhole: Blackhole) {
+        postBodies.forEach { blackhole.consume(PostHtmlSerializer.html(it)) }
+    }
+}
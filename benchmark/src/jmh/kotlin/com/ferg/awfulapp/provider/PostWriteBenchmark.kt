@@ -0,0 +1,152 @@
+package com.ferg.awfulapp.provider
+
+import com.ferg.awfulapp.thread.AwfulPost
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+
+/**
+ * Writing a refreshed page of posts over the stored copy, in rows per second - the way
+ * AwfulProvider used to write each post (a delete at its position, then SQLiteDatabase#replace)
+ * against the way [BulkRowWriter] does it.
+ *
+ * Android's SQLite classes don't run on the JVM, so this runs the same SQL through sqlite-jdbc (from
+ * the app's test dependencies) on the app's schema, which is why it lives in the provider package.
+ * The old way gets a cache of compiled statements keyed on their SQL, like each Android database
+ * connection has. Most of the difference is updating rows in place instead of deleting and
+ * inserting them again, which saves maintaining every index twice per row.
+ */
+@State(Scope.Thread)
+open class PostWriteBenchmark {
+
+    private lateinit var db: Connection
+    private lateinit var page: List<Map<String, Any?>>
+    private lateinit var tableColumns: List<String>
+    private val statementCache = HashMap<String, PreparedStatement>()
+
+    @Setup
+    fun createDatabase() {
+        db = DriverManager.getConnection("jdbc:sqlite::memory:")
+        db.createStatement().use { statement ->
+            statement.execute(DatabaseHelper.CREATE_POST_TABLE)
+            DatabaseHelper.CREATE_INDEXES.filter { it.contains(" ON ${DatabaseHelper.TABLE_POSTS} ") }.forEach(statement::execute)
+        }
+        tableColumns = db.createStatement().use { statement ->
+            statement.executeQuery("PRAGMA table_info(${DatabaseHelper.TABLE_POSTS})").use { result ->
+                generateSequence { if (result.next()) result.getString("name") else null }.toList()
+            }
+        }
+        db.autoCommit = false
+        // a few other threads' pages, so the table isn't trivially small
+        for (thread in 1..50) {
+            writeCompiled(pageOfPosts(THREAD_ID + thread))
+        }
+        page = pageOfPosts(THREAD_ID)
+        writeCompiled(page)
+    }
+
+    @TearDown
+    fun closeDatabase() {
+        statementCache.values.forEach(PreparedStatement::close)
+        db.close()
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(POSTS_PER_PAGE)
+    fun perRowDeleteAndReplace() {
+        for (row in page) {
+            // SQLiteDatabase#delete
+            val deleteArgs = arrayOf(row[AwfulPost.POST_INDEX].toString(), row[AwfulPost.THREAD_ID].toString())
+            cached("DELETE FROM ${DatabaseHelper.TABLE_POSTS} WHERE ${AwfulPost.POST_INDEX}=? AND ${AwfulPost.THREAD_ID}=?").run {
+                deleteArgs.forEachIndexed { i, arg -> setString(i + 1, arg) }
+                executeUpdate()
+            }
+            // SQLiteDatabase#replace, which builds the SQL and an argument array from the ContentValues
+            val columns = row.keys
+            val sql = StringBuilder("INSERT OR REPLACE INTO ").append(DatabaseHelper.TABLE_POSTS).append('(')
+                .append(columns.joinToString(",")).append(") VALUES (")
+                .append(columns.joinToString(",") { "?" }).append(')').toString()
+            val args = columns.map { row[it] }.toTypedArray()
+            cached(sql).run {
+                args.forEachIndexed { i, arg -> setObject(i + 1, arg) }
+                executeUpdate()
+            }
+        }
+        db.commit()
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(POSTS_PER_PAGE)
+    fun bulkRowWriter() {
+        writeCompiled(page)
+    }
+
+
+    /**
+     * What [BulkRowWriter] does - compiled statements to update each post by ID (setting every
+     * column) or insert it if it's new, and one delete for any other posts in the page's range
+     */
+    private fun writeCompiled(posts: List<Map<String, Any?>>) {
+        val columns = posts[0].keys.toTypedArray()
+        val update = db.prepareStatement("UPDATE ${DatabaseHelper.TABLE_POSTS} SET ${tableColumns.joinToString(",") { "$it=?" }} " +
+                "WHERE ${AwfulPost.ID}=?")
+        val insert = db.prepareStatement("INSERT OR REPLACE INTO ${DatabaseHelper.TABLE_POSTS} (${columns.joinToString(",")}) " +
+                "VALUES (${columns.joinToString(",") { "?" }})")
+        update.use {
+            insert.use {
+                for (row in posts) {
+                    tableColumns.forEachIndexed { i, column -> update.setObject(i + 1, row[column]) }
+                    update.setObject(tableColumns.size + 1, row[AwfulPost.ID])
+                    if (update.executeUpdate() == 0) {
+                        columns.forEachIndexed { i, column -> insert.setObject(i + 1, row[column]) }
+                        insert.executeUpdate()
+                    }
+                }
+            }
+        }
+        val ids = posts.joinToString(",") { it[AwfulPost.ID].toString() }
+        db.prepareStatement("DELETE FROM ${DatabaseHelper.TABLE_POSTS} WHERE ${AwfulPost.THREAD_ID}=? " +
+                "AND ${AwfulPost.POST_INDEX}>=? AND ${AwfulPost.POST_INDEX}<=? AND ${AwfulPost.ID} NOT IN ($ids)").use {
+            it.setString(1, posts[0][AwfulPost.THREAD_ID].toString())
+            it.setString(2, posts.first()[AwfulPost.POST_INDEX].toString())
+            it.setString(3, posts.last()[AwfulPost.POST_INDEX].toString())
+            it.executeUpdate()
+        }
+        db.commit()
+    }
+
+
+    private fun cached(sql: String): PreparedStatement = statementCache.getOrPut(sql) { db.prepareStatement(sql) }
+
+
+    /** A page of posts, with the columns PostParseTask fills in (the authors' go in the users table) */
+    private fun pageOfPosts(threadId: Int): List<Map<String, Any?>> = (0 until POSTS_PER_PAGE).map { index ->
+        linkedMapOf(
+            AwfulPost.ID to threadId * 100L + index,
+            AwfulPost.THREAD_ID to threadId,
+            AwfulPost.POST_INDEX to index,
+            AwfulPost.DATE to "Jan 1, 2024 12:00",
+            AwfulPost.USER_ID to 1000 + index,
+            AwfulPost.PREVIOUSLY_READ to 1,
+            AwfulPost.EDITABLE to 0,
+            AwfulPost.IS_OP to if (index == 0) 1 else 0,
+            AwfulPost.CONTENT to "<p>post content</p>".repeat(100),
+            AwfulPost.EDITED to null,
+            AwfulPost.CONTENT_HASH to index.toLong() * 31,
+            DatabaseHelper.UPDATED_TIMESTAMP to "2024-01-01 12:00:00"
+        )
+    }
+
+    companion object {
+        private const val THREAD_ID = 3743815
+        private const val POSTS_PER_PAGE = 40
+    }
+}